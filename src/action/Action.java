@@ -2,16 +2,22 @@ package action;
 
 import server.ClientHandler;
 import database.DB;
+import logging.Logger;
+import metrics.ServerMetrics;
+import model.User;
 import response.Response;
 import response.ResponseCode;
+import response.ResponseContent;
 import utility.ProtocolHandler;
 
 public abstract class Action {
+    private static final Logger log = Logger.getLogger(Action.class);
+
     protected final DB db;
     protected ClientHandler clientHandler;
 
     protected ResponseCode serverResponseCode;
-    protected String serializedResponseContent;
+    protected ResponseContent responseContent;
 
     protected Action(ClientHandler clientHandler) {
         this.clientHandler = clientHandler;
@@ -19,21 +25,48 @@ public abstract class Action {
 
         // default values
         serverResponseCode = ResponseCode.ERROR;
-        serializedResponseContent = "";
+        responseContent = ResponseContent.EMPTY;
     }
 
     public abstract void validate();
     public abstract void execute();
 
     public void validateAndExecute() {
+        ServerMetrics.ActionMetrics actionMetrics = ServerMetrics.getInstance().forAction(getClass().getSimpleName());
+
+        long start = System.nanoTime();
         validate();
+
+        long validated = System.nanoTime();
         execute();
 
+        long executed = System.nanoTime();
+
         // Create the response
-        Response serverResponse = new Response(serverResponseCode, serializedResponseContent);
+        Response serverResponse = new Response(serverResponseCode, responseContent);
+
+        // Send the response to client, the serialize and send phases are recorded on the way
+        serverResponse.send(clientHandler, actionMetrics);
+
+        long finished = System.nanoTime();
+        actionMetrics.record(serverResponseCode, validated - start, executed - validated, finished - start);
+
+        // One line per request, only built when DEBUG is on
+        if (log.isDebugEnabled()) {
+            log.debug("Request handled.", "action", getClass().getSimpleName(), "user", getHandledUsername(),
+                    "code", serverResponseCode, "latencyMicros", (finished - start) / 1000);
+        }
+    }
+
+    // Used where a database call of the action failed, the client only sees ERROR
+    protected void logDatabaseError(Exception e) {
+        log.error("Database call failed.", "action", getClass().getSimpleName(), "user", getHandledUsername(),
+                "error", e.getMessage());
+    }
 
-        // Send the response to client
-        serverResponse.send(clientHandler);
+    private String getHandledUsername() {
+        User handledUser = clientHandler.getHandledUser();
+        return handledUser == null ? null : handledUser.getUsername();
     }
 
     protected boolean containsReservedDelimiter(String target) {
@@ -26,7 +26,7 @@ public class AddUserAction extends Action {
 
                 db.insertUser(userToInsert, userFields.get("password"));
             } catch (SQLException e) {
-                System.err.println(e.getMessage());
+                logDatabaseError(e);
                 serverResponseCode = ResponseCode.ERROR;
             }
         }
@@ -40,7 +40,7 @@ public class AddUserAction extends Action {
                 return;
             }
         } catch (Exception e) {
-            System.err.println(e.getMessage());
+            logDatabaseError(e);
             serverResponseCode = ResponseCode.ERROR;
             return;
         }
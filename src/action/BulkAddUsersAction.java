@@ -0,0 +1,113 @@
+package action;
+
+import model.User;
+import response.ResponseCode;
+import response.ResponseContent;
+import server.ClientHandler;
+import utility.ProtocolHandler;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Adds many users at once, for onboarding: large imports are sent as a series of these requests
+// Users that cannot be added are reported back with the reason, the others are added anyway
+public class BulkAddUsersAction extends Action {
+    // Most users one request may carry
+    private static final int MAX_USERS_PER_REQUEST = 1000;
+
+    private final String serializedUsers;
+
+    private final List<User> usersToInsert = new ArrayList<>();
+    private final List<String> passwords = new ArrayList<>();
+    private final Map<String, ResponseCode> failures = new LinkedHashMap<>(); // By username, in the order given
+
+    public BulkAddUsersAction(String serializedUsers, ClientHandler clientHandler) {
+        super(clientHandler);
+
+        this.serializedUsers = serializedUsers;
+    }
+
+    @Override
+    public void execute() {
+        if (serverResponseCode == ResponseCode.SUCCESS) {
+            try {
+                if (!usersToInsert.isEmpty()) {
+                    for (String skippedUsername : db.insertUsers(usersToInsert, passwords)) {
+                        failures.put(skippedUsername, ResponseCode.USERNAME_ALREADY_EXISTS);
+                    }
+                }
+
+                if (!failures.isEmpty()) {
+                    responseContent = ResponseContent.ofText(ProtocolHandler.serializeRecipientFailures(failures));
+                }
+            } catch (SQLException e) {
+                logDatabaseError(e);
+                serverResponseCode = ResponseCode.ERROR;
+            }
+        }
+    }
+
+    @Override
+    public void validate() {
+        User requester = clientHandler.getHandledUser();
+        if (requester == null || !requester.isAdmin()) {
+            serverResponseCode = ResponseCode.UNAUTHORIZED;
+            return;
+        }
+
+        List<Map<String, String>> userFieldsList = ProtocolHandler.parseUserFieldsList(serializedUsers);
+
+        if (userFieldsList.isEmpty() || userFieldsList.size() > MAX_USERS_PER_REQUEST) {
+            serverResponseCode = ResponseCode.INVALID_FIELD_VALUES;
+            return;
+        }
+
+        for (int i = 0; i < userFieldsList.size(); i++) {
+            Map<String, String> userFields = userFieldsList.get(i);
+
+            // One bad user must not fail the whole batch in the database, so they are sorted out here
+            if (!isValid(userFields)) {
+                String username = userFields.get("username");
+                failures.put((username == null || username.isEmpty()) ? "#" + (i + 1) : username,
+                        ResponseCode.INVALID_FIELD_VALUES);
+                continue;
+            }
+
+            usersToInsert.add(new User(userFields.get("username"), userFields.get("name"),
+                    userFields.get("surname"), userFields.get("birthdate"),
+                    userFields.get("gender"), userFields.get("email"),
+                    userFields.get("location"),
+                    Boolean.parseBoolean(userFields.get("isAdmin"))));
+            passwords.add(userFields.get("password"));
+        }
+
+        serverResponseCode = ResponseCode.SUCCESS;
+    }
+
+    private boolean isValid(Map<String, String> userFields) {
+        String username = userFields.get("username");
+        String password = userFields.get("password");
+
+        if (username == null || username.isEmpty() || password == null || password.isEmpty()) {
+            return false;
+        }
+
+        for (String value : userFields.values()) {
+            if (value != null && containsReservedDelimiter(value)) {
+                return false;
+            }
+        }
+
+        try {
+            Date.valueOf(userFields.get("birthdate"));
+        } catch (IllegalArgumentException | NullPointerException e) {
+            return false;
+        }
+
+        return true;
+    }
+}
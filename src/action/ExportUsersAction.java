@@ -0,0 +1,48 @@
+package action;
+
+import model.User;
+import response.Response;
+import response.ResponseCode;
+import response.ResponseContent;
+import server.ClientHandler;
+
+import java.sql.SQLException;
+
+// Streams every user to the client as they are read from the database
+// Each chunk goes out as a PARTIAL_CONTENT response, the usual final response ends the stream
+public class ExportUsersAction extends Action {
+    // Users per PARTIAL_CONTENT response, also the number of rows fetched from the database at a time
+    private static final int CHUNK_SIZE = 1000;
+
+    public ExportUsersAction(ClientHandler clientHandler) {
+        super(clientHandler);
+    }
+
+    @Override
+    public void execute() {
+        if (serverResponseCode == ResponseCode.SUCCESS) {
+            try {
+                db.exportUsers(CHUNK_SIZE, chunk -> {
+                    clientHandler.sendResponse(new Response(ResponseCode.PARTIAL_CONTENT, ResponseContent.ofUsersList(chunk)));
+
+                    // Reads no further than the client takes, and stops if it went away
+                    return clientHandler.awaitWriteCapacity();
+                });
+            } catch (SQLException e) {
+                logDatabaseError(e);
+                serverResponseCode = ResponseCode.ERROR;
+            }
+        }
+    }
+
+    @Override
+    public void validate() {
+        User requester = clientHandler.getHandledUser();
+        if (requester == null || !requester.isAdmin()) {
+            serverResponseCode = ResponseCode.UNAUTHORIZED;
+            return;
+        }
+
+        serverResponseCode = ResponseCode.SUCCESS;
+    }
+}
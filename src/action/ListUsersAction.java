@@ -1,26 +1,54 @@
 package action;
 
+import database.UserCursor;
+import database.UsersTable;
 import model.User;
 import response.ResponseCode;
+import response.ResponseContent;
 import server.ClientHandler;
-import utility.ProtocolHandler;
 
 import java.sql.SQLException;
-import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Set;
 
+// Returns one page of the user directory, optionally only the users matching a search and only some of their fields
 public class ListUsersAction extends Action {
+    // Longest search the server accepts, longer ones cannot match a username, name or email anyway
+    private static final int MAX_SEARCH_LENGTH = 100;
+
+    private final String pageSizeEntered;
+    private final String cursorEntered;
+    private final String searchEntered;
+    private final String fieldsEntered;
+
+    private int pageSize;
+    private UserCursor cursor;
+    private String searchPrefix;
+    private Set<String> fields; // null for every field
+
     public ListUsersAction(ClientHandler clientHandler) {
+        this(null, null, null, null, clientHandler);
+    }
+
+    // Every parameter is optional, without them the first page of the default size of all users is returned
+    // fieldsEntered: comma separated user fields to return, username and isAdmin are always returned
+    public ListUsersAction(String pageSizeEntered, String cursorEntered, String searchEntered, String fieldsEntered,
+                           ClientHandler clientHandler) {
         super(clientHandler);
+
+        this.pageSizeEntered = pageSizeEntered;
+        this.cursorEntered = cursorEntered;
+        this.searchEntered = searchEntered;
+        this.fieldsEntered = fieldsEntered;
     }
 
     @Override
     public void execute() {
         if (serverResponseCode == ResponseCode.SUCCESS) {
             try {
-                ArrayList<User> usersList = db.getUsersList();
-                serializedResponseContent = ProtocolHandler.serializeUsersList(usersList);
+                responseContent = ResponseContent.ofUserPage(db.getUsersPage(cursor, pageSize, searchPrefix, fields));
             } catch (SQLException e) {
-                System.err.println(e.getMessage());
+                logDatabaseError(e);
                 serverResponseCode = ResponseCode.ERROR;
             }
         }
@@ -28,6 +56,69 @@ public class ListUsersAction extends Action {
 
     @Override
     public void validate() {
+        User requester = clientHandler.getHandledUser();
+        if (requester == null || !requester.isAdmin()) {
+            serverResponseCode = ResponseCode.UNAUTHORIZED;
+            return;
+        }
+
+        if (pageSizeEntered == null || pageSizeEntered.isEmpty()) {
+            pageSize = UsersTable.getDefaultPageSize();
+        } else {
+            try {
+                pageSize = Integer.parseInt(pageSizeEntered);
+            } catch (NumberFormatException e) {
+                serverResponseCode = ResponseCode.INVALID_FIELD_VALUES;
+                return;
+            }
+
+            if (pageSize < 1) {
+                serverResponseCode = ResponseCode.INVALID_FIELD_VALUES;
+                return;
+            }
+
+            // Larger pages are cut down instead of refused, the client can keep paging
+            pageSize = Math.min(pageSize, UsersTable.getMaxPageSize());
+        }
+
+        if (cursorEntered != null && !cursorEntered.isEmpty()) {
+            cursor = UserCursor.decode(cursorEntered);
+
+            if (cursor == null) {
+                serverResponseCode = ResponseCode.INVALID_FIELD_VALUES;
+                return;
+            }
+        }
+
+        if (searchEntered != null && !searchEntered.trim().isEmpty()) {
+            searchPrefix = searchEntered.trim();
+
+            if (searchPrefix.length() > MAX_SEARCH_LENGTH) {
+                serverResponseCode = ResponseCode.INVALID_FIELD_VALUES;
+                return;
+            }
+        }
+
+        if (fieldsEntered != null && !fieldsEntered.trim().isEmpty()) {
+            fields = new HashSet<>();
+
+            for (String field : fieldsEntered.split(",")) {
+                field = field.trim();
+
+                // Always returned, so asking for them is not an error
+                if (field.isEmpty() || field.equals("username") || field.equals("isAdmin")) {
+                    continue;
+                }
+
+                if (!UsersTable.isProjectableField(field)) {
+                    serverResponseCode = ResponseCode.INVALID_FIELD_VALUES;
+                    return;
+                }
+
+                fields.add(field);
+            }
+        }
+
         serverResponseCode = ResponseCode.SUCCESS;
     }
 }
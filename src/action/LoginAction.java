@@ -1,36 +1,46 @@
 package action;
 
+import database.LoginResult;
+import model.User;
 import response.ResponseCode;
+import response.ResponseContent;
 import server.ClientHandler;
-import utility.ProtocolHandler;
 
 import java.sql.SQLException;
 
 public class LoginAction extends Action {
     private final String usernameEntered;
     private final String passwordEntered;
+    private final boolean isPushRequested; // Whether the client reads NEW_MESSAGE pushes
+    private final boolean isUserTableRequested; // Whether the client reads text message boxes with a user table
+
+    private User authenticatedUser = null; // Loaded by validate together with the password check
 
     public LoginAction(String usernameEntered, String passwordEntered, ClientHandler clientHandler) {
+        this(usernameEntered, passwordEntered, null, null, clientHandler);
+    }
+
+    public LoginAction(String usernameEntered, String passwordEntered, String pushEntered, String userTableEntered,
+                       ClientHandler clientHandler) {
         super(clientHandler);
 
         this.usernameEntered = usernameEntered;
         this.passwordEntered = passwordEntered;
+        this.isPushRequested = Boolean.parseBoolean(pushEntered);
+        this.isUserTableRequested = Boolean.parseBoolean(userTableEntered);
     }
 
     @Override
     public void execute() {
         if (serverResponseCode == ResponseCode.SUCCESS) {
-            try {
-                clientHandler.setHandledUser(db.getUserWithUsername(usernameEntered));
-                clientHandler.setLoggedIn(true);
+            clientHandler.setHandledUser(authenticatedUser);
+            clientHandler.setLoggedIn(true);
+            clientHandler.setPushEnabled(isPushRequested);
+            clientHandler.setUserTableEnabled(isUserTableRequested);
 
-                ClientHandler.registerUser(usernameEntered, clientHandler);
+            ClientHandler.registerUser(usernameEntered, clientHandler);
 
-                serializedResponseContent = ProtocolHandler.serializeUser(clientHandler.getHandledUser());
-            } catch (SQLException e) {
-                System.err.println(e.getMessage());
-                serverResponseCode = ResponseCode.ERROR;
-            }
+            responseContent = ResponseContent.ofUser(clientHandler.getHandledUser());
         }
     }
 
@@ -45,29 +55,26 @@ public class LoginAction extends Action {
             return;
         }
 
+        LoginResult loginResult;
+
         try {
-            if (!db.doesUserExist(usernameEntered)) {
-                serverResponseCode = ResponseCode.NOT_FOUND;
-                return;
-            }
+            loginResult = db.login(clientHandler.getSessionID(), usernameEntered, passwordEntered);
         } catch (SQLException e) {
-            System.err.println(e.getMessage());
+            logDatabaseError(e);
             serverResponseCode = ResponseCode.ERROR;
             return;
         }
 
-        try {
-            if (db.authenticateUser(usernameEntered, passwordEntered)) {
+        switch (loginResult.getStatus()) {
+            case SUCCESS:
+                authenticatedUser = loginResult.getUser();
                 serverResponseCode = ResponseCode.SUCCESS;
-                return;
-            } else {
+                break;
+            case NOT_FOUND:
+                serverResponseCode = ResponseCode.NOT_FOUND;
+                break;
+            default:
                 serverResponseCode = ResponseCode.LOGIN_FAIL;
-                return;
-            }
-        } catch (SQLException e) {
-            System.err.println(e.getMessage());
-            serverResponseCode = ResponseCode.ERROR;
-            return;
         }
     }
 
@@ -17,8 +17,12 @@ public class LogoutAction extends Action {
         if (serverResponseCode == ResponseCode.SUCCESS) {
             clientHandler.setHandledUser(null);
             clientHandler.setLoggedIn(false);
+            clientHandler.setPushEnabled(false);
 
             ClientHandler.unregisterUser(username);
+
+            // Logging in again has to check the password in full
+            db.forgetSession(clientHandler.getSessionID());
         }
     }
 
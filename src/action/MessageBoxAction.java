@@ -0,0 +1,79 @@
+package action;
+
+import database.MessageCursor;
+import database.MessagesTable;
+import model.MessagePage;
+import response.ResponseCode;
+import response.ResponseContent;
+import server.ClientHandler;
+
+import java.sql.SQLException;
+
+// Common part of INBOX and OUTBOX: both return one page of messages of the logged-in user
+abstract class MessageBoxAction extends Action {
+    private final String pageSizeEntered;
+    private final String cursorEntered;
+
+    private int pageSize;
+    private MessageCursor cursor;
+
+    // pageSize and cursor are optional, without them the first page of the default size is returned
+    protected MessageBoxAction(String pageSizeEntered, String cursorEntered, ClientHandler clientHandler) {
+        super(clientHandler);
+
+        this.pageSizeEntered = pageSizeEntered;
+        this.cursorEntered = cursorEntered;
+    }
+
+    protected abstract MessagePage getMessagePage(MessageCursor cursor, int pageSize) throws SQLException;
+
+    @Override
+    public void execute() {
+        if (serverResponseCode == ResponseCode.SUCCESS) {
+            try {
+                responseContent = ResponseContent.ofMessagePage(getMessagePage(cursor, pageSize));
+            } catch (SQLException e) {
+                logDatabaseError(e);
+                serverResponseCode = ResponseCode.ERROR;
+            }
+        }
+    }
+
+    @Override
+    public void validate() {
+        if (clientHandler.getHandledUser() == null) {
+            serverResponseCode = ResponseCode.ERROR;
+            return;
+        }
+
+        if (pageSizeEntered == null || pageSizeEntered.isEmpty()) {
+            pageSize = MessagesTable.getDefaultPageSize();
+        } else {
+            try {
+                pageSize = Integer.parseInt(pageSizeEntered);
+            } catch (NumberFormatException e) {
+                serverResponseCode = ResponseCode.INVALID_FIELD_VALUES;
+                return;
+            }
+
+            if (pageSize < 1) {
+                serverResponseCode = ResponseCode.INVALID_FIELD_VALUES;
+                return;
+            }
+
+            // Larger pages are cut down instead of refused, the client can keep paging
+            pageSize = Math.min(pageSize, MessagesTable.getMaxPageSize());
+        }
+
+        if (cursorEntered != null && !cursorEntered.isEmpty()) {
+            cursor = MessageCursor.decode(cursorEntered);
+
+            if (cursor == null) {
+                serverResponseCode = ResponseCode.INVALID_FIELD_VALUES;
+                return;
+            }
+        }
+
+        serverResponseCode = ResponseCode.SUCCESS;
+    }
+}
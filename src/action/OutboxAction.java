@@ -1,38 +1,22 @@
 package action;
 
-import model.Message;
-import response.ResponseCode;
+import database.MessageCursor;
+import model.MessagePage;
 import server.ClientHandler;
-import utility.ProtocolHandler;
 
 import java.sql.SQLException;
-import java.util.ArrayList;
 
-public class OutboxAction extends Action {
+public class OutboxAction extends MessageBoxAction {
     public OutboxAction(ClientHandler clientHandler) {
-        super(clientHandler);
+        this(null, null, clientHandler);
     }
 
-    @Override
-    public void execute() {
-        if (serverResponseCode == ResponseCode.SUCCESS) {
-            try {
-                ArrayList<Message> outbox = db.getOutboxOfUser(clientHandler.getHandledUser());
-                serializedResponseContent = ProtocolHandler.serializeOutbox(outbox);
-            } catch (SQLException e) {
-                System.err.println(e.getMessage());
-                serverResponseCode = ResponseCode.ERROR;
-            }
-        }
+    public OutboxAction(String pageSize, String cursor, ClientHandler clientHandler) {
+        super(pageSize, cursor, clientHandler);
     }
 
     @Override
-    public void validate() {
-        if (clientHandler.getHandledUser() == null) {
-            serverResponseCode = ResponseCode.ERROR;
-            return;
-        }
-
-        serverResponseCode = ResponseCode.SUCCESS;
+    protected MessagePage getMessagePage(MessageCursor cursor, int pageSize) throws SQLException {
+        return db.getOutboxOfUser(clientHandler.getHandledUser(), cursor, pageSize);
     }
 }
@@ -5,7 +5,6 @@ import model.User;
 import response.Response;
 import response.ResponseCode;
 import server.ClientHandler;
-import utility.ProtocolHandler;
 
 import java.sql.SQLException;
 
@@ -31,9 +30,7 @@ public class RemoveUserAction extends Action {
                     // Because the thread of the admin now waits a response from removed user's Client.
                     new Thread(() -> {
                         try {
-                            handlerToRemove.sendMessageToClient(
-                                    ProtocolHandler.serializeResponse(new Response(ResponseCode.REMOVED_ACCOUNT, ""))
-                            );
+                            handlerToRemove.sendResponse(new Response(ResponseCode.REMOVED_ACCOUNT, ""));
                             // Give client time to process
                             Thread.sleep(500);
                         } catch (Exception ignored) {
@@ -48,7 +45,7 @@ public class RemoveUserAction extends Action {
                 }
 
             } catch (SQLException e) {
-                System.err.println(e.getMessage());
+                logDatabaseError(e);
                 serverResponseCode = ResponseCode.ERROR;
             }
         }
@@ -62,7 +59,7 @@ public class RemoveUserAction extends Action {
                 return;
             }
         } catch (Exception e) {
-            System.err.println(e.getMessage());
+            logDatabaseError(e);
             serverResponseCode = ResponseCode.ERROR;
             return;
         }
@@ -3,15 +3,27 @@ package action;
 import model.Message;
 import model.User;
 import response.ResponseCode;
+import response.ResponseContent;
 import server.ClientHandler;
+import utility.ProtocolHandler;
 
 import java.sql.SQLException;
 import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 
 public class SendMessageAction extends Action {
+    // Most recipients one message may be addressed to by name, larger audiences need "allUsers"
+    private static final int MAX_RECIPIENTS = 1000;
+
     private final Map<String, String> messageFields;
 
+    private final List<String> receivers = new ArrayList<>(); // Distinct, in the order they were given
+    private boolean isToAllUsers = false;
+
     public SendMessageAction(Map<String, String> messageFields, ClientHandler clientHandler) {
         super(clientHandler);
 
@@ -22,29 +34,99 @@ public class SendMessageAction extends Action {
     public void execute() {
         if (serverResponseCode == ResponseCode.SUCCESS) {
             try {
-                User sender = db.getUserWithUsername(messageFields.get("sender"));
-                User receiver = db.getUserWithUsername(messageFields.get("receiver"));
-
-                Message msgToSend = new Message(sender, receiver,
-                        messageFields.get("title"), messageFields.get("content"),
-                        Timestamp.valueOf(messageFields.get("time")));
-
-                db.insertMessage(msgToSend);
+                if (isToAllUsers) {
+                    sendToAllUsers();
+                } else if (receivers.size() == 1) {
+                    sendToOneUser();
+                } else {
+                    sendToRecipients();
+                }
             } catch (SQLException e) {
-                System.err.println(e.getMessage());
+                logDatabaseError(e);
                 serverResponseCode = ResponseCode.ERROR;
             }
         }
     }
 
-    @Override
-    public void validate() { // check if special characters are in them
-        if (messageFields.get("sender") == null || messageFields.get("receiver") == null) {
-            serverResponseCode = ResponseCode.INVALID_FIELD_VALUES;
+    private void sendToOneUser() throws SQLException {
+        User sender = db.getUserWithUsername(messageFields.get("sender"));
+        User receiver = db.getUserWithUsername(receivers.get(0));
+
+        // Removed since validate
+        if (sender == null || receiver == null) {
+            serverResponseCode = ResponseCode.NOT_FOUND;
             return;
         }
 
-        if (messageFields.get("sender").isEmpty() || messageFields.get("receiver").isEmpty()) {
+        Message msgToSend = new Message(sender, receiver,
+                messageFields.get("title"), messageFields.get("content"),
+                Timestamp.valueOf(messageFields.get("time")));
+
+        db.insertMessage(msgToSend);
+
+        // Committed, the recipient can be told about it
+        ClientHandler.notifyNewMessage(sender, receiver.getUsername(), msgToSend.getTitle(), msgToSend.getContent(),
+                msgToSend.getTime());
+    }
+
+    // All copies are inserted in one transaction, recipients that do not exist are reported back
+    private void sendToRecipients() throws SQLException {
+        User sender = db.getUserWithUsername(messageFields.get("sender"));
+
+        if (sender == null) {
+            serverResponseCode = ResponseCode.NOT_FOUND;
+            return;
+        }
+
+        String title = messageFields.get("title");
+        String content = messageFields.get("content");
+        Timestamp time = Timestamp.valueOf(messageFields.get("time"));
+
+        List<String> unknownReceivers = db.insertMessageForRecipients(sender, receivers, title, content, time);
+
+        for (String receiver : receivers) {
+            if (!unknownReceivers.contains(receiver)) {
+                ClientHandler.notifyNewMessage(sender, receiver, title, content, time);
+            }
+        }
+
+        if (unknownReceivers.isEmpty()) {
+            return;
+        }
+
+        Map<String, ResponseCode> failures = new LinkedHashMap<>();
+        for (String unknownReceiver : unknownReceivers) {
+            failures.put(unknownReceiver, ResponseCode.NOT_FOUND);
+        }
+
+        responseContent = ResponseContent.ofText(ProtocolHandler.serializeRecipientFailures(failures));
+
+        // Partly delivered messages are still a success, the content tells who did not get it
+        if (unknownReceivers.size() == receivers.size()) {
+            serverResponseCode = ResponseCode.NOT_FOUND;
+        }
+    }
+
+    private void sendToAllUsers() throws SQLException {
+        User sender = db.getUserWithUsername(messageFields.get("sender"));
+
+        if (sender == null) {
+            serverResponseCode = ResponseCode.NOT_FOUND;
+            return;
+        }
+
+        String title = messageFields.get("title");
+        String content = messageFields.get("content");
+        Timestamp time = Timestamp.valueOf(messageFields.get("time"));
+
+        db.insertMessageForAllUsers(sender, title, content, time);
+
+        ClientHandler.notifyAllUsers(sender, title, content, time);
+    }
+
+    @Override
+    public void validate() { // check if special characters are in them
+        if (messageFields.get("sender") == null || messageFields.get("sender").isEmpty()) {
             serverResponseCode = ResponseCode.INVALID_FIELD_VALUES;
             return;
         }
@@ -60,21 +142,20 @@ public class SendMessageAction extends Action {
             return;
         }
 
+        if (messageFields.get("time") == null) {
+            serverResponseCode = ResponseCode.INVALID_FIELD_VALUES;
+            return;
+        }
+
         try {
-            if (!db.doesUserExist(messageFields.get("sender")) ||
-                !db.doesUserExist(messageFields.get("receiver"))) {
-                serverResponseCode = ResponseCode.NOT_FOUND;
-                return;
-            }
-        } catch (SQLException e) {
-            System.err.println(e.getMessage());
-            serverResponseCode = ResponseCode.ERROR;
+            Timestamp.valueOf(messageFields.get("time"));
+        } catch (IllegalArgumentException e) {
+            serverResponseCode = ResponseCode.INVALID_FIELD_VALUES;
             return;
         }
 
         // Fields cannot contain delimiters reserved for serializing/parsing
         if (containsReservedDelimiter(messageFields.get("sender")) ||
-            containsReservedDelimiter(messageFields.get("receiver")) ||
             containsReservedDelimiter(messageFields.get("title")) ||
             containsReservedDelimiter(messageFields.get("content")) ||
             containsReservedDelimiter(messageFields.get("time"))) {
@@ -82,6 +163,52 @@ public class SendMessageAction extends Action {
             return;
         }
 
+        isToAllUsers = Boolean.parseBoolean(messageFields.get("allUsers"));
+
+        if (isToAllUsers) {
+            // Only admins may write to everyone
+            User sender = clientHandler.getHandledUser();
+            if (sender == null || !sender.isAdmin()) {
+                serverResponseCode = ResponseCode.UNAUTHORIZED;
+                return;
+            }
+        } else {
+            // "receiver" is the single recipient of older clients, "receivers" is a list
+            LinkedHashSet<String> distinctReceivers = new LinkedHashSet<>();
+
+            if (messageFields.get("receiver") != null && !messageFields.get("receiver").isEmpty()) {
+                distinctReceivers.add(messageFields.get("receiver"));
+            }
+            distinctReceivers.addAll(ProtocolHandler.parseRecipients(messageFields.get("receivers")));
+
+            if (distinctReceivers.isEmpty() || distinctReceivers.size() > MAX_RECIPIENTS) {
+                serverResponseCode = ResponseCode.INVALID_FIELD_VALUES;
+                return;
+            }
+
+            for (String receiver : distinctReceivers) {
+                if (receiver.isEmpty() || containsReservedDelimiter(receiver)) {
+                    serverResponseCode = ResponseCode.INVALID_FIELD_VALUES;
+                    return;
+                }
+            }
+
+            receivers.addAll(distinctReceivers);
+        }
+
+        try {
+            // A single recipient keeps the old behaviour, several are checked when the copies are inserted
+            if (!db.doesUserExist(messageFields.get("sender")) ||
+                (!isToAllUsers && receivers.size() == 1 && !db.doesUserExist(receivers.get(0)))) {
+                serverResponseCode = ResponseCode.NOT_FOUND;
+                return;
+            }
+        } catch (SQLException e) {
+            logDatabaseError(e);
+            serverResponseCode = ResponseCode.ERROR;
+            return;
+        }
+
         serverResponseCode = ResponseCode.SUCCESS;
     }
 }
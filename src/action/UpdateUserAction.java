@@ -27,7 +27,7 @@ public class UpdateUserAction extends Action {
 
                 db.updateUser(userFields.get("username"), updatedUser, userFields.get("password"));
             } catch (SQLException e) {
-                System.err.println(e.getMessage());
+                logDatabaseError(e);
                 serverResponseCode = ResponseCode.ERROR;
             }
         }
@@ -41,7 +41,7 @@ public class UpdateUserAction extends Action {
                 return;
             }
         } catch (Exception e) {
-            System.err.println(e.getMessage());
+            logDatabaseError(e);
             serverResponseCode = ResponseCode.ERROR;
             return;
         }
@@ -52,7 +52,7 @@ public class UpdateUserAction extends Action {
                 return;
             }
         } catch (Exception e) {
-            System.err.println(e.getMessage());
+            logDatabaseError(e);
             serverResponseCode = ResponseCode.ERROR;
             return;
         }
@@ -0,0 +1,72 @@
+package benchmark;
+
+import action.InboxAction;
+import action.LoginAction;
+import action.SendMessageAction;
+import database.DB;
+import model.User;
+import server.ClientHandler;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.Map;
+
+// Action.validateAndExecute against the in-memory database, including serializing and writing the response
+// Responses go to a loopback socket whose other end is drained by a background thread
+public class ActionBenchmarks {
+    private static final String SUITE = "action";
+    private static final int USER_COUNT = 1000;
+
+    public static void run(Benchmark benchmark) throws Exception {
+        DB db = BenchmarkData.database(USER_COUNT);
+
+        try (ServerSocket serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+             Socket clientSide = new Socket(InetAddress.getLoopbackAddress(), serverSocket.getLocalPort());
+             Socket serverSide = serverSocket.accept()) {
+
+            startDrain(clientSide.getInputStream());
+
+            ClientHandler clientHandler = new ClientHandler(serverSide, db);
+            User loggedInUser = db.getUserWithUsername("user1");
+            clientHandler.setHandledUser(loggedInUser);
+            clientHandler.setLoggedIn(true);
+
+            benchmark.run(SUITE, "LOGIN", "users=" + USER_COUNT, () ->
+                    new LoginAction("user1", BenchmarkData.PASSWORD, clientHandler).validateAndExecute());
+
+            benchmark.run(SUITE, "LOGIN", "wrongPassword", () ->
+                    new LoginAction("user1", "wrong", clientHandler).validateAndExecute());
+
+            int[] messageIndex = {0};
+            benchmark.run(SUITE, "SEND_MESSAGE", "users=" + USER_COUNT, () -> {
+                Map<String, String> fields = new HashMap<>(BenchmarkData.sendMessageFields("user2", messageIndex[0]++));
+                fields.put("sender", loggedInUser.getUsername());
+                new SendMessageAction(fields, clientHandler).validateAndExecute();
+            });
+
+            benchmark.run(SUITE, "INBOX", "users=" + USER_COUNT, () ->
+                    new InboxAction(clientHandler).validateAndExecute());
+        }
+    }
+
+    // Reads and discards everything written to the socket, so the writer never blocks on a full buffer
+    private static void startDrain(InputStream in) {
+        Thread drain = new Thread(() -> {
+            byte[] buffer = new byte[64 * 1024];
+            try {
+                while (in.read(buffer) != -1) {
+                    // Discard
+                }
+            } catch (IOException e) {
+                // Socket closed at the end of the suite
+            }
+        }, "benchmark-drain");
+
+        drain.setDaemon(true);
+        drain.start();
+    }
+}
@@ -0,0 +1,100 @@
+package benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Minimal benchmark runner: warms an operation up, then times it in a fixed number of equally sized batches
+// Each batch gives one ns/op sample, the percentiles in BenchmarkResult are taken over those samples
+public class Benchmark {
+    // An operation to measure, its result should be passed to consume so that the JIT cannot drop the work
+    public interface Operation {
+        void run() throws Exception;
+    }
+
+    private static volatile Object sink;
+
+    public static void consume(Object value) {
+        sink = value;
+    }
+
+    private final long warmupMillis;
+    private final long measurementMillis;
+    private final int sampleCount;
+    private final String filter; // Only benchmarks whose id contains this are run, null runs all
+
+    private final List<BenchmarkResult> results = new ArrayList<>();
+
+    public Benchmark(long warmupMillis, long measurementMillis, int sampleCount, String filter) {
+        this.warmupMillis = warmupMillis;
+        this.measurementMillis = measurementMillis;
+        this.sampleCount = sampleCount;
+        this.filter = filter;
+    }
+
+    public List<BenchmarkResult> getResults() {
+        return results;
+    }
+
+    public boolean isSelected(String suite, String name, String parameter) {
+        return filter == null || BenchmarkResult.id(suite, name, parameter).contains(filter);
+    }
+
+    public void run(String suite, String name, String parameter, Operation operation) throws Exception {
+        if (!isSelected(suite, name, parameter)) {
+            return;
+        }
+
+        // Warm up, and estimate how many operations fit into one sample
+        long warmupOperations = 0;
+        long warmupStart = System.nanoTime();
+        long warmupEnd = warmupStart + warmupMillis * 1_000_000;
+
+        do {
+            operation.run();
+            warmupOperations++;
+        } while (System.nanoTime() < warmupEnd);
+
+        double nanosPerOperation = (double) (System.nanoTime() - warmupStart) / warmupOperations;
+        long sampleNanos = measurementMillis * 1_000_000 / sampleCount;
+        long operationsPerSample = Math.max(1, (long) (sampleNanos / nanosPerOperation));
+
+        double[] samples = new double[sampleCount];
+        long allocatedBefore = allocatedBytes();
+
+        for (int i = 0; i < sampleCount; i++) {
+            long start = System.nanoTime();
+
+            for (long j = 0; j < operationsPerSample; j++) {
+                operation.run();
+            }
+
+            samples[i] = (double) (System.nanoTime() - start) / operationsPerSample;
+        }
+
+        long allocatedAfter = allocatedBytes();
+        double allocatedPerOperation = (allocatedBefore < 0 || allocatedAfter < 0) ? -1 :
+                (double) (allocatedAfter - allocatedBefore) / (operationsPerSample * sampleCount);
+
+        Arrays.sort(samples);
+        BenchmarkResult result = new BenchmarkResult(suite, name, parameter, sampleCount, operationsPerSample,
+                samples, allocatedPerOperation);
+        results.add(result);
+
+        System.out.println(result);
+    }
+
+    // Bytes allocated so far by the calling thread, or -1 if the JVM cannot tell
+    // Work done on other threads, e.g. the server side of a round trip, is not included
+    private static long allocatedBytes() {
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+
+        if (threadBean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threadBean).getCurrentThreadAllocatedBytes();
+        }
+
+        return -1;
+    }
+}
@@ -0,0 +1,80 @@
+package benchmark;
+
+import model.Message;
+import model.User;
+
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+// Deterministic test data shared by the benchmark suites
+public class BenchmarkData {
+    public static final String PASSWORD = "benchmarkPassword";
+
+    private static final long BASE_TIME_MILLIS = Timestamp.valueOf("2024-01-01 09:00:00").getTime();
+
+    public static User user(int index) {
+        return new User("user" + index, "Name" + index, "Surname" + index,
+                "1990-01-" + String.format("%02d", index % 28 + 1), (index % 2 == 0) ? "F" : "M",
+                "user" + index + "@example.com", "City" + (index % 50), index % 10 == 0);
+    }
+
+    public static ArrayList<User> users(int count) {
+        ArrayList<User> users = new ArrayList<>(count);
+
+        for (int i = 0; i < count; i++) {
+            users.add(user(i));
+        }
+
+        return users;
+    }
+
+    public static Message message(User sender, User receiver, int index) {
+        return new Message(sender, receiver, "Title " + index,
+                "Content of message " + index + ", long enough to look like a short mail body.",
+                new Timestamp(BASE_TIME_MILLIS + index * 60_000L));
+    }
+
+    // A message box owned by user 0, the other side of each message is one of 'distinctUsers' users
+    public static ArrayList<Message> messageBox(int count, int distinctUsers) {
+        User owner = user(0);
+        ArrayList<Message> box = new ArrayList<>(count);
+
+        for (int i = 0; i < count; i++) {
+            box.add(message(user(1 + i % distinctUsers), owner, i));
+        }
+
+        return box;
+    }
+
+    // Fields of a SEND_MESSAGE request from the console client
+    public static Map<String, String> sendMessageFields(String receiver, int index) {
+        Message message = message(null, null, index);
+
+        Map<String, String> fields = new HashMap<>();
+        fields.put("receiver", receiver);
+        fields.put("title", message.getTitle());
+        fields.put("content", message.getContent());
+        fields.put("time", message.getTime().toString());
+
+        return fields;
+    }
+
+    // A database with 'userCount' users that all share PASSWORD, each with a full inbox and outbox
+    public static InMemoryDB database(int userCount) throws SQLException {
+        InMemoryDB db = new InMemoryDB();
+        ArrayList<User> users = users(userCount);
+
+        for (User user : users) {
+            db.insertUser(user, PASSWORD);
+        }
+
+        for (int i = 0; i < userCount * 5; i++) {
+            db.insertMessage(message(users.get(i % userCount), users.get((i + 1) % userCount), i));
+        }
+
+        return db;
+    }
+}
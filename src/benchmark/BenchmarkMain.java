@@ -0,0 +1,77 @@
+package benchmark;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+// Runs the benchmark suites and writes the results as CSV or JSON, for comparing releases
+//
+// Usage: java benchmark.BenchmarkMain [options]
+//   --format=csv|json    Format of the report (default csv)
+//   --output=FILE        Where to write the report (default stdout)
+//   --filter=TEXT        Only run benchmarks whose id contains TEXT, e.g. --filter=protocol.parse
+//   --quick              Shorter warmup and measurement, for smoke runs
+//
+// Progress is printed to stdout as benchmarks finish, so use --output when piping the report
+public class BenchmarkMain {
+    // Default timings per benchmark
+    private static final long WARMUP_MILLIS = 1000;
+    private static final long MEASUREMENT_MILLIS = 3000;
+    private static final int SAMPLE_COUNT = 30;
+
+    // Timings with --quick
+    private static final long QUICK_WARMUP_MILLIS = 100;
+    private static final long QUICK_MEASUREMENT_MILLIS = 300;
+    private static final int QUICK_SAMPLE_COUNT = 10;
+
+    public static void main(String[] args) throws Exception {
+        BenchmarkReport.Format format = BenchmarkReport.Format.CSV;
+        String output = null;
+        String filter = null;
+        boolean quick = false;
+
+        for (String arg : args) {
+            if (arg.startsWith("--format=")) {
+                format = BenchmarkReport.Format.valueOf(arg.substring("--format=".length()).toUpperCase());
+            } else if (arg.startsWith("--output=")) {
+                output = arg.substring("--output=".length());
+            } else if (arg.startsWith("--filter=")) {
+                filter = arg.substring("--filter=".length());
+            } else if (arg.equals("--quick")) {
+                quick = true;
+            } else {
+                System.err.println("Unknown argument: " + arg);
+                System.exit(2);
+            }
+        }
+
+        Benchmark benchmark = quick ?
+                new Benchmark(QUICK_WARMUP_MILLIS, QUICK_MEASUREMENT_MILLIS, QUICK_SAMPLE_COUNT, filter) :
+                new Benchmark(WARMUP_MILLIS, MEASUREMENT_MILLIS, SAMPLE_COUNT, filter);
+
+        ProtocolBenchmarks.run(benchmark);
+        ActionBenchmarks.run(benchmark);
+        PasswordBenchmarks.run(benchmark);
+        RoundTripBenchmarks.run(benchmark);
+
+        BenchmarkReport report = new BenchmarkReport(benchmark.getResults());
+
+        if (output == null) {
+            Writer out = new OutputStreamWriter(System.out, StandardCharsets.UTF_8);
+            report.write(out, format);
+        } else {
+            try (Writer out = new FileWriter(output, StandardCharsets.UTF_8)) {
+                report.write(out, format);
+            } catch (IOException e) {
+                System.err.println("Cannot write the report: " + e.getMessage());
+                System.exit(1);
+            }
+            System.out.println("Report written to " + output);
+        }
+
+        // The servers started by the round trip suite have non-daemon event loop and worker threads
+        System.exit(0);
+    }
+}
@@ -0,0 +1,157 @@
+package benchmark;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.time.Instant;
+import java.util.List;
+import java.util.Locale;
+
+// Writes benchmark results in a machine readable format, one row or object per benchmark
+public class BenchmarkReport {
+    public enum Format {
+        CSV,
+        JSON
+    }
+
+    private static final String[] COLUMNS = {
+            "id", "suite", "name", "parameter", "samples", "ops_per_sample",
+            "mean_ns", "min_ns", "p50_ns", "p90_ns", "p99_ns", "max_ns", "stddev_ns",
+            "ops_per_sec", "alloc_bytes_per_op"
+    };
+
+    private final List<BenchmarkResult> results;
+
+    public BenchmarkReport(List<BenchmarkResult> results) {
+        this.results = results;
+    }
+
+    public void write(Writer out, Format format) throws IOException {
+        if (format == Format.JSON) {
+            writeJson(out);
+        } else {
+            writeCsv(out);
+        }
+
+        out.flush();
+    }
+
+    private void writeCsv(Writer out) throws IOException {
+        out.write(String.join(",", COLUMNS));
+        out.write('\n');
+
+        for (BenchmarkResult result : results) {
+            String[] values = textValues(result);
+            Object[] numbers = numericValues(result);
+
+            for (int i = 0; i < values.length; i++) {
+                out.write(csvField(values[i]));
+                out.write(',');
+            }
+            for (int i = 0; i < numbers.length; i++) {
+                out.write(formatNumber(numbers[i]));
+                out.write(i == numbers.length - 1 ? '\n' : ',');
+            }
+        }
+    }
+
+    private void writeJson(Writer out) throws IOException {
+        out.write("{\n");
+        out.write("  \"timestamp\": " + jsonString(Instant.now().toString()) + ",\n");
+        out.write("  \"javaVersion\": " + jsonString(System.getProperty("java.version")) + ",\n");
+        out.write("  \"vm\": " + jsonString(System.getProperty("java.vm.name")) + ",\n");
+        out.write("  \"os\": " + jsonString(System.getProperty("os.name") + " " + System.getProperty("os.arch")) + ",\n");
+        out.write("  \"availableProcessors\": " + Runtime.getRuntime().availableProcessors() + ",\n");
+        out.write("  \"results\": [");
+
+        for (int r = 0; r < results.size(); r++) {
+            BenchmarkResult result = results.get(r);
+            String[] values = textValues(result);
+            Object[] numbers = numericValues(result);
+
+            out.write(r == 0 ? "\n    {" : ",\n    {");
+
+            int column = 0;
+            for (String value : values) {
+                out.write((column == 0 ? "" : ", ") + jsonString(COLUMNS[column]) + ": " + jsonString(value));
+                column++;
+            }
+            for (Object number : numbers) {
+                out.write(", " + jsonString(COLUMNS[column]) + ": " + formatNumber(number));
+                column++;
+            }
+
+            out.write("}");
+        }
+
+        out.write("\n  ]\n}\n");
+    }
+
+    private static String[] textValues(BenchmarkResult result) {
+        String parameter = (result.getParameter() == null) ? "" : result.getParameter();
+        return new String[] {result.getId(), result.getSuite(), result.getName(), parameter};
+    }
+
+    private static Object[] numericValues(BenchmarkResult result) {
+        return new Object[] {
+                result.getSampleCount(), result.getOperationsPerSample(),
+                result.getMean(), result.getMin(), result.getP50(), result.getP90(), result.getP99(),
+                result.getMax(), result.getStandardDeviation(), result.getOperationsPerSecond(),
+                result.getAllocatedBytesPerOperation()
+        };
+    }
+
+    // Always with a dot as the decimal separator, whatever the default locale is
+    private static String formatNumber(Object number) {
+        if (number instanceof Double) {
+            return String.format(Locale.ROOT, "%.3f", (Double) number);
+        }
+        return String.valueOf(number);
+    }
+
+    private static String csvField(String value) {
+        if (value.indexOf(',') == -1 && value.indexOf('"') == -1 && value.indexOf('\n') == -1) {
+            return value;
+        }
+        return "\"" + value.replace("\"", "\"\"") + "\"";
+    }
+
+    private static String jsonString(String value) {
+        if (value == null) {
+            return "null";
+        }
+
+        StringBuilder out = new StringBuilder(value.length() + 2);
+        out.append('"');
+
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+
+            switch (c) {
+                case '"':
+                    out.append("\\\"");
+                    break;
+                case '\\':
+                    out.append("\\\\");
+                    break;
+                case '\n':
+                    out.append("\\n");
+                    break;
+                case '\r':
+                    out.append("\\r");
+                    break;
+                case '\t':
+                    out.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        out.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        out.append(c);
+                    }
+            }
+        }
+
+        out.append('"');
+        return out.toString();
+    }
+}
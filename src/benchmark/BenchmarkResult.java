@@ -0,0 +1,125 @@
+package benchmark;
+
+// Timings of one benchmark, every time is in nanoseconds per operation
+public class BenchmarkResult {
+    private final String suite;
+    private final String name;
+    private final String parameter;
+    private final int sampleCount;
+    private final long operationsPerSample;
+
+    private final double mean;
+    private final double min;
+    private final double p50;
+    private final double p90;
+    private final double p99;
+    private final double max;
+    private final double standardDeviation;
+    private final double allocatedBytesPerOperation; // -1 when not available
+
+    // The samples must be sorted
+    BenchmarkResult(String suite, String name, String parameter, int sampleCount, long operationsPerSample,
+                    double[] samples, double allocatedBytesPerOperation) {
+        this.suite = suite;
+        this.name = name;
+        this.parameter = parameter;
+        this.sampleCount = sampleCount;
+        this.operationsPerSample = operationsPerSample;
+        this.allocatedBytesPerOperation = allocatedBytesPerOperation;
+
+        double sum = 0;
+        for (double sample : samples) {
+            sum += sample;
+        }
+        mean = sum / samples.length;
+
+        double squaredDifferences = 0;
+        for (double sample : samples) {
+            squaredDifferences += (sample - mean) * (sample - mean);
+        }
+        standardDeviation = Math.sqrt(squaredDifferences / samples.length);
+
+        min = samples[0];
+        p50 = percentile(samples, 0.50);
+        p90 = percentile(samples, 0.90);
+        p99 = percentile(samples, 0.99);
+        max = samples[samples.length - 1];
+    }
+
+    // Nearest-rank percentile of sorted samples
+    private static double percentile(double[] sortedSamples, double fraction) {
+        int rank = (int) Math.ceil(fraction * sortedSamples.length);
+        return sortedSamples[Math.max(0, rank - 1)];
+    }
+
+    // Identifier used for filtering and for matching results between runs
+    static String id(String suite, String name, String parameter) {
+        return suite + "." + name + ((parameter == null || parameter.isEmpty()) ? "" : "[" + parameter + "]");
+    }
+
+    public String getId() {
+        return id(suite, name, parameter);
+    }
+
+    public String getSuite() {
+        return suite;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getParameter() {
+        return parameter;
+    }
+
+    public int getSampleCount() {
+        return sampleCount;
+    }
+
+    public long getOperationsPerSample() {
+        return operationsPerSample;
+    }
+
+    public double getMean() {
+        return mean;
+    }
+
+    public double getMin() {
+        return min;
+    }
+
+    public double getP50() {
+        return p50;
+    }
+
+    public double getP90() {
+        return p90;
+    }
+
+    public double getP99() {
+        return p99;
+    }
+
+    public double getMax() {
+        return max;
+    }
+
+    public double getStandardDeviation() {
+        return standardDeviation;
+    }
+
+    public double getOperationsPerSecond() {
+        return 1_000_000_000.0 / mean;
+    }
+
+    public double getAllocatedBytesPerOperation() {
+        return allocatedBytesPerOperation;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%-60s %12.1f ns/op  (p50 %.1f, p99 %.1f, sd %.1f)  %12.0f ops/s  %10.0f B/op",
+                getId(), mean, p50, p99, standardDeviation, getOperationsPerSecond(), allocatedBytesPerOperation);
+    }
+}
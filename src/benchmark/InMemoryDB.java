@@ -0,0 +1,287 @@
+package benchmark;
+
+import database.DB;
+import database.MessageCursor;
+import database.UserCache;
+import database.UserCredentials;
+import database.UserCursor;
+import database.UsersTable;
+import model.Message;
+import model.MessagePage;
+import model.User;
+import model.UserPage;
+
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Stand-in for DB that keeps users and messages in memory, so the benchmarks measure the server and not PostgreSQL
+// Follows the behaviour of the real tables: inbox and outbox are paged by (time, message id), newest first
+public class InMemoryDB extends DB {
+    private static final int MAX_KEPT_MESSAGES = 1024; // Per box, so long SEND_MESSAGE runs do not fill the heap
+    private static final int KEPT_AFTER_TRIM = 128;
+
+    // Work factor of the password hashes, low so that LOGIN measures the server rather than PBKDF2
+    // Passwords are kept as given and hashed on the first login, like rows written before hashing was introduced
+    private static final int PASSWORD_HASH_ITERATIONS = 1000;
+
+    // A message with the id the messages table would have given it
+    private static class StoredMessage {
+        private final int messageID;
+        private final Message message;
+
+        private StoredMessage(int messageID, Message message) {
+            this.messageID = messageID;
+            this.message = message;
+        }
+    }
+
+    private final AtomicInteger nextMessageID = new AtomicInteger(1);
+
+    private final Map<String, User> users = new ConcurrentHashMap<>();
+    private final Map<String, String> passwords = new ConcurrentHashMap<>();
+    private final Map<String, ArrayList<StoredMessage>> inboxes = new ConcurrentHashMap<>();
+    private final Map<String, ArrayList<StoredMessage>> outboxes = new ConcurrentHashMap<>();
+
+    public InMemoryDB() {
+        super(new UserCache(0, 0), PASSWORD_HASH_ITERATIONS);
+    }
+
+    @Override
+    public UserPage getUsersPage(UserCursor cursor, int pageSize, String searchPrefix, Set<String> fields) {
+        List<User> matching = new ArrayList<>();
+        String prefix = (searchPrefix == null) ? null : searchPrefix.toLowerCase(Locale.ROOT);
+
+        for (User user : users.values()) {
+            if (user.getUsername().equals(UsersTable.getDeletedUsername()) ||
+                user.getUsername().equals(UsersTable.getAdminUsername())) {
+                continue;
+            }
+
+            if (cursor != null && user.getUsername().compareTo(cursor.getUsername()) <= 0) {
+                continue;
+            }
+
+            if (prefix != null && !startsWithIgnoringCase(user.getUsername(), prefix) &&
+                !startsWithIgnoringCase(user.getName(), prefix) && !startsWithIgnoringCase(user.getEmail(), prefix)) {
+                continue;
+            }
+
+            matching.add(user);
+        }
+
+        matching.sort(Comparator.comparing(User::getUsername));
+
+        ArrayList<User> page = new ArrayList<>(pageSize);
+        for (int i = 0; i < pageSize && i < matching.size(); i++) {
+            User user = matching.get(i);
+
+            page.add((fields == null) ? user : new User(user.getUsername(),
+                    fields.contains("name") ? user.getName() : null,
+                    fields.contains("surname") ? user.getSurname() : null,
+                    fields.contains("birthdate") ? user.getBirthdate() : null,
+                    fields.contains("gender") ? user.getGender() : null,
+                    fields.contains("email") ? user.getEmail() : null,
+                    fields.contains("location") ? user.getLocation() : null,
+                    user.isAdmin()));
+        }
+
+        boolean hasNextPage = matching.size() > pageSize;
+        String nextCursor = hasNextPage ? new UserCursor(page.get(pageSize - 1).getUsername()).encode() : null;
+
+        return new UserPage(page, nextCursor);
+    }
+
+    private static boolean startsWithIgnoringCase(String value, String lowerCasePrefix) {
+        return value != null && value.toLowerCase(Locale.ROOT).startsWith(lowerCasePrefix);
+    }
+
+    @Override
+    public User getUserWithUsername(String username) {
+        return users.get(username);
+    }
+
+    @Override
+    public void insertUser(User user, String password) throws SQLException {
+        if (users.putIfAbsent(user.getUsername(), user) != null) {
+            throw new SQLException("Duplicate username: " + user.getUsername());
+        }
+
+        passwords.put(user.getUsername(), password);
+    }
+
+    @Override
+    public List<String> insertUsers(List<User> usersToInsert, List<String> passwordsToInsert) {
+        List<String> skippedUsernames = new ArrayList<>();
+
+        for (int i = 0; i < usersToInsert.size(); i++) {
+            User user = usersToInsert.get(i);
+
+            if (users.putIfAbsent(user.getUsername(), user) != null) {
+                skippedUsernames.add(user.getUsername());
+            } else {
+                passwords.put(user.getUsername(), passwordsToInsert.get(i));
+            }
+        }
+
+        return skippedUsernames;
+    }
+
+    @Override
+    public void exportUsers(int chunkSize, UserChunkHandler handler) {
+        ArrayList<User> chunk = new ArrayList<>(chunkSize);
+
+        for (User user : users.values()) {
+            chunk.add(user);
+
+            if (chunk.size() == chunkSize) {
+                if (!handler.handle(chunk)) {
+                    return;
+                }
+                chunk = new ArrayList<>(chunkSize);
+            }
+        }
+
+        if (!chunk.isEmpty()) {
+            handler.handle(chunk);
+        }
+    }
+
+    @Override
+    public void updateUser(String usernameToUpdate, User updatedUser, String updatedPassword) throws SQLException {
+        String password = passwords.remove(usernameToUpdate);
+
+        if (users.remove(usernameToUpdate) == null) {
+            throw new SQLException("No such user: " + usernameToUpdate);
+        }
+
+        users.put(updatedUser.getUsername(), updatedUser);
+        passwords.put(updatedUser.getUsername(), (updatedPassword != null) ? updatedPassword : password);
+    }
+
+    @Override
+    public void removeUser(String userToRemove) {
+        users.remove(userToRemove);
+        passwords.remove(userToRemove);
+    }
+
+    @Override
+    public UserCredentials getUserCredentials(String username) {
+        User user = users.get(username);
+        return (user == null) ? null : new UserCredentials(user, passwords.get(username));
+    }
+
+    @Override
+    public void updatePasswordHash(String username, String oldHash, String newHash) {
+        passwords.replace(username, oldHash, newHash);
+    }
+
+    @Override
+    public MessagePage getInboxOfUser(User user, MessageCursor cursor, int pageSize) {
+        return getMessagePage(inboxes.get(user.getUsername()), cursor, pageSize);
+    }
+
+    @Override
+    public MessagePage getOutboxOfUser(User user, MessageCursor cursor, int pageSize) {
+        return getMessagePage(outboxes.get(user.getUsername()), cursor, pageSize);
+    }
+
+    @Override
+    public void insertMessage(Message message) {
+        StoredMessage stored = new StoredMessage(nextMessageID.getAndIncrement(), message);
+
+        appendMessage(inboxes, message.getReceiver().getUsername(), stored);
+        appendMessage(outboxes, message.getSender().getUsername(), stored);
+    }
+
+    @Override
+    public List<String> insertMessageForRecipients(User sender, List<String> receivers, String title,
+                                                   String content, Timestamp time) {
+        List<String> unknownReceivers = new ArrayList<>();
+
+        for (String receiver : receivers) {
+            User receiverUser = users.get(receiver);
+
+            if (receiverUser == null) {
+                unknownReceivers.add(receiver);
+            } else {
+                insertMessage(new Message(sender, receiverUser, title, content, time));
+            }
+        }
+
+        return unknownReceivers;
+    }
+
+    @Override
+    public int insertMessageForAllUsers(User sender, String title, String content, Timestamp time) {
+        int insertedCount = 0;
+
+        for (User receiver : users.values()) {
+            if (!receiver.getUsername().equals(sender.getUsername())) {
+                insertMessage(new Message(sender, receiver, title, content, time));
+                insertedCount++;
+            }
+        }
+
+        return insertedCount;
+    }
+
+    @Override
+    public boolean doesUserExist(String username) {
+        return users.containsKey(username);
+    }
+
+    private void appendMessage(Map<String, ArrayList<StoredMessage>> boxes, String username, StoredMessage message) {
+        ArrayList<StoredMessage> box = boxes.computeIfAbsent(username, key -> new ArrayList<>());
+
+        synchronized (box) {
+            box.add(message);
+
+            if (box.size() > MAX_KEPT_MESSAGES) {
+                box.subList(0, box.size() - KEPT_AFTER_TRIM).clear();
+            }
+        }
+    }
+
+    // Messages are appended in (time, id) order, so the newest ones are at the end
+    private MessagePage getMessagePage(ArrayList<StoredMessage> box, MessageCursor cursor, int pageSize) {
+        ArrayList<Message> messages = new ArrayList<>(pageSize);
+        StoredMessage lastOnPage = null;
+        boolean hasNextPage = false;
+
+        if (box != null) {
+            synchronized (box) {
+                for (int i = box.size() - 1; i >= 0; i--) {
+                    StoredMessage stored = box.get(i);
+
+                    if (cursor != null && !isBefore(stored, cursor)) {
+                        continue;
+                    }
+                    if (messages.size() == pageSize) {
+                        hasNextPage = true;
+                        break;
+                    }
+
+                    messages.add(stored.message);
+                    lastOnPage = stored;
+                }
+            }
+        }
+
+        String nextCursor = hasNextPage ?
+                new MessageCursor(lastOnPage.message.getTime(), lastOnPage.messageID).encode() : null;
+        return new MessagePage(messages, nextCursor);
+    }
+
+    private static boolean isBefore(StoredMessage stored, MessageCursor cursor) {
+        int timeOrder = stored.message.getTime().compareTo(cursor.getTime());
+        return timeOrder < 0 || (timeOrder == 0 && stored.messageID < cursor.getMessageID());
+    }
+}
@@ -0,0 +1,41 @@
+package benchmark;
+
+import database.PasswordHasher;
+import database.PasswordVerifier;
+
+// Cost of checking a password at several work factors, for choosing the iterations of DB
+// One check runs on one core, so 1e9 / (ns/op) is the logins per second each core of the password verifier handles
+public class PasswordBenchmarks {
+    private static final String SUITE = "password";
+
+    // 600,000 is what DB uses, the others show how the cost scales
+    private static final int[] ITERATIONS = {100_000, 210_000, 600_000};
+
+    private static final long SESSION_ID = 1;
+
+    public static void run(Benchmark benchmark) throws Exception {
+        for (int iterations : ITERATIONS) {
+            PasswordHasher hasher = new PasswordHasher(iterations);
+            String hash = hasher.hash(BenchmarkData.PASSWORD);
+            String parameter = "iterations=" + iterations;
+
+            benchmark.run(SUITE, "hash", parameter, () -> Benchmark.consume(hasher.hash(BenchmarkData.PASSWORD)));
+            benchmark.run(SUITE, "verify", parameter, () ->
+                    Benchmark.consume(hasher.verify(BenchmarkData.PASSWORD, hash)));
+        }
+
+        // A login again on the same connection, answered from the session cache without hashing
+        PasswordHasher hasher = new PasswordHasher(ITERATIONS[ITERATIONS.length - 1]);
+        String hash = hasher.hash(BenchmarkData.PASSWORD);
+        PasswordVerifier verifier = new PasswordVerifier(hasher, 1, 1, 60000, 1, 60000);
+
+        try {
+            verifier.verify(SESSION_ID, "user1", BenchmarkData.PASSWORD, hash);
+
+            benchmark.run(SUITE, "verify", "cachedSession", () ->
+                    Benchmark.consume(verifier.verify(SESSION_ID, "user1", BenchmarkData.PASSWORD, hash)));
+        } finally {
+            verifier.close();
+        }
+    }
+}
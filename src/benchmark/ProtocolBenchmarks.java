@@ -0,0 +1,92 @@
+package benchmark;
+
+import model.Message;
+import model.User;
+import request.Request;
+import response.Response;
+import response.ResponseCode;
+import response.ResponseContent;
+import utility.BinaryProtocol;
+import utility.ProtocolHandler;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+
+// Serializing and parsing of the text protocol, with the binary protocol alongside for comparison
+public class ProtocolBenchmarks {
+    private static final String SUITE = "protocol";
+
+    // Inbox and outbox hold at most 5 messages today, the larger sizes show how the format scales
+    private static final int[] MESSAGE_BOX_SIZES = {5, 50, 500};
+    private static final int[] USERS_LIST_SIZES = {10, 100, 1000, 10000};
+
+    public static void run(Benchmark benchmark) throws Exception {
+        User user = BenchmarkData.user(1);
+        String serializedUser = ProtocolHandler.serializeUser(user);
+
+        benchmark.run(SUITE, "serializeUser", "", () -> Benchmark.consume(ProtocolHandler.serializeUser(user)));
+        benchmark.run(SUITE, "parseUser", "", () -> Benchmark.consume(ProtocolHandler.parseUser(serializedUser)));
+
+        Message message = BenchmarkData.message(BenchmarkData.user(1), BenchmarkData.user(2), 1);
+        String serializedMessage = ProtocolHandler.serializeMessage(message);
+
+        benchmark.run(SUITE, "serializeMessage", "", () -> Benchmark.consume(ProtocolHandler.serializeMessage(message)));
+        benchmark.run(SUITE, "parseMessage", "", () -> Benchmark.consume(ProtocolHandler.parseMessage(serializedMessage)));
+
+        Request request = new Request("SEND_MESSAGE", BenchmarkData.sendMessageFields("user2", 1));
+        String serializedRequest = ProtocolHandler.serializeRequest(request);
+
+        benchmark.run(SUITE, "serializeRequest", "SEND_MESSAGE", () ->
+                Benchmark.consume(ProtocolHandler.serializeRequest(
+                        new Request("SEND_MESSAGE", BenchmarkData.sendMessageFields("user2", 1)))));
+        benchmark.run(SUITE, "parseRequest", "SEND_MESSAGE", () ->
+                Benchmark.consume(ProtocolHandler.parseRequest(serializedRequest).getRequestContentFields()));
+
+        for (int size : MESSAGE_BOX_SIZES) {
+            ArrayList<Message> inbox = BenchmarkData.messageBox(size, Math.min(size, 20));
+            String serializedInbox = ProtocolHandler.serializeInbox(inbox);
+            String serializedInboxWithUserTable = ProtocolHandler.serializeMessageBoxWithUserTable(inbox);
+            String parameter = "messages=" + size;
+
+            benchmark.run(SUITE, "serializeInbox", parameter, () -> Benchmark.consume(ProtocolHandler.serializeInbox(inbox)));
+            benchmark.run(SUITE, "parseInbox", parameter, () -> Benchmark.consume(ProtocolHandler.parseInbox(serializedInbox)));
+
+            benchmark.run(SUITE, "serializeInboxWithUserTable", parameter, () ->
+                    Benchmark.consume(ProtocolHandler.serializeMessageBoxWithUserTable(inbox)));
+            benchmark.run(SUITE, "parseInboxWithUserTable", parameter, () ->
+                    Benchmark.consume(ProtocolHandler.parseInbox(serializedInboxWithUserTable)));
+
+            runBinary(benchmark, "MessageBox", parameter, ResponseContent.ofMessageBox(inbox));
+        }
+
+        for (int size : USERS_LIST_SIZES) {
+            ArrayList<User> usersList = BenchmarkData.users(size);
+            String serializedUsersList = ProtocolHandler.serializeUsersList(usersList);
+            String parameter = "users=" + size;
+
+            benchmark.run(SUITE, "serializeUsersList", parameter, () ->
+                    Benchmark.consume(ProtocolHandler.serializeUsersList(usersList)));
+            benchmark.run(SUITE, "parseUsersList", parameter, () ->
+                    Benchmark.consume(ProtocolHandler.parseUsersList(serializedUsersList)));
+
+            runBinary(benchmark, "UsersList", parameter, ResponseContent.ofUsersList(usersList));
+        }
+    }
+
+    private static void runBinary(Benchmark benchmark, String contentName, String parameter,
+                                  ResponseContent content) throws Exception {
+        Response response = new Response(ResponseCode.SUCCESS, content);
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        BinaryProtocol.writeResponse(encoded, response);
+        byte[] encodedBytes = encoded.toByteArray();
+
+        benchmark.run(SUITE, "binaryWrite" + contentName, parameter, () -> {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(encodedBytes.length);
+            BinaryProtocol.writeResponse(out, response);
+            Benchmark.consume(out);
+        });
+        benchmark.run(SUITE, "binaryRead" + contentName, parameter, () ->
+                Benchmark.consume(BinaryProtocol.readResponse(new ByteArrayInputStream(encodedBytes))));
+    }
+}
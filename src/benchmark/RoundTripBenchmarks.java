@@ -0,0 +1,107 @@
+package benchmark;
+
+import client.Client;
+import database.DB;
+import request.Request;
+import response.Response;
+import response.ResponseCode;
+import server.ExecutionMode;
+import server.Server;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Scanner;
+
+// Whole request/response round trips from a Client to a Server over loopback, one request in flight at a time
+// Covers every execution mode with both the text and the binary protocol
+public class RoundTripBenchmarks {
+    private static final String SUITE = "roundTrip";
+    private static final int USER_COUNT = 1000;
+    private static final int MAX_CONNECTIONS = 64;
+
+    public static void run(Benchmark benchmark) throws Exception {
+        for (ExecutionMode executionMode : ExecutionMode.values()) {
+            runServer(benchmark, executionMode);
+        }
+    }
+
+    private static void runServer(Benchmark benchmark, ExecutionMode executionMode) throws Exception {
+        // Do not start a server when the filter leaves nothing to run against it
+        boolean anySelected = false;
+        for (String protocol : new String[] {"text", "binary"}) {
+            for (String action : new String[] {"LOGIN", "SEND_MESSAGE", "INBOX"}) {
+                anySelected |= benchmark.isSelected(SUITE, action, parameter(executionMode, protocol));
+            }
+        }
+        if (!anySelected) {
+            return;
+        }
+
+        DB db = BenchmarkData.database(USER_COUNT);
+
+        ServerSocketChannel serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        int port = ((InetSocketAddress) serverChannel.getLocalAddress()).getPort();
+
+        Server server = new Server(serverChannel.socket(), executionMode, MAX_CONNECTIONS, db);
+        Thread serverThread = new Thread(server::startServer, "benchmark-server-" + executionMode.getName());
+        serverThread.setDaemon(true);
+        serverThread.start();
+
+        try {
+            runClient(benchmark, port, executionMode, "text", false);
+            runClient(benchmark, port, executionMode, "binary", true);
+        } finally {
+            server.closeServer();
+        }
+    }
+
+    private static void runClient(Benchmark benchmark, int port, ExecutionMode executionMode,
+                                  String protocol, boolean offerBinaryProtocol) throws Exception {
+        String parameter = parameter(executionMode, protocol);
+
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            socket.setTcpNoDelay(true);
+            Client client = new Client(socket, new Scanner(""), offerBinaryProtocol);
+
+            // Log in once, SEND_MESSAGE and INBOX need a logged in session
+            Map<String, String> loginFields = new HashMap<>();
+            loginFields.put("username", "user1");
+            loginFields.put("password", BenchmarkData.PASSWORD);
+            roundTrip(client, new Request("LOGIN", loginFields));
+
+            benchmark.run(SUITE, "LOGIN", parameter, () ->
+                    Benchmark.consume(roundTrip(client, new Request("LOGIN", loginFields)).getResponseContent().asUser()));
+
+            int[] messageIndex = {0};
+            benchmark.run(SUITE, "SEND_MESSAGE", parameter, () ->
+                    roundTrip(client, new Request("SEND_MESSAGE", BenchmarkData.sendMessageFields("user2", messageIndex[0]++))));
+
+            benchmark.run(SUITE, "INBOX", parameter, () ->
+                    Benchmark.consume(roundTrip(client, new Request("INBOX", new HashMap<>())).getResponseContent().asMessageBox()));
+        }
+    }
+
+    private static Response roundTrip(Client client, Request request) throws IOException {
+        client.sendRequest(request);
+        Response response = client.getResponseFromServer();
+
+        if (response == null) {
+            throw new IOException("Server closed the connection during " + request.getAction());
+        }
+        if (response.getResponseCode() != ResponseCode.SUCCESS) {
+            throw new IOException(request.getAction() + " failed with " + response.getResponseCode());
+        }
+
+        return response;
+    }
+
+    private static String parameter(ExecutionMode executionMode, String protocol) {
+        return executionMode.getName() + "/" + protocol;
+    }
+}
@@ -5,21 +5,50 @@ import request.Request;
 import request.RequestBuilder;
 import response.Response;
 import response.ResponseCode;
+import response.ResponseContent;
 import response.ResponseHandler;
+import utility.BinaryProtocol;
 import utility.ConsoleUI;
 import utility.ProtocolHandler;
+import utility.UserCsv;
 
 import java.io.*;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
 import java.sql.Timestamp;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
 
 public class Client {
+    // Users sent in one BULK_ADD_USERS request, the server takes at most 1000
+    // Each password is hashed at full cost on a few server cores, so smaller requests show progress as they go
+    private static final int BULK_ADD_CHUNK_SIZE = 100;
+
+    // How long the client waits for the server to answer the binary handshake, older servers only speak text
+    // and never answer it
+    private static final int HANDSHAKE_TIMEOUT_MILLIS = 5000;
+
+    // Replies read ahead of the requests waiting for them, once full the reader thread stops reading
+    // and the server is held back by the socket until the export or the console catches up
+    private static final int RESPONSE_QUEUE_CAPACITY = 16;
+
+    // Queued by the reader thread when the connection ends, compared by reference
+    private static final Response CONNECTION_CLOSED = new Response(ResponseCode.EXIT, ResponseContent.EMPTY);
+
     private Socket socket;
     private BufferedReader bufferedReader;
     private BufferedWriter bufferedWriter;
 
+    // Byte streams under the reader and writer, used instead of them when the binary protocol is negotiated
+    private BufferedInputStream inputStream;
+    private BufferedOutputStream outputStream;
+    private boolean isBinary = false;
+
     private Scanner scanner;
 
     private User user = null;
@@ -28,6 +57,11 @@ public class Client {
     private RequestBuilder requestBuilder;
     private ResponseHandler responseHandler;
 
+    // Everything the server sends is read on the reader thread, pushes are shown as they arrive
+    // and replies are queued for the request that is waiting for them
+    private final BlockingQueue<Response> responses = new LinkedBlockingQueue<>(RESPONSE_QUEUE_CAPACITY);
+    private Thread readerThread;
+
     public class BooleanWrapper {
         public boolean value;
 
@@ -37,16 +71,26 @@ public class Client {
     }
 
     public Client(Socket socket, Scanner scanner) {
+        this(socket, scanner, true);
+    }
+
+    public Client(Socket socket, Scanner scanner, boolean offerBinaryProtocol) {
         try {
-            this.socket = socket;
-            this.bufferedReader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-            this.bufferedWriter = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream()));
+            openStreams(socket);
+
+            if (offerBinaryProtocol) {
+                negotiateProtocol();
+            }
 
             this.scanner = scanner;
 
             requestBuilder = new RequestBuilder(scanner);
             responseHandler = new ResponseHandler(this);
 
+            readerThread = new Thread(this::readFromServer, "server-reader");
+            readerThread.setDaemon(true); // Must not keep the program running after the user exits
+            readerThread.start();
+
         } catch (IOException e) {
             closeEverything(socket, bufferedReader, bufferedWriter);
         }
@@ -68,6 +112,54 @@ public class Client {
         isLoggedIn = loggedIn;
     }
 
+    private void openStreams(Socket socket) throws IOException {
+        this.socket = socket;
+        this.inputStream = new BufferedInputStream(socket.getInputStream());
+        this.outputStream = new BufferedOutputStream(socket.getOutputStream());
+        this.bufferedReader = new BufferedReader(new InputStreamReader(inputStream));
+        this.bufferedWriter = new BufferedWriter(new OutputStreamWriter(outputStream));
+    }
+
+    // Offers the binary protocol, the server answers with the version both sides will use
+    // A server that does not answer in time only speaks text, and has taken the handshake as the start of a request,
+    // so the client connects again and stays on the text protocol
+    private void negotiateProtocol() throws IOException {
+        BinaryProtocol.writeHandshake(outputStream, BinaryProtocol.VERSION);
+
+        int chosenVersion;
+        socket.setSoTimeout(HANDSHAKE_TIMEOUT_MILLIS);
+        try {
+            chosenVersion = BinaryProtocol.readHandshake(inputStream);
+        } catch (SocketTimeoutException e) {
+            Socket textSocket = new Socket(socket.getInetAddress(), socket.getPort());
+            closeEverything(socket, bufferedReader, bufferedWriter);
+            openStreams(textSocket);
+
+            isBinary = false;
+            return;
+        } finally {
+            if (!socket.isClosed()) {
+                socket.setSoTimeout(0); // Replies to requests may take as long as they take
+            }
+        }
+
+        isBinary = chosenVersion != BinaryProtocol.TEXT_VERSION;
+    }
+
+    // Sends the request in the protocol negotiated with the server
+    public void sendRequest(Request request) {
+        if (!isBinary) {
+            sendMessageToServer(ProtocolHandler.serializeRequest(request));
+            return;
+        }
+
+        try {
+            BinaryProtocol.writeRequest(outputStream, request);
+        } catch (IOException e) {
+            closeEverything(socket, bufferedReader, bufferedWriter);
+        }
+    }
+
     public void sendMessageToServer(String message) {
         try {
             bufferedWriter.write(message);
@@ -87,7 +179,54 @@ public class Client {
         }
     }
 
+    // Waits for the reply to the last request, returns null if the connection is closed
     public Response getResponseFromServer() {
+        try {
+            Response response = responses.take();
+
+            if (response == CONNECTION_CLOSED) {
+                responses.offer(CONNECTION_CLOSED); // Also seen by the calls after this one
+                return null;
+            }
+
+            return response;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    private void readFromServer() {
+        try {
+            while (true) {
+                Response response = readResponse();
+
+                if (response == null) {
+                    responses.put(CONNECTION_CLOSED);
+                    return;
+                }
+
+                if (response.getResponseCode() == ResponseCode.NEW_MESSAGE) {
+                    responseHandler.handleNewMessagePush(response);
+                } else {
+                    responses.put(response); // Waits for room, see RESPONSE_QUEUE_CAPACITY
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private Response readResponse() {
+        if (isBinary) {
+            try {
+                return BinaryProtocol.readResponse(inputStream);
+            } catch (IOException e) {
+                closeEverything(socket, bufferedReader, bufferedWriter);
+                return null;
+            }
+        }
+
         String messageFromServer = readMessageFromServer();
 
         if (messageFromServer == null) {
@@ -97,6 +236,129 @@ public class Client {
         return ProtocolHandler.parseResponse(messageFromServer);
     }
 
+    // Adds the users of the file a chunk at a time, waiting for each chunk to be added before reading the next one,
+    // so that neither side holds the whole file
+    // Returns false if the connection was lost or the account removed
+    private boolean importUsers(String path) {
+        int sentCount = 0;
+        int failedCount = 0;
+
+        try (BufferedReader fileReader = new BufferedReader(new FileReader(path))) {
+            List<Map<String, String>> chunk = new ArrayList<>(BULK_ADD_CHUNK_SIZE);
+
+            while (true) {
+                String line = fileReader.readLine();
+
+                Map<String, String> userFields = UserCsv.parseImportLine(line);
+                if (userFields != null) {
+                    chunk.add(userFields);
+                }
+
+                if (chunk.size() == BULK_ADD_CHUNK_SIZE || (line == null && !chunk.isEmpty())) {
+                    requestBuilder.buildBulkAddUsersRequest(chunk).send(this);
+
+                    Response serverResponse = getResponseFromServer();
+
+                    // Do not proceed if the response is null
+                    if (serverResponse == null) {
+                        return false;
+                    }
+
+                    // Do not proceed if the account is removed
+                    if (serverResponse.getResponseCode() == ResponseCode.REMOVED_ACCOUNT) {
+                        System.out.println("Your account was deleted by an admin. Exiting.");
+                        return false;
+                    }
+
+                    int chunkFailedCount = responseHandler.handleBulkAddUsersResponse(serverResponse);
+                    if (chunkFailedCount == -1) {
+                        break;
+                    }
+
+                    sentCount += chunk.size();
+                    failedCount += chunkFailedCount;
+                    chunk = new ArrayList<>(BULK_ADD_CHUNK_SIZE);
+
+                    System.out.println(sentCount + " users sent so far...");
+                }
+
+                if (line == null) {
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            System.out.println("Unable to read " + path + ": " + e.getMessage());
+        }
+
+        System.out.println((sentCount - failedCount) + " of " + sentCount + " users have been added.");
+        return true;
+    }
+
+    // Writes the users to the file as their chunks arrive, the server sends them as PARTIAL_CONTENT responses
+    // Returns false if the connection was lost or the account removed
+    private boolean exportUsers(String path) {
+        BufferedWriter fileWriter;
+
+        try {
+            fileWriter = new BufferedWriter(new FileWriter(path));
+            fileWriter.write(UserCsv.getExportHeader());
+            fileWriter.newLine();
+        } catch (IOException e) {
+            System.out.println("Unable to write " + path + ": " + e.getMessage());
+            return true;
+        }
+
+        requestBuilder.buildExportUsersRequest().send(this);
+
+        int exportedCount = 0;
+        boolean isWriteFailed = false;
+
+        try {
+            while (true) {
+                Response serverResponse = getResponseFromServer();
+
+                // Do not proceed if the response is null
+                if (serverResponse == null) {
+                    return false;
+                }
+
+                // Do not proceed if the account is removed
+                if (serverResponse.getResponseCode() == ResponseCode.REMOVED_ACCOUNT) {
+                    System.out.println("Your account was deleted by an admin. Exiting.");
+                    return false;
+                }
+
+                if (serverResponse.getResponseCode() != ResponseCode.PARTIAL_CONTENT) {
+                    if (!isWriteFailed) {
+                        responseHandler.handleExportUsersResponse(serverResponse, exportedCount, path);
+                    }
+                    return true;
+                }
+
+                // After a failed write the rest of the stream is still read, so it is not taken for later replies
+                if (isWriteFailed) {
+                    continue;
+                }
+
+                try {
+                    for (User exportedUser : serverResponse.getResponseContent().asUsersList()) {
+                        fileWriter.write(UserCsv.formatExportLine(exportedUser));
+                        fileWriter.newLine();
+                        exportedCount++;
+                    }
+                } catch (IOException e) {
+                    System.out.println("Unable to write " + path + " after " + exportedCount + " users: " + e.getMessage());
+                    isWriteFailed = true;
+                }
+            }
+        } finally {
+            try {
+                fileWriter.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
     public void closeEverything(Socket socket, BufferedReader bufferedReader, BufferedWriter bufferedWriter) {
         try {
             if (bufferedReader != null) {   // When you close the upper wrapper, the underlying stream
@@ -119,11 +381,15 @@ public class Client {
         }
     }
 
+    // Usage: java client.Client [text]
+    // The binary protocol is offered by default, 'text' keeps the client on the text protocol
     public static void main(String[] args) throws IOException {
         Scanner scanner = new Scanner(System.in);
 
+        boolean offerBinaryProtocol = !(args.length > 0 && args[0].equalsIgnoreCase("text"));
+
         Socket socket = new Socket("localhost", 1234);
-        Client client = new Client(socket, scanner);
+        Client client = new Client(socket, scanner, offerBinaryProtocol);
 
         BooleanWrapper shouldExit = client.new BooleanWrapper(false);
 
@@ -187,30 +453,32 @@ public class Client {
                         // Form the request
                         clientRequest = client.requestBuilder.buildInboxRequest();
 
-                        // Do not proceed if the request is null
-                        if (clientRequest == null)
-                            break;
+                        // One page per round, until the user stops or there are no more pages
+                        while (clientRequest != null) {
+                            // Send the request to the server
+                            clientRequest.send(client);
 
-                        // Send the request to the server
-                        clientRequest.send(client);
+                            // Handle the INBOX response from the server
+                            serverResponse =  client.getResponseFromServer();
 
-                        // Handle the INBOX response from the server
-                        serverResponse =  client.getResponseFromServer();
+                            // Do not proceed if the response is null
+                            if (serverResponse == null) {
+                                shouldExit.value = true;
+                                break;
+                            }
 
-                        // Do not proceed if the response is null
-                        if (serverResponse == null) {
-                            shouldExit.value = true;
-                            break;
-                        }
+                            // Do not proceed if the account is removed
+                            if (serverResponse.getResponseCode() == ResponseCode.REMOVED_ACCOUNT) {
+                                System.out.println("Your account was deleted by an admin. Exiting.");
+                                shouldExit.value = true;
+                                break;
+                            }
 
-                        // Do not proceed if the account is removed
-                        if (serverResponse.getResponseCode() == ResponseCode.REMOVED_ACCOUNT) {
-                            System.out.println("Your account was deleted by an admin. Exiting.");
-                            shouldExit.value = true;
-                            break;
-                        }
+                            String nextCursor = client.responseHandler.handleInboxResponse(serverResponse);
 
-                        client.responseHandler.handleInboxResponse(serverResponse);
+                            clientRequest = (nextCursor == null) ? null :
+                                    client.requestBuilder.buildNextPageRequest("INBOX", nextCursor);
+                        }
 
                         break;
 
@@ -219,37 +487,40 @@ public class Client {
                         // Form the request
                         clientRequest = client.requestBuilder.buildOutboxRequest();
 
-                        // Do not proceed if the request is null
-                        if (clientRequest == null)
-                            break;
+                        // One page per round, until the user stops or there are no more pages
+                        while (clientRequest != null) {
+                            // Send the request to the server
+                            clientRequest.send(client);
 
-                        // Send the request to the server
-                        clientRequest.send(client);
+                            // Handle the OUTBOX response from the server
+                            serverResponse =  client.getResponseFromServer();
 
-                        // Handle the OUTBOX response from the server
-                        serverResponse =  client.getResponseFromServer();
+                            // Do not proceed if the response is null
+                            if (serverResponse == null) {
+                                shouldExit.value = true;
+                                break;
+                            }
 
-                        // Do not proceed if the response is null
-                        if (serverResponse == null) {
-                            shouldExit.value = true;
-                            break;
-                        }
+                            // Do not proceed if the account is removed
+                            if (serverResponse.getResponseCode() == ResponseCode.REMOVED_ACCOUNT) {
+                                System.out.println("Your account was deleted by an admin. Exiting.");
+                                shouldExit.value = true;
+                                break;
+                            }
 
-                        // Do not proceed if the account is removed
-                        if (serverResponse.getResponseCode() == ResponseCode.REMOVED_ACCOUNT) {
-                            System.out.println("Your account was deleted by an admin. Exiting.");
-                            shouldExit.value = true;
-                            break;
-                        }
+                            String nextCursor = client.responseHandler.handleOutboxResponse(serverResponse);
 
-                        client.responseHandler.handleOutboxResponse(serverResponse);
+                            clientRequest = (nextCursor == null) ? null :
+                                    client.requestBuilder.buildNextPageRequest("OUTBOX", nextCursor);
+                        }
 
                         break;
 
                     case "3":
                     case "SEND_MESSAGE":
                         // Form the request
-                        clientRequest = client.requestBuilder.buildSendMessageRequest(client.getUser().getUsername());
+                        clientRequest = client.requestBuilder.buildSendMessageRequest(client.getUser().getUsername(),
+                                client.getUser().isAdmin());
 
                         // Do not proceed if the request is null
                         if (clientRequest == null)
@@ -441,32 +712,81 @@ public class Client {
                         }
 
                         // Form the request
-                        clientRequest = client.requestBuilder.buildListUsersRequest();
+                        Request listUsersRequest = client.requestBuilder.buildListUsersRequest();
+                        clientRequest = listUsersRequest;
+
+                        // One page per round, until the user stops or there are no more pages
+                        while (clientRequest != null) {
+                            // Send the request to server
+                            clientRequest.send(client);
+
+                            // Handle the LIST_USER response from the server
+                            serverResponse = client.getResponseFromServer();
+
+                            // Do not proceed if the response is null
+                            if (serverResponse == null) {
+                                shouldExit.value = true;
+                                break;
+                            }
+
+                            // Do not proceed if the account is removed
+                            if (serverResponse.getResponseCode() == ResponseCode.REMOVED_ACCOUNT) {
+                                System.out.println("Your account was deleted by an admin. Exiting.");
+                                shouldExit.value = true;
+                                break;
+                            }
+
+                            String nextCursor = client.responseHandler.handleListUsersResponse(serverResponse);
+
+                            clientRequest = (nextCursor == null) ? null :
+                                    client.requestBuilder.buildNextUsersPageRequest(listUsersRequest, nextCursor);
+                        }
+
+                        break;
+
+                    case "9":
+                    case "BULK_ADD_USERS":
+                        // Check if the user is authorized
+                        if (!client.user.isAdmin()) {
+                            responseCode =  ResponseCode.UNAUTHORIZED;
+                            System.out.println("Unable to perform action.Error: " + responseCode);
 
-                        // Do not proceed if the request is null
-                        if (clientRequest == null)
                             break;
+                        }
 
-                        // Send the request to server
-                        clientRequest.send(client);
+                        String importPath = client.requestBuilder.buildUserFilePath(true);
 
-                        // Handle the LIST_USER response from the server
-                        serverResponse = client.getResponseFromServer();
+                        // Do not proceed if no file was given
+                        if (importPath == null)
+                            break;
 
-                        // Do not proceed if the response is null
-                        if (serverResponse == null) {
+                        // Sends the file in chunks and handles the response to each one
+                        if (!client.importUsers(importPath)) {
                             shouldExit.value = true;
-                            break;
                         }
 
-                        // Do not proceed if the account is removed
-                        if (serverResponse.getResponseCode() == ResponseCode.REMOVED_ACCOUNT) {
-                            System.out.println("Your account was deleted by an admin. Exiting.");
-                            shouldExit.value = true;
+                        break;
+
+                    case "10":
+                    case "EXPORT_USERS":
+                        // Check if the user is authorized
+                        if (!client.user.isAdmin()) {
+                            responseCode =  ResponseCode.UNAUTHORIZED;
+                            System.out.println("Unable to perform action.Error: " + responseCode);
+
                             break;
                         }
 
-                        client.responseHandler.handleListUsersResponse(serverResponse);
+                        String exportPath = client.requestBuilder.buildUserFilePath(false);
+
+                        // Do not proceed if no file was given
+                        if (exportPath == null)
+                            break;
+
+                        // Sends the request and writes the users to the file as they arrive
+                        if (!client.exportUsers(exportPath)) {
+                            shouldExit.value = true;
+                        }
 
                         break;
 
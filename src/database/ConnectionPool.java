@@ -0,0 +1,384 @@
+package database;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+// A bounded pool of JDBC connections that is shared by all ClientHandler threads
+// Connections are borrowed per database operation and released right after it
+public class ConnectionPool {
+    // A connection that is waiting in the pool together with the time it was returned
+    private static class IdleConnection {
+        private final Connection conn;
+        private final long idleSince;
+
+        private IdleConnection(Connection conn, long idleSince) {
+            this.conn = conn;
+            this.idleSince = idleSince;
+        }
+    }
+
+    private final String url;
+    private final String user;
+    private final String password;
+
+    private final int minSize;
+    private final int maxSize;
+    private final long acquireTimeoutMillis;
+    private final long idleTimeoutMillis;
+    private final int validationTimeoutSeconds;
+    private final int statementCacheSize;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition connectionReleased = lock.newCondition();
+
+    // Most recently released connection is at the head, so the tail holds the longest idle ones
+    private final Deque<IdleConnection> idleConnections = new ArrayDeque<>();
+    private int totalConnections = 0; // idle + borrowed + being opened
+    private boolean isClosed = false;
+
+    private final ScheduledExecutorService evictor;
+
+    // Prepared statements are cached per physical connection, so they survive being returned to the pool
+    private final Map<Connection, StatementCache> statementCaches = new ConcurrentHashMap<>();
+
+    // Gauges and counters used for sizing the pool
+    private final AtomicLong borrowCount = new AtomicLong();
+    private final AtomicLong timeoutCount = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final AtomicLong statementHitCount = new AtomicLong();
+    private final AtomicLong statementMissCount = new AtomicLong();
+    private final AtomicLong statementEvictionCount = new AtomicLong();
+
+    public ConnectionPool(String url, String user, String password,
+                          int minSize, int maxSize, long acquireTimeoutMillis,
+                          long idleTimeoutMillis, int validationTimeoutSeconds,
+                          int statementCacheSize) throws SQLException {
+        if (minSize < 0 || maxSize < 1 || minSize > maxSize) {
+            throw new IllegalArgumentException("Invalid pool size: min=" + minSize + ", max=" + maxSize);
+        }
+
+        this.url = url;
+        this.user = user;
+        this.password = password;
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.acquireTimeoutMillis = acquireTimeoutMillis;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.validationTimeoutSeconds = validationTimeoutSeconds;
+        this.statementCacheSize = statementCacheSize;
+
+        // Open the minimum number of connections up front, so startup fails fast if the database is unreachable
+        for (int i = 0; i < minSize; i++) {
+            idleConnections.addFirst(new IdleConnection(openConnection(), System.currentTimeMillis()));
+            totalConnections++;
+        }
+
+        evictor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "connection-pool-evictor");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        long evictionPeriod = Math.max(1000, idleTimeoutMillis / 2);
+        evictor.scheduleAtFixedRate(this::evictIdleConnections, evictionPeriod, evictionPeriod, TimeUnit.MILLISECONDS);
+    }
+
+    private Connection openConnection() throws SQLException {
+        Connection conn = DriverManager.getConnection(url, user, password);
+        statementCaches.put(conn, new StatementCache(conn, statementCacheSize,
+                statementHitCount, statementMissCount, statementEvictionCount));
+
+        return conn;
+    }
+
+    // Returns a prepared statement of the borrowed connection that is reused across borrows
+    // The caller must close the result set but not the statement
+    public PreparedStatement prepareStatement(Connection conn, String sql) throws SQLException {
+        StatementCache statementCache = statementCaches.get(conn);
+
+        if (statementCache == null) { // Not a pooled connection
+            throw new SQLException("Connection does not belong to this pool.");
+        }
+
+        return statementCache.prepare(sql);
+    }
+
+    // Same as prepareStatement, the statement also returns the values of keyColumns of the rows it inserts
+    public PreparedStatement prepareStatementReturningKeys(Connection conn, String sql, String... keyColumns)
+            throws SQLException {
+        StatementCache statementCache = statementCaches.get(conn);
+
+        if (statementCache == null) { // Not a pooled connection
+            throw new SQLException("Connection does not belong to this pool.");
+        }
+
+        return statementCache.prepareReturningKeys(sql, keyColumns);
+    }
+
+    // Borrows a connection, waiting at most acquireTimeoutMillis for one to become available
+    public Connection borrow() throws SQLException {
+        long waitStart = System.nanoTime();
+        long remainingNanos = TimeUnit.MILLISECONDS.toNanos(acquireTimeoutMillis);
+
+        while (true) {
+            IdleConnection candidate = null;
+            boolean shouldOpen = false;
+
+            lock.lock();
+            try {
+                while (!isClosed && idleConnections.isEmpty() && totalConnections >= maxSize) {
+                    if (remainingNanos <= 0) {
+                        timeoutCount.incrementAndGet();
+                        throw new SQLTimeoutException("Timed out after " + acquireTimeoutMillis +
+                                " ms waiting for a database connection (pool size " + maxSize + ").");
+                    }
+
+                    remainingNanos = connectionReleased.awaitNanos(remainingNanos);
+                }
+
+                if (isClosed) {
+                    throw new SQLException("Connection pool is closed.");
+                }
+
+                if (!idleConnections.isEmpty()) {
+                    candidate = idleConnections.pollFirst();
+                } else {
+                    // Reserve a slot and open the connection outside the lock
+                    totalConnections++;
+                    shouldOpen = true;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted while waiting for a database connection.", e);
+            } finally {
+                lock.unlock();
+            }
+
+            Connection conn;
+
+            if (shouldOpen) {
+                try {
+                    conn = openConnection();
+                } catch (SQLException e) {
+                    discardSlot();
+                    throw e;
+                }
+            } else if (isValid(candidate.conn)) { // Validate on borrow, outside the lock
+                conn = candidate.conn;
+            } else {
+                closeQuietly(candidate.conn);
+                discardSlot();
+                continue;
+            }
+
+            recordWait(System.nanoTime() - waitStart);
+            return conn;
+        }
+    }
+
+    // Returns a borrowed connection to the pool
+    public void release(Connection conn) {
+        if (conn == null) {
+            return;
+        }
+
+        // Do not hand out a connection with a half-finished transaction to the next borrower
+        try {
+            if (!conn.getAutoCommit()) {
+                conn.rollback();
+                conn.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            closeQuietly(conn);
+            discardSlot();
+            return;
+        }
+
+        lock.lock();
+        try {
+            if (isClosed) {
+                closeQuietly(conn);
+                totalConnections--;
+                return;
+            }
+
+            idleConnections.addFirst(new IdleConnection(conn, System.currentTimeMillis()));
+            connectionReleased.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean isValid(Connection conn) {
+        try {
+            return !conn.isClosed() && conn.isValid(validationTimeoutSeconds);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    // Frees the slot of a connection that was closed instead of returned
+    private void discardSlot() {
+        lock.lock();
+        try {
+            totalConnections--;
+            connectionReleased.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void recordWait(long waitNanos) {
+        borrowCount.incrementAndGet();
+        totalWaitNanos.addAndGet(waitNanos);
+        maxWaitNanos.accumulateAndGet(waitNanos, Math::max);
+    }
+
+    // Closes connections that stayed idle longer than idleTimeoutMillis, keeping at least minSize open
+    private void evictIdleConnections() {
+        long now = System.currentTimeMillis();
+        Deque<Connection> toClose = new ArrayDeque<>();
+
+        lock.lock();
+        try {
+            Iterator<IdleConnection> oldestFirst = idleConnections.descendingIterator();
+
+            while (oldestFirst.hasNext() && totalConnections > minSize) {
+                IdleConnection idle = oldestFirst.next();
+
+                if (now - idle.idleSince < idleTimeoutMillis) {
+                    break;
+                }
+
+                oldestFirst.remove();
+                totalConnections--;
+                toClose.add(idle.conn);
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        for (Connection conn : toClose) {
+            closeQuietly(conn);
+        }
+    }
+
+    private void closeQuietly(Connection conn) {
+        StatementCache statementCache = statementCaches.remove(conn);
+        if (statementCache != null) {
+            statementCache.close();
+        }
+
+        try {
+            conn.close();
+        } catch (SQLException ignored) {
+        }
+    }
+
+    // Closes idle connections now, borrowed ones are closed as they are released
+    public void close() {
+        evictor.shutdownNow();
+
+        lock.lock();
+        try {
+            isClosed = true;
+
+            for (IdleConnection idle : idleConnections) {
+                closeQuietly(idle.conn);
+                totalConnections--;
+            }
+            idleConnections.clear();
+
+            connectionReleased.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getActiveCount() {
+        lock.lock();
+        try {
+            return totalConnections - idleConnections.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getIdleCount() {
+        lock.lock();
+        try {
+            return idleConnections.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getMinSize() {
+        return minSize;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public long getBorrowCount() {
+        return borrowCount.get();
+    }
+
+    public long getTimeoutCount() {
+        return timeoutCount.get();
+    }
+
+    public double getAverageWaitMillis() {
+        long borrows = borrowCount.get();
+        return borrows == 0 ? 0.0 : totalWaitNanos.get() / (borrows * 1_000_000.0);
+    }
+
+    public double getMaxWaitMillis() {
+        return maxWaitNanos.get() / 1_000_000.0;
+    }
+
+    public long getStatementHitCount() {
+        return statementHitCount.get();
+    }
+
+    public long getStatementMissCount() {
+        return statementMissCount.get();
+    }
+
+    public long getStatementEvictionCount() {
+        return statementEvictionCount.get();
+    }
+
+    @Override
+    public String toString() {
+        return "ConnectionPool{" +
+                "active=" + getActiveCount() +
+                ", idle=" + getIdleCount() +
+                ", min=" + minSize +
+                ", max=" + maxSize +
+                ", borrows=" + getBorrowCount() +
+                ", timeouts=" + getTimeoutCount() +
+                ", avgWaitMs=" + String.format("%.3f", getAverageWaitMillis()) +
+                ", maxWaitMs=" + String.format("%.3f", getMaxWaitMillis()) +
+                ", statementHits=" + getStatementHitCount() +
+                ", statementMisses=" + getStatementMissCount() +
+                ", statementEvictions=" + getStatementEvictionCount() +
+                '}';
+    }
+}
@@ -1,82 +1,430 @@
 package database;
 
+import logging.Logger;
 import model.Message;
+import model.MessagePage;
 import model.User;
+import model.UserPage;
+import metrics.ServerMetrics;
 
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
 
 public class DB {
+    private static final Logger log = Logger.getLogger(DB.class);
+
     // JDBC connection variables
     private final String url = "jdbc:postgresql://localhost:5432/mydb";
     private final String user = "postgres";
     private final String password = "dbpassword";
 
-    private final Connection conn;
+    // Connection pool variables
+    private final int poolMinSize = 2;
+    private final int poolMaxSize = 20;
+    private final long poolAcquireTimeoutMillis = 5000;
+    private final long poolIdleTimeoutMillis = 60000;
+    private final int poolValidationTimeoutSeconds = 2;
+    private final int statementCacheSize = 32; // Per connection, enough for every query in UsersTable and MessagesTable
+
+    // Message writer variables
+    private final int messageBatchSize = 100;
+    private final long messageBatchLingerMillis = 1;
+    private final int messageQueueCapacity = 10000;
+    private final long messageCommitTimeoutMillis = 30000;
+
+    // User cache variables
+    private final int userCacheMaxSize = 10000;
+    private final long userCacheTtlMillis = 5 * 60 * 1000;
+
+    // Message box cache variables
+    private final int messageBoxCacheDepth = 20; // Deepest first page served from the cache, 4 default pages
+    private final long messageBoxCacheMaxBytes = 64L * 1024 * 1024;
+
+    // Message reassigner variables
+    private final int messageReassignChunkSize = 1000; // Messages moved in one transaction when a user is removed
+    private final long messageReassignPauseMillis = 10;
+
+    // Password hashing variables
+    // Each login costs about passwordHashIterations HMACs on one core, see benchmark.PasswordBenchmarks to tune it
+    private final int passwordHashIterations = 600_000;
+    private final int passwordVerifierThreads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+    private final int passwordVerifierQueueCapacity = 64;
+    private final long passwordVerifierTimeoutMillis = 10000;
+    private final int passwordSessionCacheSize = 10000;
+    private final long passwordSessionCacheTtlMillis = 10 * 60 * 1000;
+
+    // Passwords of BULK_ADD_USERS are hashed at the same cost as any other, on threads of their own: an import uses at
+    // most importPasswordThreads cores, however large, and never takes the threads or queue of the logins
+    private final int importPasswordThreads = Math.max(1, Runtime.getRuntime().availableProcessors() / 4);
+    private final int importPasswordQueueCapacity = 256;
+
+    private final ConnectionPool pool;
+    private final UserCache userCache;
+    private final MessageBoxCache messageBoxCache;
 
     private final UsersTable usersTable;
     private final MessagesTable messagesTable;
+    private final MessageBatchWriter messageWriter;
+    private final MessageReassigner messageReassigner;
+    private final PasswordVerifier passwordVerifier;
+    private final PasswordVerifier importPasswordVerifier; // Only hashes, see importPasswordThreads
+
+    // Receives the users of exportUsers a chunk at a time, returns false to stop the export
+    public interface UserChunkHandler {
+        boolean handle(ArrayList<User> chunk);
+    }
+
+    // A database operation that runs on a connection borrowed from the pool
+    private interface Operation<T> {
+        T run(Connection conn) throws SQLException;
+    }
 
     public DB() throws SQLException {
-        // Connect to PostgreSQl and initialize 'conn'
-        conn = DriverManager.getConnection(url, user, password);
-        System.out.println("Connected to PostgreSQL.");
+        // Open the connection pool to PostgreSQL
+        pool = new ConnectionPool(url, user, password,
+                poolMinSize, poolMaxSize, poolAcquireTimeoutMillis,
+                poolIdleTimeoutMillis, poolValidationTimeoutSeconds, statementCacheSize);
+        log.info("Connected to PostgreSQL.", "url", url, "poolMaxSize", poolMaxSize);
 
-        // Construct composition objects usersTable and messagesTable
-        usersTable = new UsersTable(conn);
-        messagesTable = new MessagesTable(conn, usersTable);
+        // The pool's connections would stay open if the tables or the migrations failed
+        try {
+            userCache = new UserCache(userCacheMaxSize, userCacheTtlMillis);
+            messageBoxCache = new MessageBoxCache(messageBoxCacheDepth, messageBoxCacheMaxBytes);
+
+            PasswordHasher passwordHasher = new PasswordHasher(passwordHashIterations);
+            passwordVerifier = createPasswordVerifier(passwordHasher);
+            importPasswordVerifier = createImportPasswordVerifier(passwordHasher);
+
+            // Construct composition objects usersTable and messagesTable
+            List<Integer> removedUserIDs;
+            Connection conn = pool.borrow();
+            try {
+                usersTable = new UsersTable(pool, userCache, passwordHasher, conn);
+                messagesTable = new MessagesTable(pool, conn, usersTable);
+
+                // Indexes and later schema changes on top of the tables created above
+                SchemaMigrator.migrate(conn);
+
+                removedUserIDs = usersTable.getRemovedUserIDs(conn);
+            } finally {
+                pool.release(conn);
+            }
+
+            // Users removed before the last shutdown whose messages were not all reassigned yet
+            messageReassigner = new MessageReassigner(pool, usersTable, messagesTable, messageBoxCache,
+                    messageReassignChunkSize, messageReassignPauseMillis);
+            for (int removedUserID : removedUserIDs) {
+                messageReassigner.submit(removedUserID);
+            }
+
+            // Waits for room in the queue as long as a request would wait for a connection
+            messageWriter = new MessageBatchWriter(pool, messagesTable, messageBatchSize, messageBatchLingerMillis,
+                    messageQueueCapacity, poolAcquireTimeoutMillis, messageCommitTimeoutMillis);
+        } catch (SQLException | RuntimeException e) {
+            pool.close();
+            throw e;
+        }
+    }
+
+    // For stand-ins that override every operation and keep their data elsewhere, e.g. the benchmarks
+    // No connection to PostgreSQL is opened, passwords are still checked by login() with the given work factor, against
+    // the hashes the stand-in returns from getUserCredentials
+    protected DB(UserCache userCache, int passwordHashIterations) {
+        this.pool = null;
+        this.userCache = userCache;
+        this.messageBoxCache = null;
+        this.usersTable = null;
+        this.messagesTable = null;
+        this.messageWriter = null;
+        this.messageReassigner = null;
+        PasswordHasher passwordHasher = new PasswordHasher(passwordHashIterations);
+        this.passwordVerifier = createPasswordVerifier(passwordHasher);
+        this.importPasswordVerifier = createImportPasswordVerifier(passwordHasher);
+    }
+
+    private PasswordVerifier createPasswordVerifier(PasswordHasher passwordHasher) {
+        return new PasswordVerifier(passwordHasher, passwordVerifierThreads, passwordVerifierQueueCapacity,
+                passwordVerifierTimeoutMillis, passwordSessionCacheSize, passwordSessionCacheTtlMillis);
+    }
+
+    private PasswordVerifier createImportPasswordVerifier(PasswordHasher passwordHasher) {
+        return new PasswordVerifier(passwordHasher, importPasswordThreads, importPasswordQueueCapacity,
+                passwordVerifierTimeoutMillis, 0, 0);
     }
 
     public void close() throws SQLException {
-        if (conn != null && !conn.isClosed()) {
-            conn.close();
-            System.out.println("Connection closed.");
+        // Stand-ins are shared by the servers of a benchmark run and stay usable, their verifier threads are daemons
+        if (pool == null) {
+            return;
+        }
+
+        passwordVerifier.close();
+        log.info("Password verifier closed.", "verifier", passwordVerifier);
+
+        importPasswordVerifier.close();
+        log.info("Import password verifier closed.", "verifier", importPasswordVerifier);
+
+        // Before the pool, the writer still needs connections for the messages left in its queue
+        messageWriter.close();
+        log.info("Message writer closed.", "writer", messageWriter);
+
+        messageReassigner.close();
+        log.info("Message reassigner closed.", "reassigner", messageReassigner);
+
+        pool.close();
+        log.info("Connection pool closed.");
+    }
+
+    public ConnectionPool getConnectionPool() {
+        return pool;
+    }
+
+    public UserCache getUserCache() {
+        return userCache;
+    }
+
+    public MessageBoxCache getMessageBoxCache() {
+        return messageBoxCache;
+    }
+
+    public MessageBatchWriter getMessageWriter() {
+        return messageWriter;
+    }
+
+    public MessageReassigner getMessageReassigner() {
+        return messageReassigner;
+    }
+
+    public PasswordVerifier getPasswordVerifier() {
+        return passwordVerifier;
+    }
+
+    public PasswordVerifier getImportPasswordVerifier() {
+        return importPasswordVerifier;
+    }
+
+    // Borrows a connection for the duration of a single operation
+    // The time, including the wait for a connection, is recorded in ServerMetrics under operationName
+    private <T> T withConnection(String operationName, Operation<T> operation) throws SQLException {
+        long start = System.nanoTime();
+
+        Connection conn = pool.borrow();
+        try {
+            return operation.run(conn);
+        } finally {
+            pool.release(conn);
+            ServerMetrics.getInstance().recordDatabaseCall(operationName, System.nanoTime() - start);
         }
     }
 
-    public ArrayList<User> getUsersList() throws SQLException {
-        return usersTable.getUsersList();
+    // Runs the operation in one transaction, rolled back if it throws
+    private <T> T withTransaction(String operationName, Operation<T> operation) throws SQLException {
+        return withConnection(operationName, conn -> {
+            conn.setAutoCommit(false);
+
+            try {
+                T result = operation.run(conn);
+                conn.commit();
+                return result;
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        });
+    }
+
+    // One page of the user directory, see UsersTable.getUsersPage
+    public UserPage getUsersPage(UserCursor cursor, int pageSize, String searchPrefix, Set<String> fields)
+            throws SQLException {
+        return withConnection("getUsersPage",
+                conn -> usersTable.getUsersPage(conn, cursor, pageSize, searchPrefix, fields));
     }
 
     public User getUserWithUsername(String username) throws SQLException {
-        return usersTable.getUserWithUsername(username);
+        return withConnection("getUserWithUsername", conn -> usersTable.getUserWithUsername(conn, username));
     }
 
+    // Passwords are hashed before a connection is borrowed, so the pool is not held during the hash
     public void insertUser(User user, String password) throws SQLException {
-        usersTable.insertUser(user, password);
+        String passwordHash = passwordVerifier.hash(password);
+
+        withConnection("insertUser", conn -> {
+            usersTable.insertUser(conn, user, passwordHash);
+            return null;
+        });
+    }
+
+    // All or none of the users are added, except those whose username is taken, which are returned
+    // Takes about passwordHashIterations HMACs per user on importPasswordThreads cores, callers send small lists
+    public List<String> insertUsers(List<User> users, List<String> passwords) throws SQLException {
+        List<String> passwordHashes = importPasswordVerifier.hashAll(passwords);
+
+        return withTransaction("insertUsers", conn -> usersTable.insertUsers(conn, users, passwordHashes));
+    }
+
+    // Streams every user to the handler, chunkSize at a time
+    // The connection stays borrowed until the handler has taken the last chunk, so a slow handler holds it that long
+    public void exportUsers(int chunkSize, UserChunkHandler handler) throws SQLException {
+        withTransaction("exportUsers", conn -> {
+            usersTable.exportUsers(conn, chunkSize, handler);
+            return null;
+        });
     }
 
     public void updateUser(String usernameToUpdate, User updatedUser, String updatedPassword) throws SQLException {
-        usersTable.updateUser(usernameToUpdate, updatedUser, updatedPassword);
+        String updatedPasswordHash = (updatedPassword == null) ? null : passwordVerifier.hash(updatedPassword);
+
+        try {
+            withConnection("updateUser", conn -> {
+                usersTable.updateUser(conn, usernameToUpdate, updatedUser, updatedPasswordHash);
+                return null;
+            });
+        } finally {
+            // Cached messages hold the old user, on both sides of them
+            messageBoxCache.invalidateUser(usernameToUpdate);
+        }
     }
 
+    // Only the tombstone is written before this returns, the messages are reassigned in the background
     public void removeUser(String userToRemove) throws SQLException {
-        usersTable.removeUser(userToRemove);
+        int removedUserID;
+
+        try {
+            removedUserID = withTransaction("removeUser", conn -> usersTable.removeUser(conn, userToRemove));
+        } finally {
+            // Boxes holding the user's messages show 'deleted_user' from now on
+            messageBoxCache.invalidateUser(userToRemove);
+        }
+
+        if (removedUserID != -1) {
+            messageReassigner.submit(removedUserID);
+        }
     }
 
-    public boolean authenticateUser(String username, String password) throws SQLException {
-        return usersTable.authenticateUser(username, password);
+    // Loads the user and checks the password with one query, instead of an existence check, a password lookup and
+    // a user lookup on three connections
+    // The hash is checked on the password verifier, after the connection is released, see PasswordVerifier
+    // A password stored in plain text or with fewer iterations is replaced by a new hash once it matched
+    public LoginResult login(long sessionID, String username, String password) throws SQLException {
+        UserCredentials credentials = getUserCredentials(username);
+
+        if (credentials == null) {
+            return LoginResult.notFound();
+        }
+
+        PasswordVerifier.Verification verification =
+                passwordVerifier.verify(sessionID, username, password, credentials.getPasswordHash());
+
+        if (verification.getUpgradedHash() != null) {
+            try {
+                updatePasswordHash(username, credentials.getPasswordHash(), verification.getUpgradedHash());
+            } catch (SQLException e) {
+                // The password matched all the same, the hash is upgraded on a later login
+                log.warn("Password hash could not be upgraded.", "user", username, "error", e.getMessage());
+            }
+        }
+
+        return verification.isMatch() ? LoginResult.success(credentials.getUser()) : LoginResult.wrongPassword();
     }
 
-    public ArrayList<Message> getInboxOfUser(User user) throws SQLException {
-        return messagesTable.getInboxOfUser(user);
+    // Null if there is no such user
+    public UserCredentials getUserCredentials(String username) throws SQLException {
+        return withConnection("getUserCredentials", conn -> usersTable.getUserCredentials(conn, username));
     }
 
-    public ArrayList<Message> getOutboxOfUser(User user) throws SQLException {
-        return messagesTable.getOutboxOfUser(user);
+    // Only replaces oldHash, a password changed meanwhile is kept
+    public void updatePasswordHash(String username, String oldHash, String newHash) throws SQLException {
+        withConnection("updatePasswordHash", conn -> {
+            usersTable.updatePasswordHash(conn, username, oldHash, newHash);
+            return null;
+        });
     }
 
-    public void insertMessage(Message message) throws SQLException {
-        messagesTable.insertMessage(message);
+    // Called when a connection closes, see PasswordVerifier.forgetSession
+    public void forgetSession(long sessionID) {
+        passwordVerifier.forgetSession(sessionID);
     }
 
-    public boolean doesUserExist(String username) throws SQLException {
-        return usersTable.doesUserExist(username);
+    // A null cursor gives the first page, the newest messages
+    // First pages come from the message box cache, later pages always from the database
+    public MessagePage getInboxOfUser(User user, MessageCursor cursor, int pageSize) throws SQLException {
+        if (cursor == null && messageBoxCache.canServe(pageSize)) {
+            return getFirstPage(user, MessageBoxCache.Box.INBOX, pageSize);
+        }
+
+        return withConnection("getInboxOfUser", conn -> messagesTable.getInboxOfUser(conn, user, cursor, pageSize));
+    }
+
+    public MessagePage getOutboxOfUser(User user, MessageCursor cursor, int pageSize) throws SQLException {
+        if (cursor == null && messageBoxCache.canServe(pageSize)) {
+            return getFirstPage(user, MessageBoxCache.Box.OUTBOX, pageSize);
+        }
+
+        return withConnection("getOutboxOfUser", conn -> messagesTable.getOutboxOfUser(conn, user, cursor, pageSize));
     }
 
+    private MessagePage getFirstPage(User user, MessageBoxCache.Box box, int pageSize) throws SQLException {
+        MessagePage page = messageBoxCache.getFirstPage(box, user.getUsername(), pageSize);
 
+        if (page == null) {
+            long generation = messageBoxCache.getGeneration(box, user.getUsername());
 
+            List<MessageBoxCache.CachedMessage> newestMessages = withConnection("getNewestMessages", conn ->
+                    messagesTable.getNewestMessages(conn, user, box, messageBoxCache.getLoadSize()));
 
+            messageBoxCache.put(box, user.getUsername(), newestMessages, generation);
 
+            page = MessageBoxCache.toFirstPage(newestMessages, pageSize);
+        }
+
+        return page;
+    }
 
+    // Returns once the batch holding the message has been committed
+    public void insertMessage(Message message) throws SQLException {
+        long start = System.nanoTime();
+
+        int messageID;
+        try {
+            messageID = messageWriter.submit(message);
+        } finally {
+            // Time until the batch holding the message committed, the writer uses its own connection
+            ServerMetrics.getInstance().recordDatabaseCall("insertMessage", System.nanoTime() - start);
+        }
+
+        messageBoxCache.addMessage(message, messageID);
+    }
+
+    // One copy per recipient, all in one transaction; returns the recipients that do not exist
+    public List<String> insertMessageForRecipients(User sender, List<String> receivers, String title,
+                                                   String content, Timestamp time) throws SQLException {
+        try {
+            return withTransaction("insertMessageForRecipients", conn ->
+                    messagesTable.insertMessageForRecipients(conn, sender, receivers, title, content, time));
+        } finally {
+            // The copies' message_ids are not read back, so their boxes are reloaded instead of written through
+            for (String receiver : receivers) {
+                messageBoxCache.invalidate(MessageBoxCache.Box.INBOX, receiver);
+            }
+            messageBoxCache.invalidate(MessageBoxCache.Box.OUTBOX, sender.getUsername());
+        }
+    }
+
+    // Returns the number of users the message was sent to
+    public int insertMessageForAllUsers(User sender, String title, String content, Timestamp time) throws SQLException {
+        try {
+            return withTransaction("insertMessageForAllUsers", conn -> messagesTable.insertMessageForAllUsers(conn, sender, title, content, time));
+        } finally {
+            messageBoxCache.invalidateAllInboxes();
+            messageBoxCache.invalidate(MessageBoxCache.Box.OUTBOX, sender.getUsername());
+        }
+    }
+
+    public boolean doesUserExist(String username) throws SQLException {
+        return withConnection("doesUserExist", conn -> usersTable.doesUserExist(conn, username));
+    }
 }
@@ -0,0 +1,43 @@
+package database;
+
+import model.User;
+
+// Outcome of DB.login: whether the user exists and the password matched, and the user if it did
+public class LoginResult {
+    public enum Status {
+        SUCCESS,
+        NOT_FOUND,
+        WRONG_PASSWORD
+    }
+
+    private static final LoginResult NOT_FOUND = new LoginResult(Status.NOT_FOUND, null);
+    private static final LoginResult WRONG_PASSWORD = new LoginResult(Status.WRONG_PASSWORD, null);
+
+    private final Status status;
+    private final User user; // Only set on SUCCESS
+
+    private LoginResult(Status status, User user) {
+        this.status = status;
+        this.user = user;
+    }
+
+    public static LoginResult success(User user) {
+        return new LoginResult(Status.SUCCESS, user);
+    }
+
+    public static LoginResult notFound() {
+        return NOT_FOUND;
+    }
+
+    public static LoginResult wrongPassword() {
+        return WRONG_PASSWORD;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public User getUser() {
+        return user;
+    }
+}
@@ -0,0 +1,314 @@
+package database;
+
+import logging.Logger;
+import model.Message;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Inserts messages on a single writer thread, many at a time: each batch is one JDBC batch in one transaction,
+// so a burst of SEND_MESSAGE requests shares a single commit (group commit) instead of paying for one each
+// Callers block until the transaction holding their message has committed, and get the message_id it was given
+public class MessageBatchWriter {
+    private static final Logger log = Logger.getLogger(MessageBatchWriter.class);
+
+    // How long the writer waits for a message before checking whether it has been closed
+    private static final long IDLE_POLL_MILLIS = 100;
+    private static final long CLOSE_TIMEOUT_MILLIS = 10000;
+
+    // A submitted message and the future that is completed with its message_id when it is committed, or has failed
+    private static class PendingMessage {
+        private final Message message;
+        private final CompletableFuture<Integer> committed = new CompletableFuture<>();
+
+        private PendingMessage(Message message) {
+            this.message = message;
+        }
+    }
+
+    private final ConnectionPool pool;
+    private final MessagesTable messagesTable;
+
+    private final int batchSize;
+    private final long maxLingerMillis;
+    private final int queueCapacity;
+    private final long enqueueTimeoutMillis;
+    private final long commitTimeoutMillis;
+
+    private final BlockingQueue<PendingMessage> queue;
+    private final Thread writerThread;
+    private volatile boolean isClosed = false;
+
+    // Counters for tuning the batch size and linger
+    private final AtomicLong batchCount = new AtomicLong();
+    private final AtomicLong writtenCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
+    private final AtomicLong maxBatchSize = new AtomicLong();
+    private final AtomicLong totalCommitNanos = new AtomicLong();
+
+    // batchSize:            most messages written in one transaction
+    // maxLingerMillis:      how long a batch waits for more messages once it has its first one, 0 takes only what is queued
+    // queueCapacity:        most messages waiting to be written, submitters wait when it is full
+    // enqueueTimeoutMillis: how long a submitter waits for room in the queue before giving up
+    // commitTimeoutMillis:  how long a submitter waits for its message to be committed once it is queued
+    public MessageBatchWriter(ConnectionPool pool, MessagesTable messagesTable, int batchSize, long maxLingerMillis,
+                              int queueCapacity, long enqueueTimeoutMillis, long commitTimeoutMillis) {
+        this.pool = pool;
+        this.messagesTable = messagesTable;
+        this.batchSize = batchSize;
+        this.maxLingerMillis = maxLingerMillis;
+        this.queueCapacity = queueCapacity;
+        this.enqueueTimeoutMillis = enqueueTimeoutMillis;
+        this.commitTimeoutMillis = commitTimeoutMillis;
+
+        queue = new ArrayBlockingQueue<>(queueCapacity);
+
+        writerThread = new Thread(this::runWriter, "message-batch-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    // Returns the message_id once the message is committed, throws if it could not be written
+    public int submit(Message message) throws SQLException {
+        if (isClosed) {
+            throw new SQLException("Message writer is closed.");
+        }
+
+        PendingMessage pending = new PendingMessage(message);
+
+        try {
+            if (!queue.offer(pending, enqueueTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                rejectedCount.incrementAndGet();
+                throw new SQLException("Message queue is full, timed out after " + enqueueTimeoutMillis + " ms.");
+            }
+
+            // Closed meanwhile, the queue may already have been emptied for the last time
+            if (isClosed && queue.remove(pending)) {
+                throw new SQLException("Message writer is closed.");
+            }
+
+            return pending.committed.get(commitTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            // The message stays queued and may still be written, the caller only stops waiting for it
+            throw new SQLException("Message was not committed within " + commitTimeoutMillis + " ms.");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while writing the message.", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof SQLException) {
+                throw (SQLException) e.getCause();
+            }
+            throw new SQLException("Message could not be written.", e.getCause());
+        }
+    }
+
+    private void runWriter() {
+        ArrayList<PendingMessage> batch = new ArrayList<>(batchSize);
+
+        // After close, keep going until the messages that made it into the queue are written
+        while (!isClosed || !queue.isEmpty()) {
+            try {
+                PendingMessage first = queue.poll(IDLE_POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+
+                batch.add(first);
+                fillBatch(batch);
+            } catch (InterruptedException e) {
+                // Only interrupted by close, the loop condition decides whether to stop
+            }
+
+            if (!batch.isEmpty()) {
+                writeBatch(batch);
+                batch.clear();
+            }
+        }
+    }
+
+    // Adds what is already queued, then waits up to maxLingerMillis for the batch to fill up
+    private void fillBatch(ArrayList<PendingMessage> batch) throws InterruptedException {
+        queue.drainTo(batch, batchSize - batch.size());
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxLingerMillis);
+
+        while (batch.size() < batchSize) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return;
+            }
+
+            PendingMessage next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+            if (next == null) {
+                return;
+            }
+
+            batch.add(next);
+            queue.drainTo(batch, batchSize - batch.size());
+        }
+    }
+
+    private void writeBatch(ArrayList<PendingMessage> batch) {
+        long start = System.nanoTime();
+        Connection conn = null;
+
+        try {
+            conn = pool.borrow();
+            conn.setAutoCommit(false);
+
+            try {
+                ArrayList<Message> messages = new ArrayList<>(batch.size());
+                for (PendingMessage pending : batch) {
+                    messages.add(pending.message);
+                }
+
+                int[] messageIDs = messagesTable.insertMessages(conn, messages);
+                conn.commit();
+
+                for (int i = 0; i < batch.size(); i++) {
+                    batch.get(i).committed.complete(messageIDs[i]);
+                }
+                writtenCount.addAndGet(batch.size());
+            } catch (SQLException | RuntimeException e) {
+                conn.rollback();
+
+                // One bad message must not fail the others, so retry them one transaction each
+                writeOneByOne(conn, batch);
+            }
+        } catch (SQLException e) {
+            // No connection, or it broke during the rollback
+            failAll(batch, e);
+        } catch (RuntimeException e) {
+            // Fails this batch only, the writer thread keeps serving the others
+            log.error("Message batch could not be written.", "size", batch.size(), "error", e);
+            failAll(batch, new SQLException("Message could not be written.", e));
+        } finally {
+            pool.release(conn); // Also restores autocommit
+        }
+
+        batchCount.incrementAndGet();
+        maxBatchSize.accumulateAndGet(batch.size(), Math::max);
+        totalCommitNanos.addAndGet(System.nanoTime() - start);
+    }
+
+    private void writeOneByOne(Connection conn, ArrayList<PendingMessage> batch) throws SQLException {
+        for (PendingMessage pending : batch) {
+            try {
+                int[] messageIDs = messagesTable.insertMessages(conn, Collections.singletonList(pending.message));
+                conn.commit();
+
+                pending.committed.complete(messageIDs[0]);
+                writtenCount.incrementAndGet();
+            } catch (SQLException e) {
+                conn.rollback();
+
+                pending.committed.completeExceptionally(e);
+                failedCount.incrementAndGet();
+            } catch (RuntimeException e) {
+                // e.g. a receiver removed after the request was validated
+                conn.rollback();
+
+                pending.committed.completeExceptionally(new SQLException("Message could not be written.", e));
+                failedCount.incrementAndGet();
+            }
+        }
+    }
+
+    private void failAll(ArrayList<PendingMessage> batch, SQLException e) {
+        for (PendingMessage pending : batch) {
+            if (pending.committed.completeExceptionally(e)) {
+                failedCount.incrementAndGet();
+            }
+        }
+    }
+
+    // Stops taking messages, and waits for the queued ones to be written
+    public void close() {
+        isClosed = true;
+        writerThread.interrupt();
+
+        try {
+            writerThread.join(CLOSE_TIMEOUT_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        // Only left if the writer did not finish in time
+        ArrayList<PendingMessage> leftOver = new ArrayList<>();
+        queue.drainTo(leftOver);
+        failAll(leftOver, new SQLException("Message writer closed before the message was written."));
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public long getMaxLingerMillis() {
+        return maxLingerMillis;
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    public long getBatchCount() {
+        return batchCount.get();
+    }
+
+    public long getWrittenCount() {
+        return writtenCount.get();
+    }
+
+    public long getFailedCount() {
+        return failedCount.get();
+    }
+
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    public long getMaxBatchSizeSeen() {
+        return maxBatchSize.get();
+    }
+
+    public double getAverageBatchSize() {
+        long batches = batchCount.get();
+        return batches == 0 ? 0.0 : (double) (writtenCount.get() + failedCount.get()) / batches;
+    }
+
+    public double getAverageCommitMillis() {
+        long batches = batchCount.get();
+        return batches == 0 ? 0.0 : totalCommitNanos.get() / (batches * 1_000_000.0);
+    }
+
+    @Override
+    public String toString() {
+        return "MessageBatchWriter{" +
+                "batchSize=" + batchSize +
+                ", maxLingerMs=" + maxLingerMillis +
+                ", queueDepth=" + getQueueDepth() +
+                ", queueCapacity=" + queueCapacity +
+                ", batches=" + getBatchCount() +
+                ", written=" + getWrittenCount() +
+                ", failed=" + getFailedCount() +
+                ", rejected=" + getRejectedCount() +
+                ", avgBatchSize=" + String.format("%.2f", getAverageBatchSize()) +
+                ", maxBatchSize=" + getMaxBatchSizeSeen() +
+                ", avgCommitMs=" + String.format("%.3f", getAverageCommitMillis()) +
+                '}';
+    }
+}
@@ -0,0 +1,364 @@
+package database;
+
+import model.Message;
+import model.MessagePage;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// The newest messages of recently read inboxes and outboxes, so that the first page of a box is served without a query
+// A box holds the newest 'depth + 1' of its messages, or all of them if it has fewer: one more than the deepest page
+// it serves, to know whether that page has a next one
+// Sent messages are added to the boxes that are cached (write-through), boxes that may have changed otherwise are dropped
+public class MessageBoxCache {
+    // How many boxes are compared to pick the one to evict, approximates LRU without a global lock
+    private static final int EVICTION_SAMPLE_SIZE = 8;
+
+    // Loads and changes of a box use the generation of its stripe, see 'generations'
+    private static final int GENERATION_STRIPES = 64;
+
+    // Rough heap cost of a cached message besides its title and content, for the memory cap
+    private static final int MESSAGE_OVERHEAD_BYTES = 160;
+
+    public enum Box {
+        INBOX,
+        OUTBOX
+    }
+
+    // A message together with its position in the box
+    public static class CachedMessage {
+        private final Message message;
+        private final MessageCursor position;
+
+        public CachedMessage(Message message, MessageCursor position) {
+            this.message = message;
+            this.position = position;
+        }
+
+        public Message getMessage() {
+            return message;
+        }
+
+        public MessageCursor getPosition() {
+            return position;
+        }
+
+        // Newest first, like the inbox and outbox queries
+        private boolean isNewerThan(CachedMessage other) {
+            int byTime = position.getTime().compareTo(other.position.getTime());
+            return byTime > 0 || (byTime == 0 && position.getMessageID() > other.position.getMessageID());
+        }
+
+        private long estimateBytes() {
+            return MESSAGE_OVERHEAD_BYTES + 2L * (message.getTitle().length() + message.getContent().length());
+        }
+    }
+
+    // Replaced, never changed, when a message is added so that readers need no lock
+    private static class CachedBox {
+        private final List<CachedMessage> messages; // Newest first
+        private final long bytes;
+        private volatile long lastAccess;
+
+        // The page that was served last, reused while the page size stays the same
+        private volatile MessagePage lastPage;
+
+        private CachedBox(List<CachedMessage> messages) {
+            this.messages = messages;
+
+            long bytes = 0;
+            for (CachedMessage message : messages) {
+                bytes += message.estimateBytes();
+            }
+            this.bytes = bytes;
+
+            this.lastAccess = System.nanoTime();
+        }
+    }
+
+    private final int depth;
+    private final long maxBytes;
+
+    private final Map<String, CachedBox> boxes = new ConcurrentHashMap<>();
+    private final AtomicLong totalBytes = new AtomicLong();
+
+    // Incremented whenever a box of the stripe changes, a load that started before must not fill the cache
+    private final AtomicLongArray generations = new AtomicLongArray(GENERATION_STRIPES);
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    // depth:    deepest first page served from the cache, larger pages and later pages go to the database
+    // maxBytes: estimated heap used by all cached boxes together, least recently read boxes are evicted above it
+    public MessageBoxCache(int depth, long maxBytes) {
+        this.depth = depth;
+        this.maxBytes = maxBytes;
+    }
+
+    // How many messages a box has to be loaded with, see put
+    public int getLoadSize() {
+        return depth + 1;
+    }
+
+    public boolean canServe(int pageSize) {
+        return maxBytes > 0 && pageSize <= depth;
+    }
+
+    // Returns the first page of the box, or null if it is not cached
+    public MessagePage getFirstPage(Box box, String username, int pageSize) {
+        CachedBox cached = boxes.get(keyOf(box, username));
+
+        if (cached == null) {
+            missCount.incrementAndGet();
+            return null;
+        }
+
+        cached.lastAccess = System.nanoTime();
+        hitCount.incrementAndGet();
+
+        // Two page sizes with the same number of messages give the same page
+        MessagePage lastPage = cached.lastPage;
+        if (lastPage != null && lastPage.getMessages().size() == Math.min(pageSize, cached.messages.size())) {
+            return lastPage;
+        }
+
+        MessagePage page = toFirstPage(cached.messages, pageSize);
+        cached.lastPage = page;
+
+        return page;
+    }
+
+    // The first page of a box, from its newest messages as loaded for put
+    public static MessagePage toFirstPage(List<CachedMessage> newestMessages, int pageSize) {
+        ArrayList<Message> messages = new ArrayList<>(pageSize);
+        for (int i = 0; i < pageSize && i < newestMessages.size(); i++) {
+            messages.add(newestMessages.get(i).getMessage());
+        }
+
+        boolean hasNextPage = newestMessages.size() > pageSize;
+        String nextCursor = hasNextPage ? newestMessages.get(pageSize - 1).getPosition().encode() : null;
+
+        return new MessagePage(messages, nextCursor);
+    }
+
+    // Read before querying the database and passed to put, see 'generations'
+    public long getGeneration(Box box, String username) {
+        return generations.get(stripeOf(keyOf(box, username)));
+    }
+
+    // Caches a box loaded with getLoadSize() of its newest messages, newest first
+    public void put(Box box, String username, List<CachedMessage> messages, long generationAtLoad) {
+        String key = keyOf(box, username);
+
+        if (maxBytes <= 0 || generations.get(stripeOf(key)) != generationAtLoad) {
+            return;
+        }
+
+        CachedBox cached = new CachedBox(Collections.unmodifiableList(new ArrayList<>(messages)));
+        replace(key, cached);
+
+        // A change may have run between the check above and the put
+        if (generations.get(stripeOf(key)) != generationAtLoad) {
+            invalidate(box, username);
+            return;
+        }
+
+        evictUntilUnderCap();
+    }
+
+    // Adds a committed message to the sender's outbox and the receiver's inbox, if they are cached
+    public void addMessage(Message message, int messageID) {
+        CachedMessage added = new CachedMessage(message, new MessageCursor(message.getTime(), messageID));
+
+        addToBox(keyOf(Box.INBOX, message.getReceiver().getUsername()), added);
+        addToBox(keyOf(Box.OUTBOX, message.getSender().getUsername()), added);
+    }
+
+    private void addToBox(String key, CachedMessage added) {
+        generations.incrementAndGet(stripeOf(key));
+
+        CachedBox[] replaced = new CachedBox[2];
+
+        boxes.computeIfPresent(key, (k, cached) -> {
+            // The message is committed before it is added here, so a box loaded in between already holds it
+            for (CachedMessage message : cached.messages) {
+                if (message.getPosition().getMessageID() == added.getPosition().getMessageID()) {
+                    return cached;
+                }
+            }
+
+            // The time comes from the sender, so the message does not have to be the newest one
+            ArrayList<CachedMessage> messages = new ArrayList<>(cached.messages.size() + 1);
+            boolean isAdded = false;
+
+            for (CachedMessage message : cached.messages) {
+                if (!isAdded && added.isNewerThan(message)) {
+                    messages.add(added);
+                    isAdded = true;
+                }
+                messages.add(message);
+            }
+            if (!isAdded) {
+                messages.add(added);
+            }
+
+            // Older than every cached message of a full box, it is somewhere in the part that is not cached
+            if (messages.size() > getLoadSize()) {
+                messages.remove(messages.size() - 1);
+            }
+
+            CachedBox updated = new CachedBox(Collections.unmodifiableList(messages));
+            updated.lastAccess = cached.lastAccess;
+
+            replaced[0] = cached;
+            replaced[1] = updated;
+            return updated;
+        });
+
+        if (replaced[0] != null) {
+            totalBytes.addAndGet(replaced[1].bytes - replaced[0].bytes);
+            evictUntilUnderCap();
+        }
+    }
+
+    public void invalidate(Box box, String username) {
+        String key = keyOf(box, username);
+        generations.incrementAndGet(stripeOf(key));
+
+        CachedBox removed = boxes.remove(key);
+        if (removed != null) {
+            totalBytes.addAndGet(-removed.bytes);
+        }
+    }
+
+    // Drops the boxes of the user and every box holding a message from or to them
+    // Used when the user is renamed or removed, the other side of their messages changes too
+    public void invalidateUser(String username) {
+        invalidate(Box.INBOX, username);
+        invalidate(Box.OUTBOX, username);
+
+        for (Map.Entry<String, CachedBox> entry : boxes.entrySet()) {
+            for (CachedMessage cached : entry.getValue().messages) {
+                Message message = cached.getMessage();
+
+                if (message.getSender().getUsername().equals(username) ||
+                    message.getReceiver().getUsername().equals(username)) {
+                    remove(entry.getKey(), entry.getValue());
+                    break;
+                }
+            }
+        }
+    }
+
+    // Drops every cached inbox, e.g. after a message was sent to all users
+    // Every stripe moves on, so that an inbox loaded before the message was committed is not cached afterwards
+    public void invalidateAllInboxes() {
+        for (int i = 0; i < GENERATION_STRIPES; i++) {
+            generations.incrementAndGet(i);
+        }
+
+        for (Map.Entry<String, CachedBox> entry : boxes.entrySet()) {
+            if (entry.getKey().startsWith(Box.INBOX.name())) {
+                remove(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    public void clear() {
+        for (Map.Entry<String, CachedBox> entry : boxes.entrySet()) {
+            remove(entry.getKey(), entry.getValue());
+        }
+    }
+
+    private static String keyOf(Box box, String username) {
+        return box.name() + ":" + username;
+    }
+
+    private static int stripeOf(String key) {
+        return Math.floorMod(key.hashCode(), GENERATION_STRIPES);
+    }
+
+    private void replace(String key, CachedBox cached) {
+        CachedBox previous = boxes.put(key, cached);
+
+        totalBytes.addAndGet(cached.bytes - (previous == null ? 0 : previous.bytes));
+    }
+
+    private void remove(String key, CachedBox cached) {
+        generations.incrementAndGet(stripeOf(key));
+
+        if (boxes.remove(key, cached)) {
+            totalBytes.addAndGet(-cached.bytes);
+        }
+    }
+
+    // Evicts the least recently read of a few boxes, until the cache fits in maxBytes
+    private void evictUntilUnderCap() {
+        while (totalBytes.get() > maxBytes && !boxes.isEmpty()) {
+            Iterator<Map.Entry<String, CachedBox>> entries = boxes.entrySet().iterator();
+            Map.Entry<String, CachedBox> victim = null;
+
+            for (int i = 0; i < EVICTION_SAMPLE_SIZE && entries.hasNext(); i++) {
+                Map.Entry<String, CachedBox> entry = entries.next();
+
+                if (victim == null || entry.getValue().lastAccess < victim.getValue().lastAccess) {
+                    victim = entry;
+                }
+            }
+
+            if (victim == null) {
+                return;
+            }
+
+            remove(victim.getKey(), victim.getValue());
+            evictionCount.incrementAndGet();
+        }
+    }
+
+    public int getSize() {
+        return boxes.size();
+    }
+
+    public long getEstimatedBytes() {
+        return totalBytes.get();
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    public double getHitRate() {
+        long hits = hitCount.get();
+        long total = hits + missCount.get();
+        return total == 0 ? 0.0 : (double) hits / total;
+    }
+
+    @Override
+    public String toString() {
+        return "MessageBoxCache{" +
+                "boxes=" + getSize() +
+                ", depth=" + depth +
+                ", estimatedBytes=" + getEstimatedBytes() +
+                ", maxBytes=" + maxBytes +
+                ", hits=" + getHitCount() +
+                ", misses=" + getMissCount() +
+                ", evictions=" + getEvictionCount() +
+                ", hitRate=" + String.format("%.3f", getHitRate()) +
+                '}';
+    }
+}
@@ -0,0 +1,56 @@
+package database;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.util.Base64;
+
+// Position in an inbox or outbox: the (time, message_id) of the last message of a page
+// Clients get it as an opaque token and send it back to fetch the messages that come after it
+public class MessageCursor {
+    private static final String SEPARATOR = "|";
+
+    private final Timestamp time;
+    private final int messageID;
+
+    public MessageCursor(Timestamp time, int messageID) {
+        this.time = time;
+        this.messageID = messageID;
+    }
+
+    public Timestamp getTime() {
+        return time;
+    }
+
+    public int getMessageID() {
+        return messageID;
+    }
+
+    // The standard Base64 alphabet has no '_', so the token can never contain one of the protocol delimiters
+    public String encode() {
+        String plain = time.toString() + SEPARATOR + messageID;
+        return Base64.getEncoder().withoutPadding().encodeToString(plain.getBytes(StandardCharsets.UTF_8));
+    }
+
+    // Returns null if the token was not made by encode()
+    public static MessageCursor decode(String token) {
+        if (token == null || token.isEmpty()) {
+            return null;
+        }
+
+        try {
+            String plain = new String(Base64.getDecoder().decode(token), StandardCharsets.UTF_8);
+            int separatorIndex = plain.lastIndexOf(SEPARATOR);
+
+            if (separatorIndex == -1) {
+                return null;
+            }
+
+            Timestamp time = Timestamp.valueOf(plain.substring(0, separatorIndex));
+            int messageID = Integer.parseInt(plain.substring(separatorIndex + SEPARATOR.length()));
+
+            return new MessageCursor(time, messageID);
+        } catch (IllegalArgumentException e) { // Also covers NumberFormatException
+            return null;
+        }
+    }
+}
@@ -0,0 +1,236 @@
+package database;
+
+import logging.Logger;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Moves the messages of removed users to 'deleted_user' on a single background thread, then deletes their rows
+// A removed user is only a tombstone until then (see UsersTable.removeUser), which pages already show as 'deleted_user'
+// Messages are moved a chunk at a time, each chunk in its own short transaction, so that removing a user with
+// millions of messages never holds row locks on all of them at once nor keeps the admin waiting
+public class MessageReassigner {
+    private static final Logger log = Logger.getLogger(MessageReassigner.class);
+
+    // How long the reassigner waits for a removed user before checking whether it has been closed
+    private static final long IDLE_POLL_MILLIS = 100;
+    private static final long RETRY_DELAY_MILLIS = 5000;
+    private static final long CLOSE_TIMEOUT_MILLIS = 10000;
+
+    // Progress is logged every this many chunks, and when a user is done
+    private static final int PROGRESS_LOG_INTERVAL = 100;
+
+    private final ConnectionPool pool;
+    private final UsersTable usersTable;
+    private final MessagesTable messagesTable;
+    private final MessageBoxCache messageBoxCache;
+
+    private final int chunkSize;
+    private final long chunkPauseMillis;
+
+    private final BlockingQueue<Integer> removedUserIDs = new LinkedBlockingQueue<>();
+    private final Thread reassignerThread;
+    private volatile boolean isClosed = false;
+
+    // Progress of the user being worked on, -1 when idle
+    private final AtomicInteger currentUserID = new AtomicInteger(-1);
+    private final AtomicLong currentReassignedCount = new AtomicLong();
+
+    private final AtomicLong completedUserCount = new AtomicLong();
+    private final AtomicLong reassignedCount = new AtomicLong();
+    private final AtomicLong chunkCount = new AtomicLong();
+
+    // chunkSize:        most messages moved in one transaction
+    // chunkPauseMillis: pause between two chunks, leaves the database to the requests while a large user is moved
+    public MessageReassigner(ConnectionPool pool, UsersTable usersTable, MessagesTable messagesTable,
+                             MessageBoxCache messageBoxCache, int chunkSize, long chunkPauseMillis) {
+        this.pool = pool;
+        this.usersTable = usersTable;
+        this.messagesTable = messagesTable;
+        this.messageBoxCache = messageBoxCache;
+        this.chunkSize = chunkSize;
+        this.chunkPauseMillis = chunkPauseMillis;
+
+        reassignerThread = new Thread(this::runReassigner, "message-reassigner");
+        reassignerThread.setDaemon(true);
+        reassignerThread.start();
+    }
+
+    // Called once the tombstone of the user is committed
+    public void submit(int removedUserID) {
+        removedUserIDs.add(removedUserID);
+    }
+
+    private void runReassigner() {
+        while (!isClosed) {
+            Integer removedUserID;
+
+            try {
+                removedUserID = removedUserIDs.poll(IDLE_POLL_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                continue; // Only interrupted by close, the loop condition decides whether to stop
+            }
+
+            if (removedUserID == null) {
+                continue;
+            }
+
+            try {
+                reassign(removedUserID);
+            } catch (SQLException e) {
+                log.error("Reassigning messages failed, will retry.", "userID", removedUserID,
+                        "reassigned", currentReassignedCount.get(), "error", e.getMessage());
+
+                // The tombstone stays, so a restart would pick the user up again as well
+                removedUserIDs.add(removedUserID);
+                sleep(RETRY_DELAY_MILLIS);
+            } catch (InterruptedException e) {
+                // Closed halfway, the rest is picked up from the tombstone on the next start
+                removedUserIDs.add(removedUserID);
+            } finally {
+                currentUserID.set(-1);
+            }
+        }
+    }
+
+    private void reassign(int removedUserID) throws SQLException, InterruptedException {
+        long start = System.nanoTime();
+
+        currentUserID.set(removedUserID);
+        currentReassignedCount.set(0);
+
+        log.info("Reassigning messages of removed user.", "userID", removedUserID, "chunkSize", chunkSize);
+
+        Connection conn = pool.borrow();
+        try {
+            int replacementID = usersTable.getReplacementID(conn, removedUserID);
+
+            if (replacementID == -1) {
+                log.warn("Removed user not found, nothing to reassign.", "userID", removedUserID);
+                return;
+            }
+
+            // A message sent just before the tombstone may still be written afterwards, in which case the delete fails
+            // on its foreign key and the user is moved once more
+            do {
+                moveChunks(conn, removedUserID, replacementID, true);
+                moveChunks(conn, removedUserID, replacementID, false);
+            } while (!usersTable.deleteRemovedUser(conn, removedUserID));
+        } finally {
+            pool.release(conn);
+        }
+
+        completedUserCount.incrementAndGet();
+
+        log.info("Messages of removed user reassigned.", "userID", removedUserID,
+                "reassigned", currentReassignedCount.get(),
+                "durationMillis", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    // Moves every message the user sent (isSender) or received, in chunks of at most chunkSize
+    private void moveChunks(Connection conn, int removedUserID, int replacementID, boolean isSender)
+            throws SQLException, InterruptedException {
+        while (true) {
+            if (isClosed) {
+                throw new InterruptedException("Message reassigner closed.");
+            }
+
+            // Autocommitted, every chunk is its own transaction
+            int moved = messagesTable.reassignMessages(conn, removedUserID, replacementID, isSender, chunkSize);
+
+            if (moved == 0) {
+                return;
+            }
+
+            currentReassignedCount.addAndGet(moved);
+            reassignedCount.addAndGet(moved);
+            long chunks = chunkCount.incrementAndGet();
+
+            // 'deleted_user' has just got these messages
+            messageBoxCache.invalidate(MessageBoxCache.Box.INBOX, UsersTable.getDeletedUsername());
+            messageBoxCache.invalidate(MessageBoxCache.Box.OUTBOX, UsersTable.getDeletedUsername());
+
+            if (chunks % PROGRESS_LOG_INTERVAL == 0) {
+                log.info("Reassigning messages of removed user.", "userID", removedUserID,
+                        "reassigned", currentReassignedCount.get());
+            }
+
+            if (moved < chunkSize) {
+                return;
+            }
+
+            sleep(chunkPauseMillis);
+        }
+    }
+
+    private void sleep(long millis) {
+        if (millis <= 0) {
+            return;
+        }
+
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            // Only interrupted by close, which the callers check
+        }
+    }
+
+    // Stops after the current chunk, users that are not done keep their tombstone and are resumed on the next start
+    public void close() {
+        isClosed = true;
+        reassignerThread.interrupt();
+
+        try {
+            reassignerThread.join(CLOSE_TIMEOUT_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    // Removed users waiting for their messages to be moved, besides the current one
+    public int getPendingCount() {
+        return removedUserIDs.size();
+    }
+
+    public int getCurrentUserID() {
+        return currentUserID.get();
+    }
+
+    public long getCurrentReassignedCount() {
+        return currentReassignedCount.get();
+    }
+
+    public long getCompletedUserCount() {
+        return completedUserCount.get();
+    }
+
+    public long getReassignedCount() {
+        return reassignedCount.get();
+    }
+
+    public long getChunkCount() {
+        return chunkCount.get();
+    }
+
+    @Override
+    public String toString() {
+        return "MessageReassigner{" +
+                "chunkSize=" + chunkSize +
+                ", pending=" + getPendingCount() +
+                ", currentUserID=" + getCurrentUserID() +
+                ", currentReassigned=" + getCurrentReassignedCount() +
+                ", completedUsers=" + getCompletedUserCount() +
+                ", reassigned=" + getReassignedCount() +
+                ", chunks=" + getChunkCount() +
+                '}';
+    }
+}
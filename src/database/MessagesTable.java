@@ -1,13 +1,23 @@
 package database;
 
+import logging.Logger;
 import model.Message;
+import model.MessagePage;
 import model.User;
 
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 /*
-    'messages' table in PostgreSQL
+    'messages' table in PostgreSQL, as created here; SchemaMigrator then moves title and content to 'message_bodies'
 
     CREATE TABLE messages (
         message_id SERIAL PRIMARY KEY,
@@ -19,19 +29,57 @@ import java.util.ArrayList;
         FOREIGN KEY (sender_id) REFERENCES users(user_id),
         FOREIGN KEY (receiver_id) REFERENCES users(user_id)
     );
+
+    Changes made by SchemaMigrator:
+        messages_receiver_time_idx ON messages (receiver_id, time DESC, message_id DESC)
+        messages_sender_time_idx ON messages (sender_id, time DESC, message_id DESC)
+
+        CREATE TABLE message_bodies (
+            body_id SERIAL PRIMARY KEY,
+            body_hash TEXT NOT NULL UNIQUE,
+            title TEXT NOT NULL,
+            content TEXT NOT NULL
+        );
+        messages: title and content replaced by body_id INTEGER NOT NULL REFERENCES message_bodies(body_id)
+
+    A message sent to many users is one 'messages' row per recipient, all pointing to the same body
  */
 
 public class MessagesTable {
-    private final Connection conn;
+    private static final Logger log = Logger.getLogger(MessagesTable.class);
+
+    // Messages per page of an inbox or outbox when the client does not ask for a page size, and the most it may ask for
+    private static final int DEFAULT_PAGE_SIZE = 5;
+    private static final int MAX_PAGE_SIZE = 100;
+
+    // Inbox and outbox queries, built once so that each of them maps to one cached prepared statement
+    private static final String INBOX_FIRST_PAGE_SQL = messagePageQuery("receiver_id", "sender_id", false);
+    private static final String INBOX_NEXT_PAGE_SQL = messagePageQuery("receiver_id", "sender_id", true);
+    private static final String OUTBOX_FIRST_PAGE_SQL = messagePageQuery("sender_id", "receiver_id", false);
+    private static final String OUTBOX_NEXT_PAGE_SQL = messagePageQuery("sender_id", "receiver_id", true);
+
+    private static final String REASSIGN_SENT_SQL = reassignQuery("sender_id");
+    private static final String REASSIGN_RECEIVED_SQL = reassignQuery("receiver_id");
+
+    private final ConnectionPool pool; // Provides the cached prepared statements of each connection
     private final UsersTable usersTable;
 
-    public MessagesTable(Connection conn,  UsersTable usersTable) throws SQLException {
-        this.conn = conn;
-        initializeMessagesTable();
+    // The connection is only used for initialization, every other method is given a connection borrowed by DB
+    public MessagesTable(ConnectionPool pool, Connection conn, UsersTable usersTable) throws SQLException {
+        this.pool = pool;
+        initializeMessagesTable(conn);
         this.usersTable = usersTable;
     }
 
-    private void initializeMessagesTable() throws SQLException {
+    public static int getDefaultPageSize() {
+        return DEFAULT_PAGE_SIZE;
+    }
+
+    public static int getMaxPageSize() {
+        return MAX_PAGE_SIZE;
+    }
+
+    private void initializeMessagesTable(Connection conn) throws SQLException {
         String createTableSQL = """
         CREATE TABLE IF NOT EXISTS messages (
             message_id SERIAL PRIMARY KEY,
@@ -49,127 +97,352 @@ public class MessagesTable {
         stmt.execute(createTableSQL);
         stmt.close();
 
-        System.out.println("Messages table initialized.");
+        log.info("Messages table initialized.");
     }
 
-    public void insertMessage(Message message) throws SQLException {
+    // Inserts the messages as one JDBC batch, the caller decides when to commit
+    // Returns the message_id of each message, in the order of the list
+    public int[] insertMessages(Connection conn, List<Message> messages) throws SQLException {
+        // Each distinct body is stored once, however many of the messages share it
+        Map<String, Message> messagesByBodyHash = new LinkedHashMap<>();
+        for (Message message : messages) {
+            messagesByBodyHash.putIfAbsent(bodyHash(message.getTitle(), message.getContent()), message);
+        }
+
+        Map<String, Integer> bodyIDs = storeBodies(conn, messagesByBodyHash);
+
         // Use the connection object to create a prepared statement with placeholders
-        String insertSQL = "INSERT INTO messages (sender_id,receiver_id,title,content,time) VALUES (?,?,?,?,?)";
-        PreparedStatement insertStmt = conn.prepareStatement(insertSQL);
+        String insertSQL = "INSERT INTO messages (sender_id,receiver_id,body_id,time) VALUES (?,?,?,?)";
+        PreparedStatement insertStmt = pool.prepareStatementReturningKeys(conn, insertSQL, "message_id");
+
+        for (Message message : messages) {
+            // Fill the placeholder values in the prepared statement
+            int senderID = usersTable.getUserID(conn, message.getSender());
+            int receiverID = usersTable.getUserID(conn, message.getReceiver());
+
+            insertStmt.setInt(1, senderID);
+            insertStmt.setInt(2, receiverID);
+            insertStmt.setInt(3, bodyIDs.get(bodyHash(message.getTitle(), message.getContent())));
+            insertStmt.setTimestamp(4, message.getTime());
+
+            insertStmt.addBatch();
+        }
+
+        int[] messageIDs = new int[messages.size()];
+
+        // Send all the inserts in one round trip
+        try {
+            insertStmt.executeBatch();
+
+            // One row per insert, in the order they were added to the batch
+            ResultSet keys = insertStmt.getGeneratedKeys();
+            for (int i = 0; i < messageIDs.length && keys.next(); i++) {
+                messageIDs[i] = keys.getInt(1);
+            }
+            keys.close();
+        } finally {
+            insertStmt.clearBatch(); // The statement is cached, do not leave a failed batch in it
+        }
+
+        log.debug("Messages inserted.", "count", messages.size());
+
+        return messageIDs;
+    }
+
+    // Inserts a copy of the message for each recipient, resolving all of them in one query and
+    // inserting the copies in one batch; the caller runs it in a transaction
+    // Returns the recipients that do not exist, no copy is inserted for them
+    public List<String> insertMessageForRecipients(Connection conn, User sender, List<String> receivers,
+                                                   String title, String content, Timestamp time) throws SQLException {
+        String resolveSQL = "SELECT user_id, username FROM users WHERE username = ANY(?) AND username <> ?";
+        PreparedStatement resolveStmt = pool.prepareStatement(conn, resolveSQL);
+
+        resolveStmt.setArray(1, conn.createArrayOf("text", receivers.toArray()));
+        resolveStmt.setString(2, UsersTable.getDeletedUsername()); // Not a real recipient
+
+        Map<String, Integer> receiverIDs = new HashMap<>();
+
+        ResultSet rs = resolveStmt.executeQuery();
+        while (rs.next()) {
+            receiverIDs.put(rs.getString("username"), rs.getInt("user_id"));
+        }
+        rs.close();
+
+        List<String> unknownReceivers = new ArrayList<>();
+        for (String receiver : receivers) {
+            if (!receiverIDs.containsKey(receiver)) {
+                unknownReceivers.add(receiver);
+            }
+        }
+
+        if (receiverIDs.isEmpty()) {
+            return unknownReceivers;
+        }
+
+        // Every copy points to the same body
+        int bodyID = storeBody(conn, title, content);
+
+        String insertSQL = "INSERT INTO messages (sender_id,receiver_id,body_id,time) VALUES (?,?,?,?)";
+        PreparedStatement insertStmt = pool.prepareStatement(conn, insertSQL);
+
+        int senderID = usersTable.getUserID(conn, sender);
+
+        for (String receiver : receivers) {
+            Integer receiverID = receiverIDs.get(receiver);
+            if (receiverID == null) {
+                continue;
+            }
+
+            insertStmt.setInt(1, senderID);
+            insertStmt.setInt(2, receiverID);
+            insertStmt.setInt(3, bodyID);
+            insertStmt.setTimestamp(4, time);
+
+            insertStmt.addBatch();
+        }
+
+        try {
+            insertStmt.executeBatch();
+        } finally {
+            insertStmt.clearBatch();
+        }
+
+        log.debug("Message inserted for recipients.", "sender", sender.getUsername(), "recipients", receiverIDs.size());
+
+        return unknownReceivers;
+    }
+
+    // Inserts a copy of the message for every user except the sender, in a single statement
+    // Returns the number of copies
+    public int insertMessageForAllUsers(Connection conn, User sender, String title, String content,
+                                        Timestamp time) throws SQLException {
+        String insertSQL = """
+        INSERT INTO messages (sender_id, receiver_id, body_id, time)
+        SELECT ?, user_id, ?, ?
+        FROM users
+        WHERE user_id <> ? AND username <> ?
+        """;
+        PreparedStatement insertStmt = pool.prepareStatement(conn, insertSQL);
 
-        // Fill the placeholder values in the prepared statement
-        int senderID = usersTable.getUserID(message.getSender());
-        int receiverID = usersTable.getUserID(message.getReceiver());
+        int senderID = usersTable.getUserID(conn, sender);
+        int bodyID = storeBody(conn, title, content);
 
         insertStmt.setInt(1, senderID);
-        insertStmt.setInt(2, receiverID);
-        insertStmt.setString(3, message.getTitle());
-        insertStmt.setString(4, message.getContent());
-        insertStmt.setTimestamp(5, message.getTime());
+        insertStmt.setInt(2, bodyID);
+        insertStmt.setTimestamp(3, time);
+        insertStmt.setInt(4, senderID);
+        insertStmt.setString(5, UsersTable.getDeletedUsername());
 
-        // Execute the insert statement and update the table
-        insertStmt.executeUpdate();
+        int insertedCount = insertStmt.executeUpdate();
 
-        // Close the prepared statement
-        insertStmt.close();
+        log.info("Message inserted for all users.", "sender", sender.getUsername(), "recipients", insertedCount);
 
-        // Log to console
-        System.out.println("Message inserted successfully.");
+        return insertedCount;
     }
 
-    public ArrayList<Message> getInboxOfUser(User receiver) throws SQLException {
-        int receiverID = usersTable.getUserID(receiver);
-        System.out.println("Getting inbox of user");
+    // Hex SHA-256 of the title and content, the title's length keeps ("ab", "c") and ("a", "bc") apart
+    // Must stay in line with the hash the migration to 'message_bodies' computed for the existing messages
+    static String bodyHash(String title, String content) {
+        byte[] titleBytes = title.getBytes(StandardCharsets.UTF_8);
+        String hashed = titleBytes.length + ":" + title + content;
+
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(hashed.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available.", e); // Every JVM has to provide it
+        }
+    }
 
-        // Select all columns where receiver_id = receiverID
-        String querySQL = "SELECT * FROM messages WHERE receiver_id = ? ORDER BY time DESC LIMIT 5";
-        PreparedStatement queryStmt = conn.prepareStatement(querySQL);
+    private int storeBody(Connection conn, String title, String content) throws SQLException {
+        String hash = bodyHash(title, content);
 
-        queryStmt.setInt(1, receiverID);
+        Map<String, Message> messagesByBodyHash = new HashMap<>();
+        messagesByBodyHash.put(hash, new Message(null, null, title, content, null));
 
-        // Executes the query
-        // Stores the result in a ResultSet — which acts like a table in memory that you can loop through
-        ResultSet rs = queryStmt.executeQuery();
+        return storeBodies(conn, messagesByBodyHash).get(hash);
+    }
 
-        ArrayList<Message> messages = new ArrayList<>();
+    // Stores the bodies that are not stored yet, and returns the body_id of every given hash
+    // Bodies are never updated, so a body that already exists costs no write
+    private Map<String, Integer> storeBodies(Connection conn, Map<String, Message> messagesByBodyHash) throws SQLException {
+        int bodyCount = messagesByBodyHash.size();
+        String[] hashes = new String[bodyCount];
+        String[] titles = new String[bodyCount];
+        String[] contents = new String[bodyCount];
+
+        int i = 0;
+        for (Map.Entry<String, Message> entry : messagesByBodyHash.entrySet()) {
+            hashes[i] = entry.getKey();
+            titles[i] = entry.getValue().getTitle();
+            contents[i] = entry.getValue().getContent();
+            i++;
+        }
 
-        // Loops through the ResultSet one row at a time.
-        // rs.next() moves the cursor to the next row and returns true if there is one.
+        Array hashArray = conn.createArrayOf("text", hashes);
+
+        String insertSQL = """
+        INSERT INTO message_bodies (body_hash, title, content)
+        SELECT * FROM unnest(?::text[], ?::text[], ?::text[])
+        ON CONFLICT (body_hash) DO NOTHING
+        """;
+        PreparedStatement insertStmt = pool.prepareStatement(conn, insertSQL);
+
+        insertStmt.setArray(1, hashArray);
+        insertStmt.setArray(2, conn.createArrayOf("text", titles));
+        insertStmt.setArray(3, conn.createArrayOf("text", contents));
+        insertStmt.executeUpdate();
+
+        // A separate statement, so that it also sees bodies another transaction committed while this one waited on them
+        String querySQL = "SELECT body_id, body_hash FROM message_bodies WHERE body_hash = ANY(?)";
+        PreparedStatement queryStmt = pool.prepareStatement(conn, querySQL);
+
+        queryStmt.setArray(1, hashArray);
+
+        Map<String, Integer> bodyIDs = new HashMap<>();
+
+        ResultSet rs = queryStmt.executeQuery();
         while (rs.next()) {
-            int senderID = rs.getInt("sender_id");
-            User sender = usersTable.getUserWithID(senderID);
+            bodyIDs.put(rs.getString("body_hash"), rs.getInt("body_id"));
+        }
+        rs.close();
 
-            String title = rs.getString("title");
-            String content = rs.getString("content");
-            Timestamp time = rs.getTimestamp("time");
+        if (bodyIDs.size() != bodyCount) {
+            throw new SQLException("Message body could not be stored.");
+        }
 
-            // Create and return a new model.Message object with fetched data
-            messages.add(new Message(sender, receiver, title, content, time));
+        return bodyIDs;
+    }
+
+    public MessagePage getInboxOfUser(Connection conn, User receiver, MessageCursor cursor, int pageSize) throws SQLException {
+        String querySQL = (cursor == null) ? INBOX_FIRST_PAGE_SQL : INBOX_NEXT_PAGE_SQL;
+        return getMessagePage(conn, querySQL, receiver, false, cursor, pageSize);
+    }
+
+    public MessagePage getOutboxOfUser(Connection conn, User sender, MessageCursor cursor, int pageSize) throws SQLException {
+        String querySQL = (cursor == null) ? OUTBOX_FIRST_PAGE_SQL : OUTBOX_NEXT_PAGE_SQL;
+        return getMessagePage(conn, querySQL, sender, true, cursor, pageSize);
+    }
+
+    // The newest 'count' messages of the box with their positions, for MessageBoxCache
+    public List<MessageBoxCache.CachedMessage> getNewestMessages(Connection conn, User owner, MessageBoxCache.Box box,
+                                                                 int count) throws SQLException {
+        boolean isOutbox = box == MessageBoxCache.Box.OUTBOX;
+        String querySQL = isOutbox ? OUTBOX_FIRST_PAGE_SQL : INBOX_FIRST_PAGE_SQL;
+
+        return readMessages(conn, querySQL, owner, isOutbox, null, count);
+    }
+
+    // Messages and the users on the other side of them in one round trip, the owner is resolved by the subquery
+    // Pages are read with keyset pagination: a page starts right after the (time, message_id) of the previous one,
+    // so with the (owner column, time, message_id) indexes of SchemaMigrator every page costs the same, however deep it is
+    // The page is cut in the inner query, so bodies and users are only joined for the rows that are returned
+    // A removed user that still has messages is shown as the user that replaced it, see UsersTable.removeUser
+    private static String messagePageQuery(String ownerColumn, String otherUserColumn, boolean isAfterCursor) {
+        return """
+        SELECT p.message_id, b.title, b.content, p.time, u.user_id, u.username, u.name, u.surname,
+               u.birthdate, u.gender, u.email, u.location, u.is_admin
+        FROM (SELECT m.message_id, m.body_id, m.time, m.%s AS other_user_id
+              FROM messages m
+              WHERE m.%s = (SELECT user_id FROM users WHERE username = ?)
+              %s
+              ORDER BY m.time DESC, m.message_id DESC
+              LIMIT ?) p
+        JOIN message_bodies b ON b.body_id = p.body_id
+        JOIN users o ON o.user_id = p.other_user_id
+        JOIN users u ON u.user_id = COALESCE(o.replaced_by, o.user_id)
+        ORDER BY p.time DESC, p.message_id DESC
+        """.formatted(otherUserColumn, ownerColumn,
+                isAfterCursor ? "AND (m.time, m.message_id) < (?, ?)" : "");
+    }
+
+    // Reads one page, and one row more to know whether there is a next page
+    private MessagePage getMessagePage(Connection conn, String querySQL, User owner, boolean isOutbox,
+                                       MessageCursor cursor, int pageSize) throws SQLException {
+        List<MessageBoxCache.CachedMessage> rows = readMessages(conn, querySQL, owner, isOutbox, cursor, pageSize + 1);
+
+        ArrayList<Message> messages = new ArrayList<>(pageSize);
+        for (int i = 0; i < pageSize && i < rows.size(); i++) {
+            messages.add(rows.get(i).getMessage());
         }
 
-        rs.close();
-        queryStmt.close();
+        boolean hasNextPage = rows.size() > pageSize;
+        String nextCursor = hasNextPage ? rows.get(pageSize - 1).getPosition().encode() : null;
 
-        return messages;
+        return new MessagePage(messages, nextCursor);
     }
-    public ArrayList<Message> getOutboxOfUser(User sender) throws SQLException {
-        int senderID = usersTable.getUserID(sender);
 
-        // Select all columns where sender_id = senderID
-        String querySQL = "SELECT * FROM messages WHERE sender_id = ? ORDER BY time DESC LIMIT 5";
-        PreparedStatement queryStmt = conn.prepareStatement(querySQL);
+    // Runs an inbox/outbox query whose rows hold a message and the user on the other side of it
+    // 'owner' is the user whose box is fetched, isOutbox tells whether the owner is the sender
+    private List<MessageBoxCache.CachedMessage> readMessages(Connection conn, String querySQL, User owner, boolean isOutbox,
+                                                             MessageCursor cursor, int limit) throws SQLException {
+        PreparedStatement queryStmt = pool.prepareStatement(conn, querySQL);
 
-        queryStmt.setInt(1, senderID);
+        int parameterIndex = 1;
+        queryStmt.setString(parameterIndex++, owner.getUsername());
+
+        if (cursor != null) {
+            queryStmt.setTimestamp(parameterIndex++, cursor.getTime());
+            queryStmt.setInt(parameterIndex++, cursor.getMessageID());
+        }
+
+        queryStmt.setInt(parameterIndex, limit);
 
         // Executes the query
         // Stores the result in a ResultSet — which acts like a table in memory that you can loop through
         ResultSet rs = queryStmt.executeQuery();
 
-        ArrayList<Message> messages = new ArrayList<>();
+        List<MessageBoxCache.CachedMessage> messages = new ArrayList<>();
+
+        // Each distinct user is built once, even if they appear in every row
+        Map<Integer, User> usersByID = new HashMap<>();
 
         // Loops through the ResultSet one row at a time.
         // rs.next() moves the cursor to the next row and returns true if there is one.
         while (rs.next()) {
-            int receiverID = rs.getInt("receiver_id");
-            User receiver = usersTable.getUserWithID(receiverID);
+            int otherUserID = rs.getInt("user_id");
+            User otherUser = usersByID.get(otherUserID);
+
+            if (otherUser == null) {
+                otherUser = usersTable.buildUserFromResultSet(rs);
+                usersByID.put(otherUserID, otherUser);
+            }
 
             String title = rs.getString("title");
             String content = rs.getString("content");
             Timestamp time = rs.getTimestamp("time");
 
-            // Create and return a new model.Message object with fetched data
-            messages.add(new Message(sender, receiver, title, content, time));
+            // Create a new model.Message object with fetched data
+            Message message = isOutbox ? new Message(owner, otherUser, title, content, time)
+                                       : new Message(otherUser, owner, title, content, time);
+
+            messages.add(new MessageBoxCache.CachedMessage(message, new MessageCursor(time, rs.getInt("message_id"))));
         }
 
         rs.close();
-        queryStmt.close();
 
         return messages;
     }
 
-    public static void updateSenderId(Connection conn, int oldSenderId, int newSenderId) throws SQLException {
-        String updateSenderSQL = "UPDATE messages SET sender_id = ? WHERE sender_id = ?";
-        PreparedStatement updateSenderStmt = conn.prepareStatement(updateSenderSQL);
+    // Moves up to 'limit' of the messages sent (isSender) or received by one user to another, in one statement
+    // Returns how many were moved, less than the limit once there are none left
+    public int reassignMessages(Connection conn, int fromUserID, int toUserID, boolean isSender,
+                                int limit) throws SQLException {
+        String updateSQL = isSender ? REASSIGN_SENT_SQL : REASSIGN_RECEIVED_SQL;
+        PreparedStatement updateStmt = pool.prepareStatement(conn, updateSQL);
 
-        updateSenderStmt.setInt(1, newSenderId);
-        updateSenderStmt.setInt(2, oldSenderId);
+        updateStmt.setInt(1, toUserID);
+        updateStmt.setInt(2, fromUserID);
+        updateStmt.setInt(3, limit);
 
-        updateSenderStmt.executeUpdate();
-
-        updateSenderStmt.close();
+        return updateStmt.executeUpdate();
     }
 
-    public static void updateReceiverId(Connection conn, int oldReceiverId, int newReceiverId) throws SQLException {
-        String updateReceiverSQL = "UPDATE messages SET receiver_id = ? WHERE receiver_id = ?";
-        PreparedStatement updateReceiverStmt = conn.prepareStatement(updateReceiverSQL);
-
-        updateReceiverStmt.setInt(1, newReceiverId);
-        updateReceiverStmt.setInt(2, oldReceiverId);
-
-        updateReceiverStmt.executeUpdate();
-
-        updateReceiverStmt.close();
+    // The rows are found through the (sender_id, ...) and (receiver_id, ...) indexes of SchemaMigrator
+    private static String reassignQuery(String userColumn) {
+        return """
+        UPDATE messages SET %s = ?
+        WHERE message_id IN (SELECT message_id FROM messages WHERE %s = ? LIMIT ?)
+        """.formatted(userColumn, userColumn);
     }
-
-
 }
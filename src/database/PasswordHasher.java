@@ -0,0 +1,109 @@
+package database;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.regex.Pattern;
+
+// Salted PBKDF2 hashes of passwords, stored as "pbkdf2-sha256$<iterations>$<salt>$<hash>" with a Base64 salt and hash
+// The iteration count is kept in each hash, so it can be raised later: older hashes still verify, and needsRehash
+// tells the caller to replace them once the password is known again, at the next login
+// Passwords stored before hashing was introduced are plain text; they verify the same way and always need a rehash
+public class PasswordHasher {
+    private static final String ALGORITHM = "PBKDF2WithHmacSHA256";
+    private static final String PREFIX = "pbkdf2-sha256";
+    private static final String SEPARATOR = "$";
+
+    private static final int SALT_BYTES = 16;
+    private static final int HASH_BITS = 256;
+
+    private static final SecureRandom random = new SecureRandom();
+
+    private final int iterations;
+
+    // iterations: the work factor of new hashes, every check of a password costs about that many HMACs
+    public PasswordHasher(int iterations) {
+        this.iterations = iterations;
+    }
+
+    public int getIterations() {
+        return iterations;
+    }
+
+    public String hash(String password) {
+        byte[] salt = new byte[SALT_BYTES];
+        random.nextBytes(salt);
+
+        byte[] hash = derive(password, salt, iterations);
+
+        return PREFIX + SEPARATOR + iterations + SEPARATOR +
+                Base64.getEncoder().encodeToString(salt) + SEPARATOR + Base64.getEncoder().encodeToString(hash);
+    }
+
+    // Compares in constant time, so the time taken does not tell how much of the password was right
+    public boolean verify(String password, String storedHash) {
+        if (password == null || storedHash == null) {
+            return false;
+        }
+
+        if (!isHashed(storedHash)) {
+            return MessageDigest.isEqual(password.getBytes(StandardCharsets.UTF_8),
+                    storedHash.getBytes(StandardCharsets.UTF_8));
+        }
+
+        String[] parts = storedHash.split(Pattern.quote(SEPARATOR));
+        if (parts.length != 4) {
+            return false;
+        }
+
+        try {
+            int storedIterations = Integer.parseInt(parts[1]);
+            byte[] salt = Base64.getDecoder().decode(parts[2]);
+            byte[] expectedHash = Base64.getDecoder().decode(parts[3]);
+
+            if (storedIterations < 1) {
+                return false;
+            }
+
+            return MessageDigest.isEqual(derive(password, salt, storedIterations), expectedHash);
+        } catch (IllegalArgumentException e) { // Also covers NumberFormatException
+            return false;
+        }
+    }
+
+    // Whether the stored hash is plain text or weaker than the hashes made now
+    public boolean needsRehash(String storedHash) {
+        if (!isHashed(storedHash)) {
+            return true;
+        }
+
+        String[] parts = storedHash.split(Pattern.quote(SEPARATOR));
+
+        try {
+            return parts.length != 4 || Integer.parseInt(parts[1]) < iterations;
+        } catch (NumberFormatException e) {
+            return true;
+        }
+    }
+
+    private static boolean isHashed(String storedHash) {
+        return storedHash.startsWith(PREFIX + SEPARATOR);
+    }
+
+    private static byte[] derive(String password, byte[] salt, int iterations) {
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, HASH_BITS);
+
+        try {
+            return SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec).getEncoded();
+        } catch (GeneralSecurityException e) {
+            // Every JDK has PBKDF2WithHmacSHA256
+            throw new IllegalStateException(ALGORITHM + " is not available.", e);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+}
@@ -0,0 +1,303 @@
+package database;
+
+import logging.Logger;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Hashes and checks passwords on a few dedicated threads, so that a burst of logins uses at most 'threadCount' cores
+// and the other requests keep the rest; the request thread waits for the result without using CPU
+// Checks beyond what the queue holds are refused at once instead of piling up behind the slow hashes
+// A successful check is remembered for its session: logging in again on the same connection with the same password
+// skips the hash, until the stored hash changes or the entry expires
+public class PasswordVerifier {
+    private static final Logger log = Logger.getLogger(PasswordVerifier.class);
+
+    private static final String CACHE_MAC_ALGORITHM = "HmacSHA256";
+    private static final long CLOSE_TIMEOUT_MILLIS = 5000;
+
+    // Result of a check; upgradedHash is set when the password matched a plain text or weaker hash,
+    // and should be stored in place of it
+    public static class Verification {
+        private static final Verification MISMATCH = new Verification(false, null);
+
+        private final boolean isMatch;
+        private final String upgradedHash;
+
+        private Verification(boolean isMatch, String upgradedHash) {
+            this.isMatch = isMatch;
+            this.upgradedHash = upgradedHash;
+        }
+
+        public boolean isMatch() {
+            return isMatch;
+        }
+
+        public String getUpgradedHash() {
+            return upgradedHash;
+        }
+    }
+
+    // A successful check, only valid while the user's stored hash is the one it was checked against
+    private static class VerifiedLogin {
+        private final String username;
+        private final String storedHash;
+        private final byte[] passwordMac; // Keyed with cacheKey, the password itself is not kept
+        private final long expiresAtMillis;
+
+        private VerifiedLogin(String username, String storedHash, byte[] passwordMac, long expiresAtMillis) {
+            this.username = username;
+            this.storedHash = storedHash;
+            this.passwordMac = passwordMac;
+            this.expiresAtMillis = expiresAtMillis;
+        }
+
+        private boolean matches(String username, String storedHash, byte[] passwordMac) {
+            return System.currentTimeMillis() < expiresAtMillis && this.username.equals(username) &&
+                    this.storedHash.equals(storedHash) && MessageDigest.isEqual(this.passwordMac, passwordMac);
+        }
+    }
+
+    private final PasswordHasher hasher;
+    private final ThreadPoolExecutor executor;
+    private final int threadCount;
+    private final long waitTimeoutMillis;
+
+    private final Map<Long, VerifiedLogin> verifiedLogins = new ConcurrentHashMap<>(); // By session
+    private final int maxCachedSessions;
+    private final long cacheTtlMillis;
+    private final SecretKeySpec cacheKey; // Random for each run of the server
+
+    private final AtomicLong hashCount = new AtomicLong();
+    private final AtomicLong cacheHitCount = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
+
+    // threadCount:       most passwords hashed at once, the cores a burst of logins may take
+    // queueCapacity:     checks waiting for a thread, more are refused
+    // waitTimeoutMillis: how long a request waits for its check before giving up
+    // maxCachedSessions: sessions whose successful check is remembered, for cacheTtlMillis each
+    public PasswordVerifier(PasswordHasher hasher, int threadCount, int queueCapacity, long waitTimeoutMillis,
+                            int maxCachedSessions, long cacheTtlMillis) {
+        this.hasher = hasher;
+        this.threadCount = threadCount;
+        this.waitTimeoutMillis = waitTimeoutMillis;
+        this.maxCachedSessions = maxCachedSessions;
+        this.cacheTtlMillis = cacheTtlMillis;
+
+        byte[] key = new byte[32];
+        new SecureRandom().nextBytes(key);
+        this.cacheKey = new SecretKeySpec(key, CACHE_MAC_ALGORITHM);
+
+        AtomicInteger threadNumber = new AtomicInteger(1);
+        this.executor = new ThreadPoolExecutor(threadCount, threadCount, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+                    Thread thread = new Thread(runnable, "password-verifier-" + threadNumber.getAndIncrement());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    // sessionID: identifies the connection the login came on
+    // storedHash: the user's password column, null if there is no such user
+    public Verification verify(long sessionID, String username, String password, String storedHash)
+            throws SQLException {
+        if (storedHash == null || password == null) {
+            return Verification.MISMATCH;
+        }
+
+        byte[] passwordMac = mac(password);
+
+        VerifiedLogin verifiedLogin = verifiedLogins.get(sessionID);
+        if (verifiedLogin != null && verifiedLogin.matches(username, storedHash, passwordMac)) {
+            cacheHitCount.incrementAndGet();
+            return new Verification(true, null);
+        }
+
+        Verification verification = runOnVerifier(() -> {
+            if (!hasher.verify(password, storedHash)) {
+                return Verification.MISMATCH;
+            }
+
+            return new Verification(true, hasher.needsRehash(storedHash) ? hasher.hash(password) : null);
+        });
+
+        if (verification.isMatch()) {
+            String currentHash = (verification.getUpgradedHash() != null) ? verification.getUpgradedHash() : storedHash;
+            remember(sessionID, new VerifiedLogin(username, currentHash, passwordMac,
+                    System.currentTimeMillis() + cacheTtlMillis));
+        }
+
+        return verification;
+    }
+
+    public String hash(String password) throws SQLException {
+        return runOnVerifier(() -> hasher.hash(password));
+    }
+
+    // Hashes 'threadCount' passwords at a time, so a long list never fills the queue
+    public List<String> hashAll(List<String> passwords) throws SQLException {
+        List<String> hashes = new ArrayList<>(passwords.size());
+
+        for (int start = 0; start < passwords.size(); start += threadCount) {
+            List<Future<String>> futures = new ArrayList<>(threadCount);
+
+            for (int i = start; i < start + threadCount && i < passwords.size(); i++) {
+                String password = passwords.get(i);
+                futures.add(submit(() -> hasher.hash(password)));
+            }
+
+            for (Future<String> future : futures) {
+                hashes.add(await(future));
+            }
+        }
+
+        return hashes;
+    }
+
+    // Called when the connection closes, its check cannot be reused anymore
+    public void forgetSession(long sessionID) {
+        verifiedLogins.remove(sessionID);
+    }
+
+    private void remember(long sessionID, VerifiedLogin verifiedLogin) {
+        if (verifiedLogins.size() >= maxCachedSessions && !verifiedLogins.containsKey(sessionID)) {
+            removeExpired();
+
+            // Still full of live sessions, this one just hashes again next time
+            if (verifiedLogins.size() >= maxCachedSessions) {
+                return;
+            }
+        }
+
+        verifiedLogins.put(sessionID, verifiedLogin);
+    }
+
+    private void removeExpired() {
+        long now = System.currentTimeMillis();
+
+        Iterator<VerifiedLogin> iterator = verifiedLogins.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().expiresAtMillis <= now) {
+                iterator.remove();
+            }
+        }
+    }
+
+    private byte[] mac(String password) {
+        try {
+            Mac mac = Mac.getInstance(CACHE_MAC_ALGORITHM);
+            mac.init(cacheKey);
+            return mac.doFinal(password.getBytes(StandardCharsets.UTF_8));
+        } catch (GeneralSecurityException e) {
+            // Every JDK has HmacSHA256
+            throw new IllegalStateException(CACHE_MAC_ALGORITHM + " is not available.", e);
+        }
+    }
+
+    private <T> T runOnVerifier(Callable<T> task) throws SQLException {
+        return await(submit(task));
+    }
+
+    private <T> Future<T> submit(Callable<T> task) throws SQLException {
+        try {
+            return executor.submit(() -> {
+                hashCount.incrementAndGet();
+                return task.call();
+            });
+        } catch (RejectedExecutionException e) {
+            rejectedCount.incrementAndGet();
+            throw new SQLException("Password verification is busy, " + executor.getQueue().size() + " checks are waiting.");
+        }
+    }
+
+    private <T> T await(Future<T> future) throws SQLException {
+        try {
+            return future.get(waitTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            throw new SQLException("Password verification timed out after " + waitTimeoutMillis + " ms.");
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while verifying the password.", e);
+        } catch (ExecutionException e) {
+            throw new SQLException("Password could not be verified.", e.getCause());
+        }
+    }
+
+    // Lets the queued checks finish, for a short while
+    public void close() {
+        executor.shutdown();
+
+        try {
+            if (!executor.awaitTermination(CLOSE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                log.warn("Password verifier did not finish in time.", "queued", executor.getQueue().size());
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public int getIterations() {
+        return hasher.getIterations();
+    }
+
+    public int getThreadCount() {
+        return threadCount;
+    }
+
+    public int getQueuedCount() {
+        return executor.getQueue().size();
+    }
+
+    public int getCachedSessionCount() {
+        return verifiedLogins.size();
+    }
+
+    public long getHashCount() {
+        return hashCount.get();
+    }
+
+    public long getCacheHitCount() {
+        return cacheHitCount.get();
+    }
+
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    @Override
+    public String toString() {
+        return "PasswordVerifier{" +
+                "iterations=" + getIterations() +
+                ", threads=" + threadCount +
+                ", queued=" + getQueuedCount() +
+                ", cachedSessions=" + getCachedSessionCount() +
+                ", hashes=" + getHashCount() +
+                ", cacheHits=" + getCacheHitCount() +
+                ", rejected=" + getRejectedCount() +
+                '}';
+    }
+}
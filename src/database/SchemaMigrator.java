@@ -0,0 +1,187 @@
+package database;
+
+import logging.Logger;
+
+import java.sql.*;
+
+/*
+    'schema_version' table in PostgreSQL, one row per applied migration
+
+    CREATE TABLE schema_version (
+        version INTEGER PRIMARY KEY,
+        description TEXT NOT NULL,
+        applied_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP
+    );
+ */
+
+// Applies the schema changes made after the tables that UsersTable and MessagesTable create
+// Runs at DB startup, each migration is applied once, in its own transaction, and recorded in 'schema_version'
+public class SchemaMigrator {
+    private static final Logger log = Logger.getLogger(SchemaMigrator.class);
+
+    // Key of the advisory lock held while migrating, so that servers starting together do not apply a migration twice
+    private static final long MIGRATION_LOCK_KEY = 7_310_001L;
+
+    // A numbered list of statements that move the schema one version forward
+    private static class Migration {
+        private final int version;
+        private final String description;
+        private final String[] statements;
+
+        private Migration(int version, String description, String... statements) {
+            this.version = version;
+            this.description = description;
+            this.statements = statements;
+        }
+    }
+
+    // New migrations go at the end with the next version, a migration that has been released must not be edited
+    private static final Migration[] MIGRATIONS = {
+            new Migration(1, "Index messages by owner and time for inbox and outbox pages",
+                    "CREATE INDEX IF NOT EXISTS messages_receiver_time_idx ON messages (receiver_id, time DESC, message_id DESC)",
+                    "CREATE INDEX IF NOT EXISTS messages_sender_time_idx ON messages (sender_id, time DESC, message_id DESC)"),
+            new Migration(2, "Store each distinct message body once and reference it from the messages",
+                    """
+                    CREATE TABLE message_bodies (
+                        body_id SERIAL PRIMARY KEY,
+                        body_hash TEXT NOT NULL UNIQUE,
+                        title TEXT NOT NULL,
+                        content TEXT NOT NULL
+                    )
+                    """,
+                    // Same hash as MessagesTable.bodyHash, as long as the database encoding is UTF8
+                    """
+                    INSERT INTO message_bodies (body_hash, title, content)
+                    SELECT DISTINCT ON (hash) hash, title, content
+                    FROM (SELECT encode(sha256(convert_to(octet_length(title)::text || ':' || title || content, 'UTF8')), 'hex') AS hash,
+                                 title, content
+                          FROM messages) AS bodies
+                    """,
+                    "ALTER TABLE messages ADD COLUMN body_id INTEGER REFERENCES message_bodies(body_id)",
+                    """
+                    UPDATE messages m SET body_id = b.body_id
+                    FROM message_bodies b
+                    WHERE b.body_hash = encode(sha256(convert_to(octet_length(m.title)::text || ':' || m.title || m.content, 'UTF8')), 'hex')
+                    """,
+                    "ALTER TABLE messages ALTER COLUMN body_id SET NOT NULL",
+                    "ALTER TABLE messages DROP COLUMN title, DROP COLUMN content"),
+            new Migration(3, "Tombstone removed users until their messages are reassigned",
+                    "ALTER TABLE users ADD COLUMN replaced_by INTEGER REFERENCES users(user_id)"),
+            new Migration(4, "Index users for prefix search in the user directory",
+                    "CREATE INDEX IF NOT EXISTS users_username_prefix_idx ON users (lower(username) text_pattern_ops) WHERE replaced_by IS NULL",
+                    "CREATE INDEX IF NOT EXISTS users_name_prefix_idx ON users (lower(name) text_pattern_ops) WHERE replaced_by IS NULL",
+                    "CREATE INDEX IF NOT EXISTS users_email_prefix_idx ON users (lower(email) text_pattern_ops) WHERE replaced_by IS NULL")
+    };
+
+    public static int getLatestVersion() {
+        return MIGRATIONS[MIGRATIONS.length - 1].version;
+    }
+
+    // Brings the schema up to the latest version, returns the version it is at afterwards
+    public static int migrate(Connection conn) throws SQLException {
+        String createTableSQL = """
+        CREATE TABLE IF NOT EXISTS schema_version (
+            version INTEGER PRIMARY KEY,
+            description TEXT NOT NULL,
+            applied_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP
+        );
+        """;
+
+        boolean autoCommit = conn.getAutoCommit();
+        conn.setAutoCommit(false);
+
+        try {
+            // Under the lock too, two servers creating the table at the same time would make one of them fail
+            lock(conn);
+
+            Statement stmt = conn.createStatement();
+            stmt.execute(createTableSQL);
+            stmt.close();
+
+            conn.commit();
+
+            for (Migration migration : MIGRATIONS) {
+                apply(conn, migration);
+            }
+        } catch (SQLException e) {
+            conn.rollback(); // Leave no failed transaction behind on the connection
+            throw e;
+        } finally {
+            conn.setAutoCommit(autoCommit);
+        }
+
+        int currentVersion = getCurrentVersion(conn);
+
+        if (currentVersion > getLatestVersion()) {
+            log.warn("Schema is newer than this server knows.", "version", currentVersion, "latestKnown", getLatestVersion());
+        } else {
+            log.info("Schema is up to date.", "version", currentVersion);
+        }
+
+        return currentVersion;
+    }
+
+    private static void apply(Connection conn, Migration migration) throws SQLException {
+        try {
+            lock(conn);
+
+            // Checked under the lock, another server may have applied it while this one was waiting
+            if (isApplied(conn, migration.version)) {
+                conn.commit();
+                return;
+            }
+
+            Statement stmt = conn.createStatement();
+            for (String sql : migration.statements) {
+                stmt.execute(sql);
+            }
+            stmt.close();
+
+            PreparedStatement insertStmt = conn.prepareStatement(
+                    "INSERT INTO schema_version (version, description) VALUES (?, ?)");
+            insertStmt.setInt(1, migration.version);
+            insertStmt.setString(2, migration.description);
+            insertStmt.executeUpdate();
+            insertStmt.close();
+
+            conn.commit();
+
+            log.info("Applied schema migration.", "version", migration.version, "description", migration.description);
+        } catch (SQLException e) {
+            throw new SQLException("Schema migration " + migration.version + " failed: " + e.getMessage(), e);
+        }
+    }
+
+    // Held until the end of the current transaction
+    private static void lock(Connection conn) throws SQLException {
+        PreparedStatement lockStmt = conn.prepareStatement("SELECT pg_advisory_xact_lock(?)");
+        lockStmt.setLong(1, MIGRATION_LOCK_KEY);
+        lockStmt.executeQuery().close();
+        lockStmt.close();
+    }
+
+    private static boolean isApplied(Connection conn, int version) throws SQLException {
+        PreparedStatement queryStmt = conn.prepareStatement("SELECT 1 FROM schema_version WHERE version = ?");
+        queryStmt.setInt(1, version);
+
+        ResultSet rs = queryStmt.executeQuery();
+        boolean isApplied = rs.next();
+
+        rs.close();
+        queryStmt.close();
+
+        return isApplied;
+    }
+
+    private static int getCurrentVersion(Connection conn) throws SQLException {
+        Statement stmt = conn.createStatement();
+        ResultSet rs = stmt.executeQuery("SELECT COALESCE(MAX(version), 0) FROM schema_version");
+
+        int currentVersion = rs.next() ? rs.getInt(1) : 0;
+
+        rs.close();
+        stmt.close();
+
+        return currentVersion;
+    }
+}
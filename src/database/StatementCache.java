@@ -0,0 +1,92 @@
+package database;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Prepared statements of one pooled connection, keyed by their SQL text and evicted in LRU order
+// Not thread-safe: a connection, and so its cache, is only used by the thread that borrowed it
+class StatementCache {
+    private final Connection conn;
+    private final Map<String, PreparedStatement> statements;
+
+    // Shared by all caches of the pool
+    private final AtomicLong hitCount;
+    private final AtomicLong missCount;
+    private final AtomicLong evictionCount;
+
+    StatementCache(Connection conn, int maxSize, AtomicLong hitCount, AtomicLong missCount, AtomicLong evictionCount) {
+        this.conn = conn;
+        this.hitCount = hitCount;
+        this.missCount = missCount;
+        this.evictionCount = evictionCount;
+
+        // accessOrder = true makes iteration order least recently used first
+        this.statements = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                if (size() <= maxSize) {
+                    return false;
+                }
+
+                closeQuietly(eldest.getValue());
+                evictionCount.incrementAndGet();
+                return true;
+            }
+        };
+    }
+
+    // Returns the cached statement for the SQL, preparing it on a miss
+    // The caller must not close the returned statement
+    PreparedStatement prepare(String sql) throws SQLException {
+        PreparedStatement stmt = statements.get(sql);
+
+        if (stmt != null && !stmt.isClosed()) {
+            hitCount.incrementAndGet();
+            stmt.clearParameters();
+            return stmt;
+        }
+
+        missCount.incrementAndGet();
+        stmt = conn.prepareStatement(sql);
+        statements.put(sql, stmt);
+
+        return stmt;
+    }
+
+    // Same as prepare, for a statement whose getGeneratedKeys returns the given columns
+    PreparedStatement prepareReturningKeys(String sql, String[] keyColumns) throws SQLException {
+        // Not the SQL alone, the same text prepared without keys is a different statement
+        String cacheKey = String.join(",", keyColumns) + " <- " + sql;
+        PreparedStatement stmt = statements.get(cacheKey);
+
+        if (stmt != null && !stmt.isClosed()) {
+            hitCount.incrementAndGet();
+            stmt.clearParameters();
+            return stmt;
+        }
+
+        missCount.incrementAndGet();
+        stmt = conn.prepareStatement(sql, keyColumns);
+        statements.put(cacheKey, stmt);
+
+        return stmt;
+    }
+
+    void close() {
+        for (PreparedStatement stmt : statements.values()) {
+            closeQuietly(stmt);
+        }
+        statements.clear();
+    }
+
+    private static void closeQuietly(PreparedStatement stmt) {
+        try {
+            stmt.close();
+        } catch (SQLException ignored) {
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package database;
+
+import model.User;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Bounded cache of rows of the 'users' table, keyed by username
+// Entries are dropped by UsersTable whenever a user is inserted, updated or removed
+public class UserCache {
+    // How many entries are compared to pick the one to evict, approximates LRU without a global lock
+    private static final int EVICTION_SAMPLE_SIZE = 8;
+
+    // A cached user together with its user_id
+    public static class CachedUser {
+        private final User user;
+        private final int userID;
+        private final long expiresAt;
+        private volatile long lastAccess;
+
+        private CachedUser(User user, int userID, long expiresAt) {
+            this.user = user;
+            this.userID = userID;
+            this.expiresAt = expiresAt;
+            this.lastAccess = System.nanoTime();
+        }
+
+        public User getUser() {
+            return user;
+        }
+
+        public int getUserID() {
+            return userID;
+        }
+    }
+
+    private final int maxSize;
+    private final long ttlMillis;
+
+    private final Map<String, CachedUser> byUsername = new ConcurrentHashMap<>();
+
+    // Incremented by every invalidation, a load that started before it must not fill the cache with the old row
+    private final AtomicLong generation = new AtomicLong();
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    public UserCache(int maxSize, long ttlMillis) {
+        this.maxSize = maxSize;
+        this.ttlMillis = ttlMillis;
+    }
+
+    public CachedUser getByUsername(String username) {
+        CachedUser cached = (username == null) ? null : byUsername.get(username);
+
+        if (cached == null || isExpired(cached)) {
+            if (cached != null) {
+                remove(username, cached);
+            }
+            missCount.incrementAndGet();
+            return null;
+        }
+
+        cached.lastAccess = System.nanoTime();
+        hitCount.incrementAndGet();
+        return cached;
+    }
+
+    // Read before querying the database and passed to put, see 'generation'
+    public long getGeneration() {
+        return generation.get();
+    }
+
+    // Returns the entry for the loaded row, whether or not it could be cached
+    public CachedUser put(User user, int userID, long generationAtLoad) {
+        CachedUser cached = new CachedUser(user, userID, System.currentTimeMillis() + ttlMillis);
+
+        if (maxSize <= 0 || generation.get() != generationAtLoad) {
+            return cached;
+        }
+
+        if (byUsername.size() >= maxSize) {
+            evictOne();
+        }
+
+        byUsername.put(user.getUsername(), cached);
+
+        // An invalidation may have run between the check above and the put
+        if (generation.get() != generationAtLoad) {
+            invalidate(user.getUsername());
+        }
+
+        return cached;
+    }
+
+    public void invalidate(String username) {
+        generation.incrementAndGet();
+
+        if (username == null) {
+            return;
+        }
+
+        byUsername.remove(username);
+    }
+
+    public void clear() {
+        generation.incrementAndGet();
+        byUsername.clear();
+    }
+
+    private boolean isExpired(CachedUser cached) {
+        return System.currentTimeMillis() > cached.expiresAt;
+    }
+
+    private void remove(String username, CachedUser cached) {
+        byUsername.remove(username, cached);
+    }
+
+    // Evicts the least recently used of a few entries
+    private void evictOne() {
+        Iterator<Map.Entry<String, CachedUser>> entries = byUsername.entrySet().iterator();
+        Map.Entry<String, CachedUser> victim = null;
+
+        for (int i = 0; i < EVICTION_SAMPLE_SIZE && entries.hasNext(); i++) {
+            Map.Entry<String, CachedUser> entry = entries.next();
+
+            if (victim == null || entry.getValue().lastAccess < victim.getValue().lastAccess) {
+                victim = entry;
+            }
+        }
+
+        if (victim != null) {
+            remove(victim.getKey(), victim.getValue());
+            evictionCount.incrementAndGet();
+        }
+    }
+
+    public int getSize() {
+        return byUsername.size();
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    public double getHitRate() {
+        long hits = hitCount.get();
+        long total = hits + missCount.get();
+        return total == 0 ? 0.0 : (double) hits / total;
+    }
+
+    @Override
+    public String toString() {
+        return "UserCache{" +
+                "size=" + getSize() +
+                ", maxSize=" + maxSize +
+                ", hits=" + getHitCount() +
+                ", misses=" + getMissCount() +
+                ", evictions=" + getEvictionCount() +
+                ", hitRate=" + String.format("%.3f", getHitRate()) +
+                '}';
+    }
+}
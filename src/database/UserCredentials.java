@@ -0,0 +1,23 @@
+package database;
+
+import model.User;
+
+// A user together with their stored password hash, as read by the login query
+// Kept apart from User so that the hash never reaches the caches or a response
+public class UserCredentials {
+    private final User user;
+    private final String passwordHash; // Plain text for rows written before hashing, see PasswordHasher
+
+    public UserCredentials(User user, String passwordHash) {
+        this.user = user;
+        this.passwordHash = passwordHash;
+    }
+
+    public User getUser() {
+        return user;
+    }
+
+    public String getPasswordHash() {
+        return passwordHash;
+    }
+}
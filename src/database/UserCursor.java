@@ -0,0 +1,42 @@
+package database;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+// Position in the user directory: the username of the last user of a page, users are listed by username
+// Clients get it as an opaque token and send it back to fetch the users that come after it
+public class UserCursor {
+    private final String username;
+
+    public UserCursor(String username) {
+        this.username = username;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    // The standard Base64 alphabet has no '_', so the token can never contain one of the protocol delimiters
+    public String encode() {
+        return Base64.getEncoder().withoutPadding().encodeToString(username.getBytes(StandardCharsets.UTF_8));
+    }
+
+    // Returns null if the token was not made by encode()
+    public static UserCursor decode(String token) {
+        if (token == null || token.isEmpty()) {
+            return null;
+        }
+
+        try {
+            String username = new String(Base64.getDecoder().decode(token), StandardCharsets.UTF_8);
+
+            if (username.isEmpty()) {
+                return null;
+            }
+
+            return new UserCursor(username);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
@@ -1,9 +1,16 @@
 package database;
 
+import logging.Logger;
 import model.User;
+import model.UserPage;
 
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
 
 /*
 
@@ -21,16 +28,45 @@ import java.util.ArrayList;
         location TEXT,
         is_admin BOOLEAN
     );
+
+    SchemaMigrator adds 'replaced_by INTEGER REFERENCES users(user_id)', set on removed users, see removeUser
  */
 
 public class UsersTable {
-    private final Connection conn;
+    private static final Logger log = Logger.getLogger(UsersTable.class);
+
+    private final ConnectionPool pool; // Provides the cached prepared statements of each connection
+    private final UserCache userCache;
+    private final PasswordHasher passwordHasher; // Only for the passwords of the built-in users
+
     private static final String DELETED_USERNAME = "deleted_user";
     private static final String ADMIN_USERNAME = "admin_user";
 
-    public UsersTable(Connection conn) throws SQLException {
-        this.conn = conn;
-        initializeUsersTable();
+    private static final String FOREIGN_KEY_VIOLATION = "23503"; // SQLSTATE of PostgreSQL
+
+    // Users per page of the directory when the client does not ask for a page size, and the most it may ask for
+    private static final int DEFAULT_PAGE_SIZE = 20;
+    private static final int MAX_PAGE_SIZE = 500;
+
+    // User fields a LIST_USERS request may pick, with their columns; username and isAdmin are always returned
+    private static final Map<String, String> PROJECTABLE_COLUMNS = new LinkedHashMap<>();
+
+    static {
+        PROJECTABLE_COLUMNS.put("name", "name");
+        PROJECTABLE_COLUMNS.put("surname", "surname");
+        PROJECTABLE_COLUMNS.put("birthdate", "birthdate");
+        PROJECTABLE_COLUMNS.put("gender", "gender");
+        PROJECTABLE_COLUMNS.put("email", "email");
+        PROJECTABLE_COLUMNS.put("location", "location");
+    }
+
+    // The connection is only used for initialization, every other method is given a connection borrowed by DB
+    public UsersTable(ConnectionPool pool, UserCache userCache, PasswordHasher passwordHasher, Connection conn)
+            throws SQLException {
+        this.pool = pool;
+        this.userCache = userCache;
+        this.passwordHasher = passwordHasher;
+        initializeUsersTable(conn);
     }
 
     public static String getDeletedUsername() {
@@ -41,7 +77,19 @@ public class UsersTable {
         return ADMIN_USERNAME;
     }
 
-    private void initializeUsersTable() throws SQLException {
+    public static int getDefaultPageSize() {
+        return DEFAULT_PAGE_SIZE;
+    }
+
+    public static int getMaxPageSize() {
+        return MAX_PAGE_SIZE;
+    }
+
+    public static boolean isProjectableField(String field) {
+        return PROJECTABLE_COLUMNS.containsKey(field);
+    }
+
+    private void initializeUsersTable(Connection conn) throws SQLException {
         // Create the users table if it doesn't exist
         String createTableSQL = """
         CREATE TABLE IF NOT EXISTS users (
@@ -63,7 +111,7 @@ public class UsersTable {
         stmt.close();
 
         // Insert dummy user if not already present
-        boolean dummyExists = doesUserExist(DELETED_USERNAME);
+        boolean dummyExists = doesUserExist(conn, DELETED_USERNAME);
 
         if (!dummyExists) {
             User dummyUser = new User(DELETED_USERNAME, "deleted",
@@ -71,15 +119,15 @@ public class UsersTable {
                     "O", "deleted@example.com",
                     "deleted", false);
 
-            insertUser(dummyUser, "deleted");
+            insertUser(conn, dummyUser, passwordHasher.hash("deleted"));
 
-            System.out.println("Dummy user " + DELETED_USERNAME + " inserted.");
+            log.info("Dummy user inserted.", "user", DELETED_USERNAME);
         } else {
-            System.out.println("Dummy user " + DELETED_USERNAME + " already exists.");
+            log.debug("Dummy user already exists.", "user", DELETED_USERNAME);
         }
 
         // Insert admin user if not already present
-        boolean adminExists = doesUserExist(ADMIN_USERNAME);
+        boolean adminExists = doesUserExist(conn, ADMIN_USERNAME);
 
         if (!adminExists) {
             User adminUser = new User(ADMIN_USERNAME, "admin",
@@ -87,15 +135,16 @@ public class UsersTable {
                     "O", "admin@example.com",
                     "admin", true);
 
-            insertUser(adminUser, "admin");
+            insertUser(conn, adminUser, passwordHasher.hash("admin"));
 
-            System.out.println("Admin user " + ADMIN_USERNAME + " inserted.");
+            log.info("Admin user inserted.", "user", ADMIN_USERNAME);
         } else {
-            System.out.println("Admin user " + ADMIN_USERNAME + " already exists.");
+            log.debug("Admin user already exists.", "user", ADMIN_USERNAME);
         }
     }
 
-    private User buildUserFromResultSet(ResultSet rs) throws SQLException {
+    // Also used by MessagesTable for rows that join the users table
+    User buildUserFromResultSet(ResultSet rs) throws SQLException {
         String username = rs.getString("username");
         String name = rs.getString("name");
         String surname = rs.getString("surname");
@@ -108,34 +157,123 @@ public class UsersTable {
         return new User(username, name, surname, birthdate, gender, email, location, isAdmin);
     }
 
-    public ArrayList<User> getUsersList() throws  SQLException {
-        String querySQL = "SELECT * FROM users";
+    // fields: the user fields to return besides username and isAdmin, null for all of them
+    // searchPrefix: the beginning of the username, name or email of the users to list, ignoring case; null for all users
+    public UserPage getUsersPage(Connection conn, UserCursor cursor, int pageSize, String searchPrefix,
+                                 Set<String> fields) throws SQLException {
+        boolean hasSearch = searchPrefix != null && !searchPrefix.isEmpty();
 
-        // Creates a 'Statement object' using the `Connection` for direct SQL.
-        Statement queryStmt = conn.createStatement();
+        PreparedStatement queryStmt = pool.prepareStatement(conn, usersPageQuery(fields, hasSearch, cursor != null));
 
-        // Executes the query (SELECT * FROM users)
-        // Stores the result in a ResultSet — which acts like a table in memory that you can loop through
-        ResultSet rs = queryStmt.executeQuery(querySQL);
+        int parameterIndex = 1;
 
-        ArrayList<User> allUsers = new ArrayList<>();
+        if (hasSearch) {
+            String pattern = toPrefixPattern(searchPrefix);
+
+            queryStmt.setString(parameterIndex++, pattern);
+            queryStmt.setString(parameterIndex++, pattern);
+            queryStmt.setString(parameterIndex++, pattern);
+        }
+
+        if (cursor != null) {
+            queryStmt.setString(parameterIndex++, cursor.getUsername());
+        }
+
+        // One row more, to know whether there is a next page
+        queryStmt.setInt(parameterIndex, pageSize + 1);
+
+        ResultSet rs = queryStmt.executeQuery();
+
+        ArrayList<User> users = new ArrayList<>(pageSize);
+        boolean hasNextPage = false;
 
-        // Loops through the ResultSet one row at a time.
-        // rs.next() moves the cursor to the next row and returns true if there is one.
         while (rs.next()) {
-            allUsers.add(buildUserFromResultSet(rs));
+            if (users.size() == pageSize) {
+                hasNextPage = true;
+                break;
+            }
+
+            users.add(buildProjectedUserFromResultSet(rs, fields));
         }
 
         rs.close();
-        queryStmt.close();
 
-        return allUsers;
+        String nextCursor = hasNextPage ? new UserCursor(users.get(pageSize - 1).getUsername()).encode() : null;
+
+        return new UserPage(users, nextCursor);
+    }
+
+    // Users are listed by username and read with keyset pagination, like the message boxes: a page starts right after
+    // the username of the previous one, so the unique index on username serves every page at the same cost
+    // A search goes through the lower(...) text_pattern_ops indexes of SchemaMigrator, which serve LIKE 'prefix%'
+    // Only the columns of 'fields' are read, each projection maps to its own cached prepared statement
+    private static String usersPageQuery(Set<String> fields, boolean hasSearch, boolean isAfterCursor) {
+        StringBuilder columns = new StringBuilder("username, is_admin");
+
+        for (Map.Entry<String, String> projectable : PROJECTABLE_COLUMNS.entrySet()) {
+            if (fields == null || fields.contains(projectable.getKey())) {
+                columns.append(", ").append(projectable.getValue());
+            }
+        }
+
+        // Removed users are left out, their rows only stay until their messages are reassigned
+        // The dummy and admin users are not shown in the directory
+        return """
+        SELECT %s
+        FROM users
+        WHERE replaced_by IS NULL AND username NOT IN ('%s', '%s')
+        %s
+        %s
+        ORDER BY username
+        LIMIT ?
+        """.formatted(columns, DELETED_USERNAME, ADMIN_USERNAME,
+                hasSearch ? "AND (lower(username) LIKE ? ESCAPE '\\' OR lower(name) LIKE ? ESCAPE '\\' " +
+                            "OR lower(email) LIKE ? ESCAPE '\\')" : "",
+                isAfterCursor ? "AND username > ?" : "");
+    }
+
+    // The prefix as a LIKE pattern, with its own wildcards escaped
+    private static String toPrefixPattern(String prefix) {
+        String escaped = prefix.toLowerCase(Locale.ROOT)
+                .replace("\\", "\\\\")
+                .replace("%", "\\%")
+                .replace("_", "\\_");
+
+        return escaped + "%";
     }
 
-    public User getUserWithUsername(String username) throws SQLException {
+    // Fields left out of the projection are null
+    private static User buildProjectedUserFromResultSet(ResultSet rs, Set<String> fields) throws SQLException {
+        String birthdate = null;
+
+        if (fields == null || fields.contains("birthdate")) {
+            Date date = rs.getDate("birthdate");
+            birthdate = (date == null) ? null : date.toLocalDate().toString();
+        }
+
+        return new User(rs.getString("username"),
+                (fields == null || fields.contains("name")) ? rs.getString("name") : null,
+                (fields == null || fields.contains("surname")) ? rs.getString("surname") : null,
+                birthdate,
+                (fields == null || fields.contains("gender")) ? rs.getString("gender") : null,
+                (fields == null || fields.contains("email")) ? rs.getString("email") : null,
+                (fields == null || fields.contains("location")) ? rs.getString("location") : null,
+                rs.getBoolean("is_admin"));
+    }
+
+    // Looks the user up in the cache first, a miss loads the full row and caches it
+    private UserCache.CachedUser findUser(Connection conn, String username) throws SQLException {
+        UserCache.CachedUser cached = userCache.getByUsername(username);
+
+        if (cached != null) {
+            return cached;
+        }
+
+        long generation = userCache.getGeneration();
+
         // Select all columns where username = username
         String querySQL = "SELECT * FROM users WHERE username = ?";
-        PreparedStatement queryStmt = conn.prepareStatement(querySQL);
+        PreparedStatement queryStmt = pool.prepareStatement(conn, querySQL);
 
         queryStmt.setString(1, username);
 
@@ -145,24 +283,26 @@ public class UsersTable {
 
         // Look for the first row of the result set
         // rs.next() moves the cursor to the next row and returns true if there is one.
-
-        User user = null;
-
         if (rs.next()) {
-            // Create and return a new User object with fetched data
-            user =  buildUserFromResultSet(rs);
+            // Create a new User object with fetched data
+            cached = userCache.put(buildUserFromResultSet(rs), rs.getInt("user_id"), generation);
         }
 
         rs.close();
-        queryStmt.close();
 
-        return user;
+        return cached;
     }
 
-    public User getUserWithID(int userID) throws SQLException {
-        // Select all columns where username = username
-        String querySQL = "SELECT * FROM users WHERE user_id = ?";
-        PreparedStatement queryStmt = conn.prepareStatement(querySQL);
+    public User getUserWithUsername(Connection conn, String username) throws SQLException {
+        UserCache.CachedUser cached = findUser(conn, username);
+        return (cached == null) ? null : cached.getUser();
+    }
+
+    // Not cached, removed users keep their row without a username until MessageReassigner deletes it
+    public User getUserWithID(Connection conn, int userID) throws SQLException {
+        // Select all columns where user_id = userID, unless the user was removed
+        String querySQL = "SELECT * FROM users WHERE user_id = ? AND username IS NOT NULL";
+        PreparedStatement queryStmt = pool.prepareStatement(conn, querySQL);
 
         queryStmt.setInt(1, userID);
 
@@ -179,28 +319,28 @@ public class UsersTable {
             // Create and return a new User object with fetched data
             user =  buildUserFromResultSet(rs);
         } else {
-            System.out.println("No user found with ID: " + userID);
+            log.debug("No user found.", "userID", userID);
         }
 
         rs.close();
-        queryStmt.close();
 
         return user;
     }
 
-    public void insertUser(User user, String password) throws SQLException {
-        if (doesUserExist(user.getUsername())) {
-            System.out.println("User already exists.");
+    // The password hash is stored as given, DB hashes the password with PasswordHasher first
+    public void insertUser(Connection conn, User user, String passwordHash) throws SQLException {
+        if (doesUserExist(conn, user.getUsername())) {
+            log.debug("User already exists.", "user", user.getUsername());
             return;
         }
 
         // Use the connection object to create a prepared statement with placeholders
         String insertSQL = "INSERT INTO users (username,password,name,surname,birthdate,gender,email,location,is_admin) VALUES (?,?,?,?,?,?,?,?,?)";
-        PreparedStatement insertStmt = conn.prepareStatement(insertSQL);
+        PreparedStatement insertStmt = pool.prepareStatement(conn, insertSQL);
 
         // Fill the placeholder values in the prepared statement
         insertStmt.setString(1, user.getUsername());
-        insertStmt.setString(2, password);
+        insertStmt.setString(2, passwordHash);
         insertStmt.setString(3, user.getName());
         insertStmt.setString(4, user.getSurname());
         insertStmt.setDate(5, Date.valueOf(user.getBirthdate()));
@@ -211,37 +351,113 @@ public class UsersTable {
 
         // Execute the insert statement and update the table
         insertStmt.executeUpdate();
+        userCache.invalidate(user.getUsername());
+
+        log.info("User inserted.", "user", user.getUsername());
+    }
+
+    // Adds the users in one JDBC batch, a user whose username is taken is skipped instead of failing the others
+    // Returns the usernames that were skipped
+    public List<String> insertUsers(Connection conn, List<User> users, List<String> passwordHashes) throws SQLException {
+        String insertSQL = """
+        INSERT INTO users (username,password,name,surname,birthdate,gender,email,location,is_admin)
+        VALUES (?,?,?,?,?,?,?,?,?)
+        ON CONFLICT (username) DO NOTHING
+        """;
+        PreparedStatement insertStmt = pool.prepareStatement(conn, insertSQL);
+
+        for (int i = 0; i < users.size(); i++) {
+            User user = users.get(i);
+
+            insertStmt.setString(1, user.getUsername());
+            insertStmt.setString(2, passwordHashes.get(i));
+            insertStmt.setString(3, user.getName());
+            insertStmt.setString(4, user.getSurname());
+            insertStmt.setDate(5, Date.valueOf(user.getBirthdate()));
+            insertStmt.setString(6, user.getGender());
+            insertStmt.setString(7, user.getEmail());
+            insertStmt.setString(8, user.getLocation());
+            insertStmt.setBoolean(9, user.isAdmin());
+            insertStmt.addBatch();
+        }
+
+        // One count per user, 0 where the conflict clause skipped it
+        int[] insertedCounts = insertStmt.executeBatch();
+
+        List<String> skippedUsernames = new ArrayList<>();
+        for (int i = 0; i < users.size(); i++) {
+            if (insertedCounts[i] == 0) {
+                skippedUsernames.add(users.get(i).getUsername());
+            }
+            userCache.invalidate(users.get(i).getUsername());
+        }
 
-        // Close the prepared statement
-        insertStmt.close();
+        log.info("Users inserted.", "count", users.size() - skippedUsernames.size(), "skipped", skippedUsernames.size());
 
-        // Log to console
-        System.out.println("User inserted successfully.");
+        return skippedUsernames;
     }
 
-    public void updateUser(String usernameToUpdate, User updatedUser, String updatedPassword) throws SQLException {
-        if (!doesUserExist(usernameToUpdate)) {
-            System.out.println("User not found.");
+    // Reads the users through a forward-only cursor, fetchSize rows at a time, and hands them over in chunks of
+    // that size, so only one chunk is in memory at once
+    // PostgreSQL only keeps the cursor open inside a transaction, otherwise the driver reads every row up front
+    public void exportUsers(Connection conn, int fetchSize, DB.UserChunkHandler handler) throws SQLException {
+        String querySQL = "SELECT * FROM users WHERE replaced_by IS NULL ORDER BY user_id";
+
+        Statement queryStmt = conn.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        queryStmt.setFetchSize(fetchSize);
+
+        ResultSet rs = queryStmt.executeQuery(querySQL);
+
+        ArrayList<User> chunk = new ArrayList<>(fetchSize);
+        int exportedCount = 0;
+        boolean isStopped = false;
+
+        try {
+            while (!isStopped && rs.next()) {
+                chunk.add(buildUserFromResultSet(rs));
+
+                if (chunk.size() == fetchSize) {
+                    exportedCount += chunk.size();
+                    isStopped = !handler.handle(chunk);
+                    chunk = new ArrayList<>(fetchSize);
+                }
+            }
+
+            if (!isStopped && !chunk.isEmpty()) {
+                exportedCount += chunk.size();
+                handler.handle(chunk);
+            }
+        } finally {
+            rs.close();
+            queryStmt.close();
+        }
+
+        log.info("Users exported.", "count", exportedCount, "stopped", isStopped);
+    }
+
+    public void updateUser(Connection conn, String usernameToUpdate, User updatedUser, String updatedPasswordHash) throws SQLException {
+        if (!doesUserExist(conn, usernameToUpdate)) {
+            log.debug("User not found.", "user", usernameToUpdate);
             return;
         }
 
         if (usernameToUpdate.equals(DELETED_USERNAME) || usernameToUpdate.equals(ADMIN_USERNAME)) {
-            System.out.println("This username is reserved for special purposes, cannot update.");
+            log.warn("This username is reserved for special purposes, cannot update.", "user", usernameToUpdate);
             return;
         }
 
         if (updatedUser.getUsername().equals(DELETED_USERNAME) || updatedUser.getUsername().equals(ADMIN_USERNAME)) {
-            System.out.println("This username is reserved for special purposes, cannot update.");
+            log.warn("This username is reserved for special purposes, cannot update.", "user", updatedUser.getUsername());
             return;
         }
 
         // Prepare the SQL UPDATE statement with placeholders
         String updateSQL = "UPDATE users SET username=?, password=?, name=?, surname=?, birthdate=?, gender=?, email=?, location=?, is_admin=? WHERE username=?";
-        PreparedStatement updateStmt = conn.prepareStatement(updateSQL);
+        PreparedStatement updateStmt = pool.prepareStatement(conn, updateSQL);
 
         // Fill in the values for the update
         updateStmt.setString(1, updatedUser.getUsername());
-        updateStmt.setString(2, updatedPassword);
+        updateStmt.setString(2, updatedPasswordHash);
         updateStmt.setString(3, updatedUser.getName());
         updateStmt.setString(4, updatedUser.getSurname());
         updateStmt.setDate(5, Date.valueOf(updatedUser.getBirthdate()));
@@ -253,129 +469,175 @@ public class UsersTable {
 
         // Execute the update statement and update the table
         updateStmt.executeUpdate();
+        userCache.invalidate(usernameToUpdate);
+        userCache.invalidate(updatedUser.getUsername());
 
-        // Close the prepared statement
-        updateStmt.close();
-
-        // Log to console
-        System.out.println("User updated successfully.");
+        log.info("User updated.", "user", usernameToUpdate, "newUsername", updatedUser.getUsername());
     }
 
-    public void removeUser(String userToRemove) throws SQLException {
-        if (!doesUserExist(userToRemove)) {
-            System.out.println("User not found.");
-            return;
+    // Tombstones the user in a single statement: the row is pointed at 'deleted_user' and its username is freed
+    // Pages show the user's messages as sent by or to 'deleted_user' from then on, MessageReassigner then moves
+    // the messages over and deletes the row. Returns the user_id of the removed user, or -1 if nothing was removed
+    public int removeUser(Connection conn, String userToRemove) throws SQLException {
+        if (userToRemove.equals(DELETED_USERNAME) || userToRemove.equals(ADMIN_USERNAME)) {
+            log.warn("This username is reserved for special purposes, cannot delete.", "user", userToRemove);
+            return -1;
         }
 
-        if (userToRemove.equals(DELETED_USERNAME) || userToRemove.equals(ADMIN_USERNAME)) {
-            System.out.println("This username is reserved for special purposes, cannot delete.");
-            return;
+        String tombstoneSQL = """
+        UPDATE users
+        SET username = NULL, replaced_by = (SELECT user_id FROM users WHERE username = ?)
+        WHERE username = ?
+        RETURNING user_id, replaced_by
+        """;
+        PreparedStatement tombstoneStmt = pool.prepareStatement(conn, tombstoneSQL);
+
+        tombstoneStmt.setString(1, DELETED_USERNAME);
+        tombstoneStmt.setString(2, userToRemove);
+
+        ResultSet rs = tombstoneStmt.executeQuery();
+
+        int removedUserID = -1;
+        int replacementID = 0;
+
+        if (rs.next()) {
+            removedUserID = rs.getInt("user_id");
+            replacementID = rs.getInt("replaced_by"); // 0 if NULL
         }
 
-        // Get user_id of the user to remove
-        int userIdToRemove = getUserID(getUserWithUsername(userToRemove));
+        rs.close();
 
-        // Get user_id of 'deleted_user'
-        int deletedUserId = getUserID(getUserWithUsername(DELETED_USERNAME));
+        if (removedUserID == -1) {
+            log.debug("User not found.", "user", userToRemove);
+            return -1;
+        }
 
-        if (deletedUserId == -1) {
-            System.out.println("Dummy user " + DELETED_USERNAME + " not found. Aborting delete.");
-            return;
+        if (replacementID == 0) {
+            // Thrown so that DB rolls the tombstone back
+            throw new SQLException("Dummy user " + DELETED_USERNAME + " not found, aborting delete.");
         }
 
-        // Update sender_id of all messages whose previous sender_id is userIdToRemove
-        MessagesTable.updateSenderId(conn, userIdToRemove, deletedUserId);
+        userCache.invalidate(userToRemove);
 
-        // Update receiver_id of all messages whose previous receiver_id is userIdToRemove
-        MessagesTable.updateReceiverId(conn, userIdToRemove, deletedUserId);
+        log.info("User removed, messages will be reassigned.", "user", userToRemove, "userID", removedUserID,
+                "reassignedTo", DELETED_USERNAME);
 
-        // Use the connection object to create a prepared statement with placeholders
-        String deleteSQL = "DELETE FROM users WHERE username = ?";
-        PreparedStatement deleteStmt = conn.prepareStatement(deleteSQL);
+        return removedUserID;
+    }
 
-        // Fill the placeholder values in the prepared statement
-        deleteStmt.setString(1, userToRemove);
+    // Removed users whose messages are not reassigned yet, e.g. because the server stopped halfway
+    public List<Integer> getRemovedUserIDs(Connection conn) throws SQLException {
+        String querySQL = "SELECT user_id FROM users WHERE replaced_by IS NOT NULL ORDER BY user_id";
+        PreparedStatement queryStmt = pool.prepareStatement(conn, querySQL);
 
-        // Execute the remove statement and update the table
-        deleteStmt.executeUpdate();
+        ResultSet rs = queryStmt.executeQuery();
+
+        List<Integer> removedUserIDs = new ArrayList<>();
+        while (rs.next()) {
+            removedUserIDs.add(rs.getInt("user_id"));
+        }
 
-        // Close the prepared statement
-        deleteStmt.close();
+        rs.close();
 
-        // Log to console
-        System.out.println("User deleted successfully. All messages reassigned to " + DELETED_USERNAME + ".");
+        return removedUserIDs;
     }
 
-    public int getUserID(User user) throws SQLException {
-        String querySQL = "SELECT user_id FROM users WHERE username = ?";
-        PreparedStatement queryStmt = conn.prepareStatement(querySQL);
+    // The user_id the messages of a removed user go to, -1 if the user is not removed (anymore)
+    public int getReplacementID(Connection conn, int removedUserID) throws SQLException {
+        String querySQL = "SELECT replaced_by FROM users WHERE user_id = ? AND replaced_by IS NOT NULL";
+        PreparedStatement queryStmt = pool.prepareStatement(conn, querySQL);
 
-        queryStmt.setString(1, user.getUsername());
+        queryStmt.setInt(1, removedUserID);
 
-        // Executes the query (SELECT * FROM users)
-        // Stores the result in a ResultSet — which acts like a table in memory that you can loop through
         ResultSet rs = queryStmt.executeQuery();
 
-        int id = -1;
-
-        // Look for the first row of the result set
-        // rs.next() moves the cursor to the next row and returns true if there is one.
+        int replacementID = -1;
         if (rs.next()) {
-            id = rs.getInt("user_id");
-        } else {
-            System.out.println("User not found.");
+            replacementID = rs.getInt("replaced_by");
         }
 
         rs.close();
-        queryStmt.close();
 
-        return id;
+        return replacementID;
+    }
+
+    // Deletes the row of a removed user once no message refers to it
+    // Returns false if a message still does, the foreign keys of 'messages' reject the delete then
+    public boolean deleteRemovedUser(Connection conn, int removedUserID) throws SQLException {
+        String deleteSQL = "DELETE FROM users WHERE user_id = ? AND replaced_by IS NOT NULL";
+        PreparedStatement deleteStmt = pool.prepareStatement(conn, deleteSQL);
+
+        deleteStmt.setInt(1, removedUserID);
+
+        try {
+            deleteStmt.executeUpdate();
+        } catch (SQLException e) {
+            if (FOREIGN_KEY_VIOLATION.equals(e.getSQLState())) {
+                return false;
+            }
+            throw e;
+        }
+
+        return true;
+    }
+
+    public int getUserID(Connection conn, User user) throws SQLException {
+        UserCache.CachedUser cached = findUser(conn, user.getUsername());
+
+        if (cached == null) {
+            log.debug("User not found.", "user", user.getUsername());
+            return -1;
+        }
+
+        return cached.getUserID();
     }
 
-    private String getUserPassword(String username) throws SQLException {
-        String querySQL = "SELECT password FROM users WHERE username = ?";
-        PreparedStatement queryStmt = conn.prepareStatement(querySQL);
+    // The user and their password hash in one query, for LOGIN; null if there is no such user
+    // Same statement as findUser, and the user is cached like there, since the next requests of the session need it
+    public UserCredentials getUserCredentials(Connection conn, String username) throws SQLException {
+        long generation = userCache.getGeneration();
+
+        String querySQL = "SELECT * FROM users WHERE username = ?";
+        PreparedStatement queryStmt = pool.prepareStatement(conn, querySQL);
 
         queryStmt.setString(1, username);
 
-        // Executes the query (SELECT * FROM users)
-        // Stores the result in a ResultSet — which acts like a table in memory that you can loop through
         ResultSet rs = queryStmt.executeQuery();
 
-        String password = null;
+        UserCredentials credentials = null;
 
-        // Look for the first row of the result set
-        // rs.next() moves the cursor to the next row and returns true if there is one.
         if (rs.next()) {
-            password = rs.getString("password");
+            User user = buildUserFromResultSet(rs);
+            userCache.put(user, rs.getInt("user_id"), generation);
+
+            credentials = new UserCredentials(user, rs.getString("password"));
         } else {
-            System.out.println("User not found.");
+            log.debug("User not found.", "user", username);
         }
 
         rs.close();
-        queryStmt.close();
 
-        return password;
+        return credentials;
     }
 
-    public boolean authenticateUser(String username, String password) throws SQLException {
-        String passwordInDB = getUserPassword(username);
-        return passwordInDB.equals(password);
-    }
+    // Replaces the hash only if it is still oldHash, so an upgrade on login never overwrites a password just changed
+    public boolean updatePasswordHash(Connection conn, String username, String oldHash, String newHash)
+            throws SQLException {
+        String updateSQL = "UPDATE users SET password = ? WHERE username = ? AND password = ?";
+        PreparedStatement updateStmt = pool.prepareStatement(conn, updateSQL);
 
-    public boolean doesUserExist(String username) throws SQLException {
-        String querySQL = "SELECT * FROM users WHERE username = ?";
-        PreparedStatement queryStmt = conn.prepareStatement(querySQL);
+        updateStmt.setString(1, newHash);
+        updateStmt.setString(2, username);
+        updateStmt.setString(3, oldHash);
 
-        queryStmt.setString(1, username);
+        boolean isUpdated = updateStmt.executeUpdate() == 1;
 
-        ResultSet rs = queryStmt.executeQuery();
+        log.debug("Password hash upgraded.", "user", username, "updated", isUpdated);
 
-        boolean exists = rs.next();
-
-        rs.close();
-        queryStmt.close();
+        return isUpdated;
+    }
 
-        return exists;
+    public boolean doesUserExist(Connection conn, String username) throws SQLException {
+        return findUser(conn, username) != null;
     }
 }
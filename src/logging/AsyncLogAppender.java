@@ -0,0 +1,213 @@
+package logging;
+
+import java.io.PrintStream;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+// Writes log events on a single background thread, so that the threads logging never wait for the console
+// Events go through a fixed ring buffer: a thread claims a slot with one CAS and stores the event, the writer empties
+// the slots in order. When the buffer is full the event is dropped and counted, logging never blocks a request
+public class AsyncLogAppender {
+    // How long the writer sleeps when the buffer is empty, events wait at most this long to be written
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+    private static final long CLOSE_TIMEOUT_MILLIS = 5000;
+
+    // Text written to the stream at once, larger drains are written in several parts
+    private static final int MAX_CHUNK_CHARS = 64 * 1024;
+
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS");
+
+    private final PrintStream out;
+    private final int capacity;
+    private final AtomicReferenceArray<LogEvent> slots;
+
+    private final AtomicLong claimSequence = new AtomicLong(); // Next slot a logging thread claims
+    private volatile long writeSequence = 0;                    // Next slot the writer empties, only it writes this
+
+    private final LongAdder droppedCount = new LongAdder();
+    private long reportedDroppedCount = 0; // Only used by the writer
+
+    private final Thread writerThread;
+    private volatile boolean isClosed = false;
+
+    // capacity: most events waiting to be written, further events are dropped until the writer catches up
+    public AsyncLogAppender(PrintStream out, int capacity) {
+        this.out = out;
+        this.capacity = capacity;
+        this.slots = new AtomicReferenceArray<>(capacity);
+
+        writerThread = new Thread(this::runWriter, "log-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    // Returns false if the event was dropped
+    boolean append(LogEvent event) {
+        long sequence;
+
+        do {
+            sequence = claimSequence.get();
+
+            // The slot is still held by an event from one lap before that has not been written yet
+            if (sequence - writeSequence >= capacity || isClosed) {
+                droppedCount.increment();
+                return false;
+            }
+        } while (!claimSequence.compareAndSet(sequence, sequence + 1));
+
+        slots.set(indexOf(sequence), event);
+        return true;
+    }
+
+    private int indexOf(long sequence) {
+        return (int) (sequence % capacity);
+    }
+
+    private void runWriter() {
+        StringBuilder text = new StringBuilder(MAX_CHUNK_CHARS);
+
+        // After close, keep going until every claimed slot has been written
+        while (!isClosed || writeSequence < claimSequence.get()) {
+            if (!drain(text)) {
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+            }
+        }
+    }
+
+    // Writes every event that is ready, returns false if there was none
+    private boolean drain(StringBuilder text) {
+        boolean hasWritten = false;
+
+        while (true) {
+            long sequence = writeSequence;
+            int index = indexOf(sequence);
+
+            // Claimed slots are filled right after, an empty one means its event is not stored yet
+            LogEvent event = slots.get(index);
+            if (event == null) {
+                break;
+            }
+
+            slots.set(index, null);
+            writeSequence = sequence + 1; // Frees the slot for the logging threads
+
+            format(event, text);
+            hasWritten = true;
+
+            if (text.length() >= MAX_CHUNK_CHARS) {
+                flush(text);
+            }
+        }
+
+        long dropped = droppedCount.sum();
+        if (dropped > reportedDroppedCount) {
+            text.append(TIME_FORMAT.format(LocalDateTime.now())).append(' ').append(LogLevel.WARN).append(" ")
+                    .append(" [log-writer] AsyncLogAppender: Log buffer was full, events were dropped. dropped=")
+                    .append(dropped - reportedDroppedCount).append('\n');
+            reportedDroppedCount = dropped;
+            hasWritten = true;
+        }
+
+        if (text.length() > 0) {
+            flush(text);
+        }
+
+        return hasWritten;
+    }
+
+    // One line per event: time, level, thread, logger, message and then the fields as name=value
+    private static void format(LogEvent event, StringBuilder text) {
+        LocalDateTime time = LocalDateTime.ofInstant(Instant.ofEpochMilli(event.getTimeMillis()), ZoneId.systemDefault());
+
+        text.append(TIME_FORMAT.format(time)).append(' ');
+        text.append(event.getLevel());
+        if (event.getLevel().name().length() == 4) {
+            text.append(' '); // Lines up the threads of INFO/WARN with those of DEBUG/ERROR
+        }
+        text.append(" [").append(event.getThreadName()).append("] ");
+        text.append(event.getLoggerName()).append(": ").append(event.getMessage());
+
+        Throwable thrown = null;
+        Object[] fields = event.getFields();
+
+        for (int i = 0; i + 1 < fields.length; i += 2) {
+            Object value = fields[i + 1];
+
+            if (value instanceof Throwable) {
+                thrown = (Throwable) value;
+            }
+
+            text.append(' ').append(fields[i]).append('=');
+            appendValue(String.valueOf(value), text);
+        }
+        text.append('\n');
+
+        if (thrown != null) {
+            for (StackTraceElement element : thrown.getStackTrace()) {
+                text.append("\tat ").append(element).append('\n');
+            }
+        }
+    }
+
+    // Values with spaces, quotes or '=' are quoted so that a line can be split back into its fields
+    private static void appendValue(String value, StringBuilder text) {
+        boolean needsQuotes = value.isEmpty();
+
+        for (int i = 0; i < value.length() && !needsQuotes; i++) {
+            char c = value.charAt(i);
+            needsQuotes = Character.isWhitespace(c) || c == '"' || c == '=';
+        }
+
+        if (!needsQuotes) {
+            text.append(value);
+            return;
+        }
+
+        text.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+
+            if (c == '"' || c == '\\') {
+                text.append('\\').append(c);
+            } else if (c == '\n') {
+                text.append("\\n");
+            } else {
+                text.append(c);
+            }
+        }
+        text.append('"');
+    }
+
+    private void flush(StringBuilder text) {
+        out.print(text);
+        out.flush();
+        text.setLength(0);
+    }
+
+    // Stops taking events, and waits for the buffered ones to be written
+    public void close() {
+        isClosed = true;
+        LockSupport.unpark(writerThread);
+
+        try {
+            writerThread.join(CLOSE_TIMEOUT_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public long getDroppedCount() {
+        return droppedCount.sum();
+    }
+}
@@ -0,0 +1,44 @@
+package logging;
+
+// What a handler thread hands over to the appender, turned into text only on the writer thread
+class LogEvent {
+    private final long timeMillis;
+    private final LogLevel level;
+    private final String loggerName;
+    private final String threadName;
+    private final String message;
+    private final Object[] fields; // Alternating names and values, e.g. "user", "alice", "latencyMicros", 812
+
+    LogEvent(long timeMillis, LogLevel level, String loggerName, String threadName, String message, Object[] fields) {
+        this.timeMillis = timeMillis;
+        this.level = level;
+        this.loggerName = loggerName;
+        this.threadName = threadName;
+        this.message = message;
+        this.fields = fields;
+    }
+
+    long getTimeMillis() {
+        return timeMillis;
+    }
+
+    LogLevel getLevel() {
+        return level;
+    }
+
+    String getLoggerName() {
+        return loggerName;
+    }
+
+    String getThreadName() {
+        return threadName;
+    }
+
+    String getMessage() {
+        return message;
+    }
+
+    Object[] getFields() {
+        return fields;
+    }
+}
@@ -0,0 +1,13 @@
+package logging;
+
+// Severity of a log event, events below the level set in Logger are dropped before anything is allocated
+public enum LogLevel {
+    DEBUG,
+    INFO,
+    WARN,
+    ERROR;
+
+    public boolean isAtLeast(LogLevel other) {
+        return ordinal() >= other.ordinal();
+    }
+}
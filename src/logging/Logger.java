@@ -0,0 +1,85 @@
+package logging;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Logs of one class, written by the shared AsyncLogAppender
+// Messages are fixed text, what changes goes into fields given as alternating names and values:
+//     log.info("User inserted.", "user", username);
+// Disabled levels return before the event is built, check isEnabled first when the fields themselves are costly
+public final class Logger {
+    private static final LogLevel DEFAULT_LEVEL = LogLevel.INFO;
+    private static final int BUFFER_CAPACITY = 8192;
+
+    private static final Map<String, Logger> loggers = new ConcurrentHashMap<>();
+    private static volatile LogLevel level = DEFAULT_LEVEL;
+
+    // Created with the first logger, closed by the shutdown hook so that buffered events are not lost
+    private static final AsyncLogAppender appender = new AsyncLogAppender(System.out, BUFFER_CAPACITY);
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread(Logger::shutdown, "log-shutdown"));
+    }
+
+    private final String name;
+
+    private Logger(String name) {
+        this.name = name;
+    }
+
+    public static Logger getLogger(Class<?> type) {
+        return loggers.computeIfAbsent(type.getSimpleName(), Logger::new);
+    }
+
+    // Applies to every logger, e.g. DEBUG to see each request
+    public static void setLevel(LogLevel newLevel) {
+        level = newLevel;
+    }
+
+    public static LogLevel getLevel() {
+        return level;
+    }
+
+    // Writes what is still buffered, events logged afterwards are dropped
+    public static void shutdown() {
+        appender.close();
+    }
+
+    public static long getDroppedCount() {
+        return appender.getDroppedCount();
+    }
+
+    public boolean isEnabled(LogLevel eventLevel) {
+        return eventLevel.isAtLeast(level);
+    }
+
+    public boolean isDebugEnabled() {
+        return isEnabled(LogLevel.DEBUG);
+    }
+
+    public void debug(String message, Object... fields) {
+        log(LogLevel.DEBUG, message, fields);
+    }
+
+    public void info(String message, Object... fields) {
+        log(LogLevel.INFO, message, fields);
+    }
+
+    public void warn(String message, Object... fields) {
+        log(LogLevel.WARN, message, fields);
+    }
+
+    // A Throwable given as a field value is written with its stack trace
+    public void error(String message, Object... fields) {
+        log(LogLevel.ERROR, message, fields);
+    }
+
+    public void log(LogLevel eventLevel, String message, Object... fields) {
+        if (!isEnabled(eventLevel)) {
+            return;
+        }
+
+        appender.append(new LogEvent(System.currentTimeMillis(), eventLevel, name,
+                Thread.currentThread().getName(), message, fields));
+    }
+}
@@ -0,0 +1,63 @@
+package metrics;
+
+import javax.management.ConstructorParameters;
+
+// Summary of a LatencyHistogram at one point in time, in microseconds; shown by JMX consoles as composite data
+public class LatencySnapshot {
+    private final long count;
+    private final double meanMicros;
+    private final double p50Micros;
+    private final double p90Micros;
+    private final double p99Micros;
+    private final double maxMicros;
+
+    @ConstructorParameters({"count", "meanMicros", "p50Micros", "p90Micros", "p99Micros", "maxMicros"})
+    public LatencySnapshot(long count, double meanMicros, double p50Micros, double p90Micros, double p99Micros,
+                           double maxMicros) {
+        this.count = count;
+        this.meanMicros = meanMicros;
+        this.p50Micros = p50Micros;
+        this.p90Micros = p90Micros;
+        this.p99Micros = p99Micros;
+        this.maxMicros = maxMicros;
+    }
+
+    public static LatencySnapshot of(LatencyHistogram histogram) {
+        return new LatencySnapshot(histogram.getCount(),
+                histogram.getMeanNanos() / 1000.0,
+                histogram.getPercentileNanos(0.50) / 1000.0,
+                histogram.getPercentileNanos(0.90) / 1000.0,
+                histogram.getPercentileNanos(0.99) / 1000.0,
+                histogram.getMaxNanos() / 1000.0);
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public double getMeanMicros() {
+        return meanMicros;
+    }
+
+    public double getP50Micros() {
+        return p50Micros;
+    }
+
+    public double getP90Micros() {
+        return p90Micros;
+    }
+
+    public double getP99Micros() {
+        return p99Micros;
+    }
+
+    public double getMaxMicros() {
+        return maxMicros;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("count=%d mean=%.1fus p50=%.1fus p90=%.1fus p99=%.1fus max=%.1fus",
+                count, meanMicros, p50Micros, p90Micros, p99Micros, maxMicros);
+    }
+}
@@ -0,0 +1,220 @@
+package metrics;
+
+import logging.Logger;
+import response.ResponseCode;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// Counts and latencies of the requests the server handles and the database calls they make
+// Recording only touches counters and histograms without locks, so it stays on under full load
+// Read through JMX (jconsole, VisualVM) under "MailingApp:type=ServerMetrics"
+public class ServerMetrics implements ServerMetricsMXBean {
+    private static final Logger log = Logger.getLogger(ServerMetrics.class);
+
+    private static final String OBJECT_NAME = "MailingApp:type=ServerMetrics";
+
+    private static final ServerMetrics instance = new ServerMetrics();
+
+    // Everything recorded for one type of action
+    public static class ActionMetrics {
+        private final LongAdder requestCount = new LongAdder();
+        private final AtomicLongArray responseCodeCounts = new AtomicLongArray(ResponseCode.values().length);
+
+        // Phases of Action.validateAndExecute, 'total' is the whole of it
+        private final LatencyHistogram validate = new LatencyHistogram();
+        private final LatencyHistogram execute = new LatencyHistogram();
+        private final LatencyHistogram serialize = new LatencyHistogram();
+        private final LatencyHistogram send = new LatencyHistogram();
+        private final LatencyHistogram total = new LatencyHistogram();
+
+        public void record(ResponseCode responseCode, long validateNanos, long executeNanos, long totalNanos) {
+            requestCount.increment();
+            responseCodeCounts.incrementAndGet(responseCode.ordinal());
+
+            validate.record(validateNanos);
+            execute.record(executeNanos);
+            total.record(totalNanos);
+        }
+
+        // Recorded by ClientHandler, which turns the response into bytes and writes them
+        public void recordSerialize(long nanos) {
+            serialize.record(nanos);
+        }
+
+        public void recordSend(long nanos) {
+            send.record(nanos);
+        }
+
+        private void reset() {
+            requestCount.reset();
+            for (int i = 0; i < responseCodeCounts.length(); i++) {
+                responseCodeCounts.set(i, 0);
+            }
+
+            validate.reset();
+            execute.reset();
+            serialize.reset();
+            send.reset();
+            total.reset();
+        }
+    }
+
+    // Keyed by the class name of the action, so that requests for unknown actions all land under ErrorAction
+    private final Map<String, ActionMetrics> actions = new ConcurrentHashMap<>();
+
+    // Keyed by the DB method
+    private final Map<String, LatencyHistogram> databaseCalls = new ConcurrentHashMap<>();
+
+    private ServerMetrics() {
+    }
+
+    public static ServerMetrics getInstance() {
+        return instance;
+    }
+
+    // Makes the metrics readable through JMX, does nothing if they already are
+    public static void registerMBean() {
+        try {
+            MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+            mBeanServer.registerMBean(instance, new ObjectName(OBJECT_NAME));
+
+            log.info("Server metrics available through JMX.", "objectName", OBJECT_NAME);
+        } catch (InstanceAlreadyExistsException e) {
+            // Another server in the same JVM registered them, e.g. in the benchmarks
+        } catch (JMException e) {
+            log.warn("Server metrics could not be registered.", "error", e.getMessage());
+        }
+    }
+
+    public ActionMetrics forAction(String actionName) {
+        ActionMetrics actionMetrics = actions.get(actionName);
+
+        if (actionMetrics == null) {
+            actionMetrics = actions.computeIfAbsent(actionName, name -> new ActionMetrics());
+        }
+
+        return actionMetrics;
+    }
+
+    public void recordDatabaseCall(String operationName, long nanos) {
+        LatencyHistogram histogram = databaseCalls.get(operationName);
+
+        if (histogram == null) {
+            histogram = databaseCalls.computeIfAbsent(operationName, name -> new LatencyHistogram());
+        }
+
+        histogram.record(nanos);
+    }
+
+    @Override
+    public long getRequestCount() {
+        long requestCount = 0;
+
+        for (ActionMetrics actionMetrics : actions.values()) {
+            requestCount += actionMetrics.requestCount.sum();
+        }
+
+        return requestCount;
+    }
+
+    @Override
+    public Map<String, Long> getRequestCounts() {
+        Map<String, Long> requestCounts = new TreeMap<>();
+
+        for (Map.Entry<String, ActionMetrics> entry : actions.entrySet()) {
+            requestCounts.put(entry.getKey(), entry.getValue().requestCount.sum());
+        }
+
+        return requestCounts;
+    }
+
+    // Keyed by "<action>.<response code>", codes that were never sent are left out
+    @Override
+    public Map<String, Long> getResponseCodeCounts() {
+        Map<String, Long> responseCodeCounts = new TreeMap<>();
+
+        for (Map.Entry<String, ActionMetrics> entry : actions.entrySet()) {
+            for (ResponseCode responseCode : ResponseCode.values()) {
+                long count = entry.getValue().responseCodeCounts.get(responseCode.ordinal());
+
+                if (count > 0) {
+                    responseCodeCounts.put(entry.getKey() + "." + responseCode.name(), count);
+                }
+            }
+        }
+
+        return responseCodeCounts;
+    }
+
+    @Override
+    public Map<String, LatencySnapshot> getActionLatencies() {
+        Map<String, LatencySnapshot> latencies = new TreeMap<>();
+
+        for (Map.Entry<String, ActionMetrics> entry : actions.entrySet()) {
+            ActionMetrics actionMetrics = entry.getValue();
+
+            latencies.put(entry.getKey() + ".validate", LatencySnapshot.of(actionMetrics.validate));
+            latencies.put(entry.getKey() + ".execute", LatencySnapshot.of(actionMetrics.execute));
+            latencies.put(entry.getKey() + ".serialize", LatencySnapshot.of(actionMetrics.serialize));
+            latencies.put(entry.getKey() + ".send", LatencySnapshot.of(actionMetrics.send));
+            latencies.put(entry.getKey() + ".total", LatencySnapshot.of(actionMetrics.total));
+        }
+
+        return latencies;
+    }
+
+    @Override
+    public Map<String, LatencySnapshot> getDatabaseLatencies() {
+        Map<String, LatencySnapshot> latencies = new TreeMap<>();
+
+        for (Map.Entry<String, LatencyHistogram> entry : databaseCalls.entrySet()) {
+            latencies.put(entry.getKey(), LatencySnapshot.of(entry.getValue()));
+        }
+
+        return latencies;
+    }
+
+    // Everything above as lines of text, e.g. for the console when the server stops
+    @Override
+    public String getReport() {
+        StringBuilder report = new StringBuilder();
+
+        report.append("Requests: ").append(getRequestCount()).append('\n');
+
+        for (Map.Entry<String, Long> entry : getResponseCodeCounts().entrySet()) {
+            report.append("  ").append(entry.getKey()).append(": ").append(entry.getValue()).append('\n');
+        }
+
+        report.append("Request latencies:\n");
+        for (Map.Entry<String, LatencySnapshot> entry : getActionLatencies().entrySet()) {
+            report.append("  ").append(entry.getKey()).append(": ").append(entry.getValue()).append('\n');
+        }
+
+        report.append("Database latencies:\n");
+        for (Map.Entry<String, LatencySnapshot> entry : getDatabaseLatencies().entrySet()) {
+            report.append("  ").append(entry.getKey()).append(": ").append(entry.getValue()).append('\n');
+        }
+
+        return report.toString();
+    }
+
+    @Override
+    public void reset() {
+        for (ActionMetrics actionMetrics : actions.values()) {
+            actionMetrics.reset();
+        }
+
+        for (LatencyHistogram histogram : databaseCalls.values()) {
+            histogram.reset();
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package metrics;
+
+import java.util.Map;
+
+// Management interface of ServerMetrics, registered as "MailingApp:type=ServerMetrics"
+// Latency keys are "<action>.<phase>" for requests and the DB method for database calls
+public interface ServerMetricsMXBean {
+    long getRequestCount();
+
+    Map<String, Long> getRequestCounts();
+
+    Map<String, Long> getResponseCodeCounts();
+
+    Map<String, LatencySnapshot> getActionLatencies();
+
+    Map<String, LatencySnapshot> getDatabaseLatencies();
+
+    String getReport();
+
+    void reset();
+}
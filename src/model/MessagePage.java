@@ -0,0 +1,46 @@
+package model;
+
+import java.util.ArrayList;
+
+// One page of an inbox or outbox, newest message first
+public class MessagePage {
+    private final ArrayList<Message> messages;
+    private final String nextCursor; // Opaque token for the following page, null on the last page
+
+    // Text protocol forms of the messages, kept with the page so that a page served from a cache is serialized once
+    private volatile String serializedMessages;
+    private volatile String serializedMessagesWithUserTable;
+
+    public MessagePage(ArrayList<Message> messages, String nextCursor) {
+        this.messages = messages;
+        this.nextCursor = nextCursor;
+    }
+
+    public ArrayList<Message> getMessages() {
+        return messages;
+    }
+
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    public String getSerializedMessages() {
+        return serializedMessages;
+    }
+
+    public void setSerializedMessages(String serializedMessages) {
+        this.serializedMessages = serializedMessages;
+    }
+
+    public String getSerializedMessagesWithUserTable() {
+        return serializedMessagesWithUserTable;
+    }
+
+    public void setSerializedMessagesWithUserTable(String serializedMessagesWithUserTable) {
+        this.serializedMessagesWithUserTable = serializedMessagesWithUserTable;
+    }
+
+    public boolean hasNextPage() {
+        return nextCursor != null;
+    }
+}
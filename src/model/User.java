@@ -10,6 +10,9 @@ public class User {
     private final String location;
     private final boolean isAdmin;
 
+    // Text protocol form, built once since a user never changes; an updated user is a new object
+    private volatile String serializedForm;
+
     public User(String username, String name, String surname,
                 String birthdate, String gender, String email,
                 String location, boolean isAdmin) {
@@ -55,6 +58,14 @@ public class User {
         return isAdmin;
     }
 
+    public String getSerializedForm() {
+        return serializedForm;
+    }
+
+    public void setSerializedForm(String serializedForm) {
+        this.serializedForm = serializedForm;
+    }
+
     @Override
     public String toString() {
         return "model.User{" +
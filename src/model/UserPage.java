@@ -0,0 +1,26 @@
+package model;
+
+import java.util.ArrayList;
+
+// One page of the user directory, by username
+public class UserPage {
+    private final ArrayList<User> users;
+    private final String nextCursor; // Opaque token for the following page, null on the last page
+
+    public UserPage(ArrayList<User> users, String nextCursor) {
+        this.users = users;
+        this.nextCursor = nextCursor;
+    }
+
+    public ArrayList<User> getUsers() {
+        return users;
+    }
+
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    public boolean hasNextPage() {
+        return nextCursor != null;
+    }
+}
@@ -4,28 +4,43 @@ import client.Client;
 import server.ClientHandler;
 import utility.ProtocolHandler;
 
+import java.util.Map;
+
 public class Request {
     private final String action;
-    private final String serializedRequestContent;
+    private String serializedRequestContent; // Text form, built on first use if the request was created from fields
+    private Map<String, String> requestContentFields; // Parsed form, built on first use if the request came as text
 
     public Request(String action, String serializedRequestContent) {
         this.action = action;
         this.serializedRequestContent = serializedRequestContent;
     }
 
+    public Request(String action, Map<String, String> requestContentFields) {
+        this.action = action;
+        this.requestContentFields = requestContentFields;
+    }
+
     public String getAction() {
         return action;
     }
 
     public String getSerializedRequestContent() {
+        if (serializedRequestContent == null) {
+            serializedRequestContent = ProtocolHandler.serializeRequestContent(requestContentFields);
+        }
         return serializedRequestContent;
     }
 
-    // Sends the request to server
-    public void send(Client client) {
-        String serializedRequest = ProtocolHandler.serializeRequest(this);
+    public Map<String, String> getRequestContentFields() {
+        if (requestContentFields == null) {
+            requestContentFields = ProtocolHandler.parseRequestContent(serializedRequestContent);
+        }
+        return requestContentFields;
+    }
 
-        // Send the serialized response to client
-        client.sendMessageToServer(serializedRequest);
+    // Sends the request to server, in the protocol negotiated on the connection
+    public void send(Client client) {
+        client.sendRequest(this);
     }
 }
@@ -4,10 +4,13 @@ import client.Client;
 import database.UsersTable;
 import response.ResponseCode;
 import utility.ProtocolHandler;
+import utility.UserCsv;
 
 import java.sql.Timestamp;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Scanner;
 
@@ -41,9 +44,13 @@ public class RequestBuilder {
         String password = scanner.nextLine();
         fields.put("password",password);
 
-        String serializedRequestContent = ProtocolHandler.serializeRequestContent(fields);
+        // New mail is pushed to this client while it is logged in, instead of it having to check the inbox
+        fields.put("push","true");
 
-        return new Request("LOGIN",serializedRequestContent);
+        // Message boxes in the text protocol write each user once, older servers ignore it
+        fields.put("userTable","true");
+
+        return new Request("LOGIN",fields);
     }
 
     public Request buildInboxRequest() {
@@ -54,14 +61,50 @@ public class RequestBuilder {
         return new Request("OUTBOX", "");
     }
 
-    public Request buildSendMessageRequest(String sender) {
+    // Asks whether to fetch the page of the INBOX/OUTBOX that comes after 'cursor'
+    // Returns null if the user does not want it
+    public Request buildNextPageRequest(String action, String cursor) {
+        System.out.println("Type 'n' to see older messages, or press enter to go back:");
+        String answer = scanner.nextLine();
+
+        if (!answer.equalsIgnoreCase("n")) {
+            return null;
+        }
+
+        Map<String,String> fields = new HashMap<>();
+        fields.put("cursor",cursor);
+
+        return new Request(action, fields);
+    }
+
+    public Request buildSendMessageRequest(String sender, boolean isAdmin) {
         Map<String,String> fields = new HashMap<>();
 
         fields.put("sender",sender);
 
         System.out.println("Please enter the username of the user to whom you want to send message:");
-        String receiver = scanner.nextLine();
-        fields.put("receiver",receiver);
+        System.out.println("(Separate several usernames with commas" + (isAdmin ? ", or type '*' to send to all users)" : ")"));
+        String receiverInput = scanner.nextLine();
+
+        if (isAdmin && receiverInput.trim().equals("*")) {
+            fields.put("allUsers","true");
+        } else {
+            List<String> receivers = new ArrayList<>();
+            for (String receiver : receiverInput.split(",")) {
+                if (!receiver.trim().isEmpty()) {
+                    receivers.add(receiver.trim());
+                }
+            }
+
+            // A single recipient is sent the way older servers expect it
+            if (receivers.size() == 1) {
+                fields.put("receiver",receivers.get(0));
+            } else if (receivers.isEmpty()) {
+                fields.put("receiver",receiverInput);
+            } else {
+                fields.put("receivers",ProtocolHandler.serializeRecipients(receivers));
+            }
+        }
 
         System.out.println("Please enter the title of your message:");
         String title = scanner.nextLine();
@@ -74,9 +117,7 @@ public class RequestBuilder {
         String time = Timestamp.valueOf(LocalDateTime.now()).toString();
         fields.put("time",time);
 
-        String serializedRequestContent = ProtocolHandler.serializeRequestContent(fields);
-
-        return new Request("SEND_MESSAGE", serializedRequestContent);
+        return new Request("SEND_MESSAGE", fields);
     }
 
     public Request buildLogoutRequest() {
@@ -321,12 +362,10 @@ public class RequestBuilder {
 
         fields.put("isAdmin",isAdmin);
 
-        String serializedRequestContent = ProtocolHandler.serializeRequestContent(fields);
-
         if (operation.equals("add"))
-            return new Request("ADD_USER", serializedRequestContent);
+            return new Request("ADD_USER", fields);
         else
-            return new Request("UPDATE_USER", serializedRequestContent);
+            return new Request("UPDATE_USER", fields);
     }
 
     public Request buildAddUserRequest() {
@@ -344,12 +383,72 @@ public class RequestBuilder {
         String username = scanner.nextLine();
         fields.put("username",username);
 
-        String serializedRequestContent = ProtocolHandler.serializeRequestContent(fields);
-
-        return new Request("REMOVE_USER", serializedRequestContent);
+        return new Request("REMOVE_USER", fields);
     }
 
     public Request buildListUsersRequest() {
-        return new Request("LIST_USERS", "");
+        Map<String,String> fields = new HashMap<>();
+
+        System.out.println("Please enter the beginning of a username, name or email to search for, or press enter to list all users:");
+        String search = scanner.nextLine();
+        if (!search.trim().isEmpty()) {
+            fields.put("search",search.trim());
+        }
+
+        System.out.println("Please enter the fields to show separated by commas (name,surname,birthdate,gender,email,location),");
+        System.out.println("or press enter to show all of them:");
+        String shownFields = scanner.nextLine();
+        if (!shownFields.trim().isEmpty()) {
+            fields.put("fields",shownFields.trim());
+        }
+
+        return new Request("LIST_USERS", fields);
+    }
+
+    // Asks whether to fetch the page of the user list that comes after 'cursor', with the same search and fields
+    // Returns null if the user does not want it
+    public Request buildNextUsersPageRequest(Request listUsersRequest, String cursor) {
+        System.out.println("Type 'n' to see more users, or press enter to go back:");
+        String answer = scanner.nextLine();
+
+        if (!answer.equalsIgnoreCase("n")) {
+            return null;
+        }
+
+        Map<String,String> fields = new HashMap<>(listUsersRequest.getRequestContentFields());
+        fields.put("cursor",cursor);
+
+        return new Request("LIST_USERS", fields);
+    }
+
+    // Asks for the file to import users from or export them to, returns null if none was given
+    public String buildUserFilePath(boolean isImport) {
+        if (isImport) {
+            System.out.println("Please enter the path of the file to import users from, with the header line:");
+            System.out.println(UserCsv.getImportHeader());
+        } else {
+            System.out.println("Please enter the path of the file to export the users to:");
+        }
+
+        String path = scanner.nextLine();
+
+        if (path == null || path.isBlank()) {
+            System.out.println("Unable to perform action. Path is not valid. Error: " + ResponseCode.INVALID_FIELD_VALUES);
+            return null;
+        }
+
+        return path.trim();
+    }
+
+    // One chunk of an import, see Client.importUsers
+    public Request buildBulkAddUsersRequest(List<Map<String, String>> userFieldsList) {
+        Map<String, String> fields = new HashMap<>();
+        fields.put("users", ProtocolHandler.serializeUserFieldsList(userFieldsList));
+
+        return new Request("BULK_ADD_USERS", fields);
+    }
+
+    public Request buildExportUsersRequest() {
+        return new Request("EXPORT_USERS", "");
     }
 }
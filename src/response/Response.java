@@ -1,30 +1,40 @@
 package response;
 
+import metrics.ServerMetrics;
 import server.ClientHandler;
-import utility.ProtocolHandler;
 
 public class Response {
     private final ResponseCode responseCode;
-    private final String serializedResponseContent;
+    private final ResponseContent responseContent;
 
     public Response(ResponseCode responseCode, String serializedResponseContent) {
+        this(responseCode, ResponseContent.ofText(serializedResponseContent));
+    }
+
+    public Response(ResponseCode responseCode, ResponseContent responseContent) {
         this.responseCode = responseCode;
-        this.serializedResponseContent = serializedResponseContent;
+        this.responseContent = responseContent;
     }
 
     public ResponseCode getResponseCode() {
         return responseCode;
     }
 
+    public ResponseContent getResponseContent() {
+        return responseContent;
+    }
+
     public String getSerializedResponseContent() {
-        return serializedResponseContent;
+        return responseContent.serialize();
     }
 
-    // Sends the response to client
+    // Sends the response to client, in the protocol negotiated on its connection
     public void send(ClientHandler clientHandler) {
-        String serializedResponse = ProtocolHandler.serializeResponse(this);
+        clientHandler.sendResponse(this);
+    }
 
-        // Send the serialized response to client
-        clientHandler.sendMessageToClient(serializedResponse);
+    // Same as send, also records how long serializing and writing the response took
+    public void send(ClientHandler clientHandler, ServerMetrics.ActionMetrics actionMetrics) {
+        clientHandler.sendResponse(this, actionMetrics);
     }
 }
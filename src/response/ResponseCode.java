@@ -1,7 +1,9 @@
 package response;
 
 public enum ResponseCode {
+    NEW_MESSAGE(100, "new message"), // Pushed by the server to a logged-in recipient, not a reply to a request
     SUCCESS(200, "success"),
+    PARTIAL_CONTENT(206, "partial content"), // One part of a streamed reply, followed by more parts and a final response
     LOGIN_FAIL(201, "login failed"), // Wrong password
     LOGOUT_FAIL(301, "logout failed"),
     UNAUTHORIZED(401, "unauthorized"),
@@ -21,6 +23,7 @@ public enum ResponseCode {
     }
 
     public String getCode() { return String.valueOf(code); }
+    public int getNumericCode() { return code; }
     public String getMessage() { return message; }
 
     @Override
@@ -0,0 +1,155 @@
+package response;
+
+import model.Message;
+import model.MessagePage;
+import model.User;
+import model.UserPage;
+import utility.ProtocolHandler;
+
+import java.util.ArrayList;
+
+// What a response carries, kept as model objects until the connection's protocol encodes it
+// Content received in the text format is kept as text and parsed when it is read
+public class ResponseContent {
+    public enum Kind {
+        EMPTY,
+        TEXT,
+        USER,
+        MESSAGE_BOX,
+        USERS_LIST
+    }
+
+    public static final ResponseContent EMPTY = new ResponseContent(Kind.EMPTY, "", null, null, null, null);
+
+    private MessagePage messagePage; // Only set by ofMessagePage, shares the text form with every response of the page
+
+    private final Kind kind;
+    private final User user;
+    private final ArrayList<Message> messageBox;
+    private final ArrayList<User> usersList;
+    private final String nextCursor; // Only for message boxes and user pages, null on the last page
+
+    private String serializedContent; // Text form, built on first use
+    private String serializedContentWithUserTable; // Text form of a message box with a user table, built on first use
+
+    private ResponseContent(Kind kind, String serializedContent, User user,
+                            ArrayList<Message> messageBox, ArrayList<User> usersList, String nextCursor) {
+        this.kind = kind;
+        this.serializedContent = serializedContent;
+        this.user = user;
+        this.messageBox = messageBox;
+        this.usersList = usersList;
+        this.nextCursor = nextCursor;
+    }
+
+    public static ResponseContent ofText(String serializedContent) {
+        return ofText(serializedContent, null);
+    }
+
+    // The text protocol sends the cursor of a message box or user page next to the content
+    public static ResponseContent ofText(String serializedContent, String nextCursor) {
+        if ((serializedContent == null || serializedContent.isEmpty()) && nextCursor == null) {
+            return EMPTY;
+        }
+        return new ResponseContent(Kind.TEXT, serializedContent, null, null, null, nextCursor);
+    }
+
+    public static ResponseContent ofUser(User user) {
+        return new ResponseContent(Kind.USER, null, user, null, null, null);
+    }
+
+    // Used for both inbox and outbox, they share the same format
+    public static ResponseContent ofMessageBox(ArrayList<Message> messageBox) {
+        return new ResponseContent(Kind.MESSAGE_BOX, null, null, messageBox, null, null);
+    }
+
+    public static ResponseContent ofMessagePage(MessagePage messagePage) {
+        ResponseContent content = new ResponseContent(Kind.MESSAGE_BOX, messagePage.getSerializedMessages(), null,
+                messagePage.getMessages(), null, messagePage.getNextCursor());
+        content.messagePage = messagePage;
+
+        return content;
+    }
+
+    public static ResponseContent ofUsersList(ArrayList<User> usersList) {
+        return new ResponseContent(Kind.USERS_LIST, null, null, null, usersList, null);
+    }
+
+    public static ResponseContent ofUserPage(UserPage userPage) {
+        return new ResponseContent(Kind.USERS_LIST, null, null, null, userPage.getUsers(), userPage.getNextCursor());
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    // Text protocol form of the content
+    public String serialize() {
+        if (serializedContent == null) {
+            switch (kind) {
+                case USER:
+                    serializedContent = ProtocolHandler.serializeUser(user);
+                    break;
+                case MESSAGE_BOX:
+                    serializedContent = ProtocolHandler.serializeInbox(messageBox);
+
+                    if (messagePage != null) {
+                        messagePage.setSerializedMessages(serializedContent);
+                    }
+                    break;
+                case USERS_LIST:
+                    serializedContent = ProtocolHandler.serializeUsersList(usersList);
+                    break;
+                default:
+                    serializedContent = "";
+            }
+        }
+
+        return serializedContent;
+    }
+
+    // useUserTable only changes message boxes, see ProtocolHandler.serializeMessageBoxWithUserTable
+    public String serialize(boolean useUserTable) {
+        if (!useUserTable || kind != Kind.MESSAGE_BOX) {
+            return serialize();
+        }
+
+        if (serializedContentWithUserTable == null) {
+            if (messagePage != null && messagePage.getSerializedMessagesWithUserTable() != null) {
+                serializedContentWithUserTable = messagePage.getSerializedMessagesWithUserTable();
+            } else {
+                serializedContentWithUserTable = ProtocolHandler.serializeMessageBoxWithUserTable(messageBox);
+
+                if (messagePage != null) {
+                    messagePage.setSerializedMessagesWithUserTable(serializedContentWithUserTable);
+                }
+            }
+        }
+
+        return serializedContentWithUserTable;
+    }
+
+    public User asUser() {
+        return (kind == Kind.USER) ? user : ProtocolHandler.parseUser(serialize());
+    }
+
+    public ArrayList<Message> asMessageBox() {
+        return (kind == Kind.MESSAGE_BOX) ? messageBox : ProtocolHandler.parseInbox(serialize());
+    }
+
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    public MessagePage asMessagePage() {
+        return new MessagePage(asMessageBox(), nextCursor);
+    }
+
+    public ArrayList<User> asUsersList() {
+        return (kind == Kind.USERS_LIST) ? usersList : ProtocolHandler.parseUsersList(serialize());
+    }
+
+    public UserPage asUserPage() {
+        return new UserPage(asUsersList(), nextCursor);
+    }
+}
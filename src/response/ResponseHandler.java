@@ -2,11 +2,14 @@ package response;
 
 import client.Client;
 import model.Message;
+import model.MessagePage;
 import model.User;
+import model.UserPage;
 import utility.ConsoleUI;
 import utility.ProtocolHandler;
 
 import java.util.ArrayList;
+import java.util.Map;
 
 // Class for handling the response client receives from the sever
 public class ResponseHandler {
@@ -18,11 +21,9 @@ public class ResponseHandler {
 
     public void handleLoginResponse(Response serverResponse) {
         ResponseCode responseCode = serverResponse.getResponseCode();
-        String serializedResponseContent = serverResponse.getSerializedResponseContent();
-
         if (responseCode == ResponseCode.SUCCESS) {
             client.setLoggedIn(true);
-            client.setUser(ProtocolHandler.parseUser(serializedResponseContent));
+            client.setUser(serverResponse.getResponseContent().asUser());
 
             System.out.println("Login Successful. Welcome " + client.getUser().getUsername());
         } else if  (responseCode == ResponseCode.LOGIN_FAIL) {
@@ -32,40 +33,68 @@ public class ResponseHandler {
         }
     }
 
-    public void handleInboxResponse(Response serverResponse) {
-        ResponseCode responseCode = serverResponse.getResponseCode();
-        String serializedResponseContent = serverResponse.getSerializedResponseContent();
+    // Called on the client's reader thread, whenever the server pushes a message sent to this user
+    public void handleNewMessagePush(Response serverPush) {
+        for (Message message : serverPush.getResponseContent().asMessageBox()) {
+            ConsoleUI.displayNewMessage(message);
+        }
+    }
 
+    // Returns the cursor of the next page, or null if there is none or the request failed
+    public String handleInboxResponse(Response serverResponse) {
+        ResponseCode responseCode = serverResponse.getResponseCode();
         if (responseCode ==  ResponseCode.SUCCESS) {
-            ArrayList<Message> inbox = ProtocolHandler.parseInbox(serializedResponseContent);
-            ConsoleUI.displayInbox(inbox);
+            MessagePage inboxPage = serverResponse.getResponseContent().asMessagePage();
+            ConsoleUI.displayInbox(inboxPage);
 
+            return inboxPage.getNextCursor();
+        } else if  (responseCode ==  ResponseCode.INVALID_FIELD_VALUES) {
+            System.out.println("Action failed. Error: " + responseCode);
         } else if  (responseCode ==  ResponseCode.ERROR) {
             System.out.println("Something went wrong. Please try again.");
         }
+
+        return null;
     }
 
-    public void handleOutboxResponse(Response serverResponse) {
+    // Returns the cursor of the next page, or null if there is none or the request failed
+    public String handleOutboxResponse(Response serverResponse) {
         ResponseCode responseCode = serverResponse.getResponseCode();
-        String serializedResponseContent = serverResponse.getSerializedResponseContent();
-
         if (responseCode ==  ResponseCode.SUCCESS) {
-            ArrayList<Message> outbox = ProtocolHandler.parseOutbox(serializedResponseContent);
-            ConsoleUI.displayOutbox(outbox);
+            MessagePage outboxPage = serverResponse.getResponseContent().asMessagePage();
+            ConsoleUI.displayOutbox(outboxPage);
+
+            return outboxPage.getNextCursor();
+        } else if  (responseCode ==  ResponseCode.INVALID_FIELD_VALUES) {
+            System.out.println("Action failed. Error: " + responseCode);
         } else if  (responseCode ==  ResponseCode.ERROR) {
             System.out.println("Something went wrong. Please try again.");
         }
+
+        return null;
     }
 
     public void handleSendMessageResponse(Response serverResponse) {
         ResponseCode responseCode = serverResponse.getResponseCode();
 
+        // Recipients the message could not be delivered to, only sent for messages with several recipients
+        Map<String, ResponseCode> failures =
+                ProtocolHandler.parseRecipientFailures(serverResponse.getResponseContent().serialize());
+
         if (responseCode == ResponseCode.SUCCESS) {
-            System.out.println("Message sent successfully.");
+            if (failures.isEmpty()) {
+                System.out.println("Message sent successfully.");
+            } else {
+                System.out.println("Message sent, except to:");
+                ConsoleUI.displayRecipientFailures(failures);
+            }
         } else if  (responseCode == ResponseCode.NOT_FOUND) {
             System.out.println("Action failed. Error: " + responseCode);
+            ConsoleUI.displayRecipientFailures(failures);
         } else if (responseCode == ResponseCode.INVALID_FIELD_VALUES) {
             System.out.println("Action failed. Error: " + responseCode);
+        } else if (responseCode == ResponseCode.UNAUTHORIZED) {
+            System.out.println("Action failed. Error: " + responseCode);
         } else if (responseCode == ResponseCode.ERROR) {
             System.out.println("Something went wrong. Please try again.");
         }
@@ -124,15 +153,61 @@ public class ResponseHandler {
         }
     }
 
-    public void handleListUsersResponse(Response serverResponse) {
+    // Returns how many users of the chunk were not added, or -1 if the import should stop
+    public int handleBulkAddUsersResponse(Response serverResponse) {
         ResponseCode responseCode = serverResponse.getResponseCode();
-        String serializedResponseContent = serverResponse.getSerializedResponseContent();
 
+        if (responseCode == ResponseCode.SUCCESS) {
+            // Users that could not be added, with the reason
+            Map<String, ResponseCode> failures =
+                    ProtocolHandler.parseRecipientFailures(serverResponse.getResponseContent().serialize());
+
+            if (!failures.isEmpty()) {
+                System.out.println("Some users could not be added:");
+                ConsoleUI.displayRecipientFailures(failures);
+            }
+
+            return failures.size();
+        } else if (responseCode == ResponseCode.INVALID_FIELD_VALUES) {
+            System.out.println("Action failed. Error: " + responseCode);
+        } else if (responseCode == ResponseCode.UNAUTHORIZED) {
+            System.out.println("Action failed. Error: " + responseCode);
+        } else if (responseCode == ResponseCode.ERROR) {
+            System.out.println("Something went wrong. Please try again.");
+        }
+
+        return -1;
+    }
+
+    // The final response of an export, after the PARTIAL_CONTENT responses that carried the users
+    public void handleExportUsersResponse(Response serverResponse, int exportedCount, String path) {
+        ResponseCode responseCode = serverResponse.getResponseCode();
+
+        if (responseCode == ResponseCode.SUCCESS) {
+            System.out.println(exportedCount + " users have been exported to " + path + ".");
+        } else if (responseCode == ResponseCode.UNAUTHORIZED) {
+            System.out.println("Action failed. Error: " + responseCode);
+        } else if (responseCode == ResponseCode.ERROR) {
+            System.out.println("Something went wrong after " + exportedCount + " users. Please try again.");
+        }
+    }
+
+    // Returns the cursor of the next page, or null if there is none or the request failed
+    public String handleListUsersResponse(Response serverResponse) {
+        ResponseCode responseCode = serverResponse.getResponseCode();
         if (responseCode ==  ResponseCode.SUCCESS) {
-            ArrayList<User> usersList = ProtocolHandler.parseUsersList(serializedResponseContent);
-            ConsoleUI.displayUsersList(usersList);
+            UserPage usersPage = serverResponse.getResponseContent().asUserPage();
+            ConsoleUI.displayUsersList(usersPage);
+
+            return usersPage.getNextCursor();
+        } else if (responseCode == ResponseCode.INVALID_FIELD_VALUES) {
+            System.out.println("Action failed. Error: " + responseCode);
+        } else if (responseCode == ResponseCode.UNAUTHORIZED) {
+            System.out.println("Action failed. Error: " + responseCode);
         } else if  (responseCode ==  ResponseCode.ERROR) {
             System.out.println("Something went wrong. Please try again.");
         }
+
+        return null;
     }
 }
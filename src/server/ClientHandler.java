@@ -2,40 +2,86 @@ package server;
 
 import action.*;
 import database.DB;
+import database.UsersTable;
+import logging.Logger;
+import metrics.ServerMetrics;
+import model.Message;
+import model.MessagePage;
 import model.User;
 import request.Request;
+import response.Response;
+import response.ResponseCode;
+import response.ResponseContent;
+import utility.BinaryProtocol;
 import utility.ProtocolHandler;
 
 import java.io.*;
 import java.net.Socket;
+import java.sql.Timestamp;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class ClientHandler implements Runnable {
+    private static final Logger log = Logger.getLogger(ClientHandler.class);
+
+    // Most bytes of a streamed reply waiting to be sent on an NIO connection, see awaitWriteCapacity
+    private static final long MAX_QUEUED_STREAM_BYTES = 1024 * 1024;
+
     // User for logging-out the users on removal
     private static final Map<String, ClientHandler> activeUsers = new ConcurrentHashMap<>();
 
+    // Pushes are written on their own threads, so that a slow recipient does not hold up the sender's request
+    private static final ExecutorService pushExecutor = Executors.newVirtualThreadPerTaskExecutor();
+
+    private static final AtomicLong nextSessionID = new AtomicLong(1);
+
     private Socket clientSocket; // this socket is on the server, so
     private BufferedReader bufferedReader; // this is what the server receives from the client
     private BufferedWriter bufferedWriter; // this is what the server send to the client
 
+    // Byte streams under the reader and writer, used instead of them when the binary protocol is negotiated
+    private BufferedInputStream inputStream;
+    private BufferedOutputStream outputStream;
+    private boolean isBinary = false;
+
+    private final Object writeLock = new Object(); // Responses may also be pushed from other handlers' threads
+
+    private NioConnection nioConnection; // Only set when the client is served by NioServer
+
     private DB db;
 
+    // Identifies this connection to the password verifier, whose checks are remembered for the connection only
+    private final long sessionID = nextSessionID.getAndIncrement();
+
     private User handledUser = null;
     private boolean isLoggedIn = false;
+    private volatile boolean isPushEnabled = false; // Only clients that asked for it at login read pushes
+    private volatile boolean isUserTableEnabled = false; // Text message boxes with a user table, asked for at login
 
     public ClientHandler(Socket clientSocket, DB db) {
         try {
             this.clientSocket = clientSocket;
-            this.bufferedReader = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
-            this.bufferedWriter = new BufferedWriter(new OutputStreamWriter(clientSocket.getOutputStream()));
+            this.inputStream = new BufferedInputStream(clientSocket.getInputStream());
+            this.outputStream = new BufferedOutputStream(clientSocket.getOutputStream());
+            this.bufferedReader = new BufferedReader(new InputStreamReader(inputStream));
+            this.bufferedWriter = new BufferedWriter(new OutputStreamWriter(outputStream));
             this.db = db;
         } catch (IOException e) {
             closeEverything(clientSocket, bufferedReader, bufferedWriter);
         }
     }
 
+    // Used by NioServer, requests are passed to handleRequest by the event loop instead of being read in run()
+    ClientHandler(NioConnection nioConnection, DB db) {
+        this.nioConnection = nioConnection;
+        this.db = db;
+    }
+
     public Socket getSocket() {
         return clientSocket;
     }
@@ -52,6 +98,10 @@ public class ClientHandler implements Runnable {
         return db;
     }
 
+    public long getSessionID() {
+        return sessionID;
+    }
+
     public User getHandledUser() {
         return handledUser;
     }
@@ -68,6 +118,18 @@ public class ClientHandler implements Runnable {
         this.isLoggedIn = isLoggedIn;
     }
 
+    public boolean isPushEnabled() {
+        return isPushEnabled;
+    }
+
+    public void setPushEnabled(boolean isPushEnabled) {
+        this.isPushEnabled = isPushEnabled;
+    }
+
+    public void setUserTableEnabled(boolean isUserTableEnabled) {
+        this.isUserTableEnabled = isUserTableEnabled;
+    }
+
     public static void registerUser(String username, ClientHandler handler) {
         activeUsers.put(username, handler);
     }
@@ -80,16 +142,132 @@ public class ClientHandler implements Runnable {
         return activeUsers.get(username);
     }
 
+    // Sends a NEW_MESSAGE push to the recipient if it is logged in and reads pushes
+    public static void notifyNewMessage(User sender, String receiverUsername, String title, String content,
+                                        Timestamp time) {
+        ClientHandler receiverHandler = getHandler(receiverUsername);
+
+        if (receiverHandler != null) {
+            receiverHandler.pushNewMessage(sender, title, content, time);
+        }
+    }
+
+    // Sends a NEW_MESSAGE push to every logged-in user except the sender
+    public static void notifyAllUsers(User sender, String title, String content, Timestamp time) {
+        for (Map.Entry<String, ClientHandler> activeUser : activeUsers.entrySet()) {
+            String username = activeUser.getKey();
+
+            if (!username.equals(sender.getUsername()) && !username.equals(UsersTable.getDeletedUsername())) {
+                activeUser.getValue().pushNewMessage(sender, title, content, time);
+            }
+        }
+    }
+
+    private void pushNewMessage(User sender, String title, String content, Timestamp time) {
+        User receiver = handledUser;
+
+        if (!isPushEnabled || receiver == null) {
+            return;
+        }
+
+        // The whole message goes with the push, so the client does not have to fetch its inbox for it
+        ArrayList<Message> messages = new ArrayList<>();
+        messages.add(new Message(sender, receiver, title, content, time));
+
+        Response push = new Response(ResponseCode.NEW_MESSAGE, ResponseContent.ofMessagePage(new MessagePage(messages, null)));
+
+        pushExecutor.execute(() -> sendResponse(push));
+    }
+
     public void sendMessageToClient(String message) {
+        if (nioConnection != null) {
+            nioConnection.send(message);
+            return;
+        }
+
+        try {
+            synchronized (writeLock) {
+                bufferedWriter.write(message);
+                bufferedWriter.newLine();
+                bufferedWriter.flush();
+            }
+        } catch (IOException e) {
+            closeEverything(clientSocket, bufferedReader, bufferedWriter);
+        }
+    }
+
+    // Sends the response in the protocol negotiated with the client
+    public void sendResponse(Response response) {
+        sendResponse(response, null);
+    }
+
+    // actionMetrics: where the serialize and send times are recorded, null to not record them
+    public void sendResponse(Response response, ServerMetrics.ActionMetrics actionMetrics) {
+        long start = System.nanoTime();
+
+        if (!isBinary) {
+            String serializedResponse = ProtocolHandler.serializeResponse(response, isUserTableEnabled);
+            long serialized = System.nanoTime();
+
+            sendMessageToClient(serializedResponse);
+
+            recordSendPhases(actionMetrics, start, serialized);
+            return;
+        }
+
         try {
-            bufferedWriter.write(message);
-            bufferedWriter.newLine();
-            bufferedWriter.flush();
+            // Encoded outside the lock, pushes from other threads only wait for the write
+            ByteArrayOutputStream encodedResponse = BinaryProtocol.encodeResponse(response);
+            long serialized = System.nanoTime();
+
+            synchronized (writeLock) {
+                BinaryProtocol.writeEncodedResponse(outputStream, encodedResponse);
+            }
+
+            recordSendPhases(actionMetrics, start, serialized);
         } catch (IOException e) {
             closeEverything(clientSocket, bufferedReader, bufferedWriter);
         }
     }
 
+    // Used between the parts of a streamed reply, so that a slow client does not make them pile up in memory
+    // A blocking socket already waits in write, an NIO connection waits here until most of its queue is sent
+    // Returns false if the client is gone and the rest of the reply can be skipped
+    public boolean awaitWriteCapacity() {
+        if (nioConnection != null) {
+            return nioConnection.awaitQueuedBytesBelow(MAX_QUEUED_STREAM_BYTES);
+        }
+
+        return clientSocket != null && !clientSocket.isClosed();
+    }
+
+    private static void recordSendPhases(ServerMetrics.ActionMetrics actionMetrics, long start, long serialized) {
+        if (actionMetrics != null) {
+            actionMetrics.recordSerialize(serialized - start);
+            actionMetrics.recordSend(System.nanoTime() - serialized);
+        }
+    }
+
+    // A client that wants the binary protocol starts with a handshake, a text client starts with its first request
+    private void negotiateProtocol() throws IOException {
+        inputStream.mark(1);
+        int firstByte = inputStream.read();
+
+        if (!BinaryProtocol.isHandshakeStart(firstByte)) {
+            inputStream.reset(); // Leave the byte for the text reader
+            return;
+        }
+
+        int offeredVersion = BinaryProtocol.readHandshakeAfterFirstByte(inputStream);
+        int chosenVersion = Math.min(offeredVersion, BinaryProtocol.VERSION);
+
+        synchronized (writeLock) {
+            BinaryProtocol.writeHandshake(outputStream, chosenVersion);
+        }
+
+        isBinary = chosenVersion != BinaryProtocol.TEXT_VERSION;
+    }
+
     public String readMessageFromClient() {
         try {
             return bufferedReader.readLine();
@@ -100,6 +278,15 @@ public class ClientHandler implements Runnable {
     }
 
     public Request getRequestFromClient() {
+        if (isBinary) {
+            try {
+                return BinaryProtocol.readRequest(inputStream);
+            } catch (IOException e) {
+                closeEverything(clientSocket, bufferedReader, bufferedWriter);
+                return null;
+            }
+        }
+
         String messageFromClient = readMessageFromClient();
 
         // If client has disconnected
@@ -112,6 +299,13 @@ public class ClientHandler implements Runnable {
 
     @Override
     public void run() { // This will run in a separate thread
+        try {
+            negotiateProtocol();
+        } catch (IOException e) {
+            log.debug("Client disconnected during the handshake.");
+            closeEverything(clientSocket, bufferedReader, bufferedWriter);
+            return;
+        }
 
         while (clientSocket.isConnected()) {
 
@@ -119,126 +313,157 @@ public class ClientHandler implements Runnable {
 
             // If client disconnected or sent invalid message
             if (clientRequest == null) {
-                System.out.println("Client disconnected.");
+                log.debug("Client disconnected.", "user", handledUser == null ? null : handledUser.getUsername());
                 closeEverything(clientSocket, bufferedReader, bufferedWriter);
                 break;
             }
 
-            String requestedAction = clientRequest.getAction();
-            String serializedRequestContent = clientRequest.getSerializedRequestContent();
-
-            Map<String, String> requestContentFields = ProtocolHandler.parseRequestContent(serializedRequestContent);
-
-            Action action;
-
-            switch (requestedAction) {
-                case "LOGIN":
-                    String username = requestContentFields.get("username");
-                    String password = requestContentFields.get("password");
-
-                    action = new LoginAction(username, password, this);
-                    break;
-
-                case "LOGOUT":
-                    action = new LogoutAction(handledUser.getUsername(), this);
-                    break;
-
-                case "INBOX":
-                    action = new InboxAction(this);
-                    break;
-
-                case "OUTBOX":
-                    action = new OutboxAction(this);
-                    break;
-
-                case "SEND_MESSAGE":
-                    String sender = handledUser.getUsername();
-                    String receiver = requestContentFields.get("receiver");
-                    String title = requestContentFields.get("title");
-                    String content = requestContentFields.get("content");
-                    String time = requestContentFields.get("time");
-
-                    Map<String, String> fields = new HashMap<>();
-                    fields.put("sender", sender);
-                    fields.put("receiver", receiver);
-                    fields.put("title", title);
-                    fields.put("content", content);
-                    fields.put("time", time);
-
-                    action = new SendMessageAction(fields, this);
-                    break;
-
-                case "ADD_USER":
-                    String usernameToAdd = requestContentFields.get("username");
-                    String passwordToAdd = requestContentFields.get("password");
-                    String nameToAdd = requestContentFields.get("name");
-                    String surnameToAdd = requestContentFields.get("surname");
-                    String birthdateToAdd = requestContentFields.get("birthdate");
-                    String genderToAdd = requestContentFields.get("gender");
-                    String emailToAdd = requestContentFields.get("email");
-                    String locationToAdd = requestContentFields.get("location");
-                    String isAdminToAdd = requestContentFields.get("isAdmin");
-
-                    Map<String, String> fieldsToAddAddUser = new HashMap<>();
-                    fieldsToAddAddUser.put("username", usernameToAdd);
-                    fieldsToAddAddUser.put("password", passwordToAdd);
-                    fieldsToAddAddUser.put("name", nameToAdd);
-                    fieldsToAddAddUser.put("surname", surnameToAdd);
-                    fieldsToAddAddUser.put("birthdate", birthdateToAdd);
-                    fieldsToAddAddUser.put("gender", genderToAdd);
-                    fieldsToAddAddUser.put("email", emailToAdd);
-                    fieldsToAddAddUser.put("location", locationToAdd);
-                    fieldsToAddAddUser.put("isAdmin", isAdminToAdd);
-
-                    action = new AddUserAction(fieldsToAddAddUser, this);
-                    break;
-
-                case "UPDATE_USER":
-                    String usernameToUpdate = requestContentFields.get("username");
-                    String updatedUsername = requestContentFields.get("newUsername");
-                    String updatedPassword = requestContentFields.get("password");
-                    String updatedName = requestContentFields.get("name");
-                    String updatedSurname = requestContentFields.get("surname");
-                    String updatedBirthdate = requestContentFields.get("birthdate");
-                    String updatedGender = requestContentFields.get("gender");
-                    String updatedEmail = requestContentFields.get("email");
-                    String updatedLocation = requestContentFields.get("location");
-                    String updatedIsAdmin = requestContentFields.get("isAdmin");
-
-                    Map<String, String> fieldsToAddUpdateUser = new HashMap<>();
-                    fieldsToAddUpdateUser.put("username", usernameToUpdate);
-                    fieldsToAddUpdateUser.put("newUsername", updatedUsername);
-                    fieldsToAddUpdateUser.put("password", updatedPassword);
-                    fieldsToAddUpdateUser.put("name", updatedName);
-                    fieldsToAddUpdateUser.put("surname", updatedSurname);
-                    fieldsToAddUpdateUser.put("birthdate", updatedBirthdate);
-                    fieldsToAddUpdateUser.put("gender", updatedGender);
-                    fieldsToAddUpdateUser.put("email", updatedEmail);
-                    fieldsToAddUpdateUser.put("location", updatedLocation);
-                    fieldsToAddUpdateUser.put("isAdmin", updatedIsAdmin);
-
-                    action = new UpdateUserAction(fieldsToAddUpdateUser, this);
-                    break;
-
-                case "REMOVE_USER":
-                    String usernameToRemove = requestContentFields.get("username");
-
-                    action = new RemoveUserAction(usernameToRemove, this);
-                    break;
-
-                case "LIST_USERS":
-                    action = new ListUsersAction(this);
-                    break;
-
-                default: // invalid action
-                    action = new ErrorAction(this);
-            }
+            handleRequest(clientRequest);
+        }
+    }
+
+    // Creates the action for the given request, executes it and sends the response
+    public void handleRequest(Request clientRequest) {
+        String requestedAction = clientRequest.getAction();
+        Map<String, String> requestContentFields = clientRequest.getRequestContentFields();
+
+        Action action;
+
+        switch (requestedAction) {
+            case "LOGIN":
+                String username = requestContentFields.get("username");
+                String password = requestContentFields.get("password");
+
+                String push = requestContentFields.get("push");
+                String userTable = requestContentFields.get("userTable");
+
+                action = new LoginAction(username, password, push, userTable, this);
+                break;
+
+            case "LOGOUT":
+                action = new LogoutAction(handledUser.getUsername(), this);
+                break;
+
+            case "INBOX":
+                action = new InboxAction(requestContentFields.get("pageSize"), requestContentFields.get("cursor"), this);
+                break;
+
+            case "OUTBOX":
+                action = new OutboxAction(requestContentFields.get("pageSize"), requestContentFields.get("cursor"), this);
+                break;
+
+            case "SEND_MESSAGE":
+                String sender = handledUser.getUsername();
+                String receiver = requestContentFields.get("receiver");
+                String receivers = requestContentFields.get("receivers");
+                String allUsers = requestContentFields.get("allUsers");
+                String title = requestContentFields.get("title");
+                String content = requestContentFields.get("content");
+                String time = requestContentFields.get("time");
+
+                Map<String, String> fields = new HashMap<>();
+                fields.put("sender", sender);
+                fields.put("receiver", receiver);
+                fields.put("receivers", receivers);
+                fields.put("allUsers", allUsers);
+                fields.put("title", title);
+                fields.put("content", content);
+                fields.put("time", time);
+
+                action = new SendMessageAction(fields, this);
+                break;
+
+            case "ADD_USER":
+                String usernameToAdd = requestContentFields.get("username");
+                String passwordToAdd = requestContentFields.get("password");
+                String nameToAdd = requestContentFields.get("name");
+                String surnameToAdd = requestContentFields.get("surname");
+                String birthdateToAdd = requestContentFields.get("birthdate");
+                String genderToAdd = requestContentFields.get("gender");
+                String emailToAdd = requestContentFields.get("email");
+                String locationToAdd = requestContentFields.get("location");
+                String isAdminToAdd = requestContentFields.get("isAdmin");
+
+                Map<String, String> fieldsToAddAddUser = new HashMap<>();
+                fieldsToAddAddUser.put("username", usernameToAdd);
+                fieldsToAddAddUser.put("password", passwordToAdd);
+                fieldsToAddAddUser.put("name", nameToAdd);
+                fieldsToAddAddUser.put("surname", surnameToAdd);
+                fieldsToAddAddUser.put("birthdate", birthdateToAdd);
+                fieldsToAddAddUser.put("gender", genderToAdd);
+                fieldsToAddAddUser.put("email", emailToAdd);
+                fieldsToAddAddUser.put("location", locationToAdd);
+                fieldsToAddAddUser.put("isAdmin", isAdminToAdd);
+
+                action = new AddUserAction(fieldsToAddAddUser, this);
+                break;
+
+            case "UPDATE_USER":
+                String usernameToUpdate = requestContentFields.get("username");
+                String updatedUsername = requestContentFields.get("newUsername");
+                String updatedPassword = requestContentFields.get("password");
+                String updatedName = requestContentFields.get("name");
+                String updatedSurname = requestContentFields.get("surname");
+                String updatedBirthdate = requestContentFields.get("birthdate");
+                String updatedGender = requestContentFields.get("gender");
+                String updatedEmail = requestContentFields.get("email");
+                String updatedLocation = requestContentFields.get("location");
+                String updatedIsAdmin = requestContentFields.get("isAdmin");
+
+                Map<String, String> fieldsToAddUpdateUser = new HashMap<>();
+                fieldsToAddUpdateUser.put("username", usernameToUpdate);
+                fieldsToAddUpdateUser.put("newUsername", updatedUsername);
+                fieldsToAddUpdateUser.put("password", updatedPassword);
+                fieldsToAddUpdateUser.put("name", updatedName);
+                fieldsToAddUpdateUser.put("surname", updatedSurname);
+                fieldsToAddUpdateUser.put("birthdate", updatedBirthdate);
+                fieldsToAddUpdateUser.put("gender", updatedGender);
+                fieldsToAddUpdateUser.put("email", updatedEmail);
+                fieldsToAddUpdateUser.put("location", updatedLocation);
+                fieldsToAddUpdateUser.put("isAdmin", updatedIsAdmin);
+
+                action = new UpdateUserAction(fieldsToAddUpdateUser, this);
+                break;
+
+            case "REMOVE_USER":
+                String usernameToRemove = requestContentFields.get("username");
 
-            action.validateAndExecute();
+                action = new RemoveUserAction(usernameToRemove, this);
+                break;
+
+            case "LIST_USERS":
+                String usersPageSize = requestContentFields.get("pageSize");
+                String usersCursor = requestContentFields.get("cursor");
+                String usersSearch = requestContentFields.get("search");
+                String usersFields = requestContentFields.get("fields");
+
+                action = new ListUsersAction(usersPageSize, usersCursor, usersSearch, usersFields, this);
+                break;
+
+            case "BULK_ADD_USERS":
+                action = new BulkAddUsersAction(requestContentFields.get("users"), this);
+                break;
+
+            case "EXPORT_USERS":
+                action = new ExportUsersAction(this);
+                break;
+
+            default: // invalid action
+                action = new ErrorAction(this);
         }
+
+        action.validateAndExecute();
     }
 
     public void closeEverything(Socket clientSocket, BufferedReader bufferedReader, BufferedWriter bufferedWriter) {
+        if (nioConnection != null) {
+            nioConnection.close();
+        }
+
+        if (db != null) {
+            db.forgetSession(sessionID);
+        }
+
         try {
             if (bufferedReader != null) {   // When you close the upper wrapper, the underlying stream
                 // 'InputStreamReader' is also closed
@@ -256,7 +481,7 @@ public class ClientHandler implements Runnable {
                 unregisterUser(handledUser.getUsername());
             }
         } catch (IOException e) {
-            e.printStackTrace();
+            log.warn("Connection could not be closed.", "error", e.getMessage());
         }
     }
 }
@@ -0,0 +1,45 @@
+package server;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Strategies the server can use to run a ClientHandler for each accepted connection
+public enum ExecutionMode {
+    THREAD("thread"),   // One platform thread per connection (original behaviour)
+    VIRTUAL("virtual"), // One virtual thread per connection, idle sessions cost a few hundred bytes instead of a stack
+    POOL("pool"),       // Fixed pool of platform threads, one per admitted connection
+    NIO("nio");         // Selector event loops per core, requests run on a shared worker pool (see NioServer)
+
+    // Workers only run while a request is being handled, they mostly wait on the database
+    private static final int NIO_WORKERS_PER_CORE = 4;
+
+    private final String name;
+
+    ExecutionMode(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public ExecutorService createExecutor(int maxConnections) {
+        switch (this) {
+            case VIRTUAL:
+                return Executors.newVirtualThreadPerTaskExecutor();
+            case POOL:
+                return Executors.newFixedThreadPool(maxConnections);
+            case NIO:
+                return Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors() * NIO_WORKERS_PER_CORE);
+            default:
+                return Executors.newThreadPerTaskExecutor(Thread::new);
+        }
+    }
+
+    public static ExecutionMode fromName(String name) {
+        for (ExecutionMode mode : values()) {
+            if (mode.name.equalsIgnoreCase(name)) return mode;
+        }
+        throw new IllegalArgumentException("Unknown execution mode: " + name);
+    }
+}
@@ -0,0 +1,257 @@
+package server;
+
+import database.DB;
+import logging.Logger;
+import request.Request;
+import utility.BinaryProtocol;
+import utility.ProtocolHandler;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+// A non-blocking client connection owned by one NioEventLoop
+// Reading and writing happen on the event loop, requests are executed on the worker pool
+class NioConnection {
+    private static final Logger log = Logger.getLogger(NioConnection.class);
+
+    private static final int MAX_LINE_LENGTH = 1 << 20; // Requests longer than this are treated as a broken client
+    private static final long WRITE_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final SocketChannel channel;
+    private final NioEventLoop eventLoop;
+    private final ExecutorService workers;
+    private final Runnable onClose;
+    private final ClientHandler clientHandler;
+
+    private SelectionKey key;
+
+    // Bytes of the request line that has not been terminated by a newline yet, grows on demand
+    private byte[] lineBuffer = new byte[0];
+    private int lineLength = 0;
+
+    // Serialized responses waiting for the channel to become writable
+    private final Queue<ByteBuffer> writeQueue = new ConcurrentLinkedQueue<>();
+    private final AtomicLong queuedBytes = new AtomicLong(); // Of the responses in writeQueue, see awaitQueuedBytesBelow
+
+    // Requests of one client are executed one at a time and in order
+    private final ArrayDeque<String> pendingRequests = new ArrayDeque<>();
+    private boolean isProcessing = false;
+
+    private final AtomicBoolean isClosed = new AtomicBoolean(false);
+
+    // The NIO front end only speaks the text protocol, a binary handshake is answered with the text version
+    private static final int HANDSHAKE_LENGTH = 4;
+    private boolean isFirstByte = true;
+    private int handshakeBytesRemaining = 0;
+
+    NioConnection(SocketChannel channel, NioEventLoop eventLoop, ExecutorService workers, DB db, Runnable onClose) {
+        this.channel = channel;
+        this.eventLoop = eventLoop;
+        this.workers = workers;
+        this.onClose = onClose;
+        this.clientHandler = new ClientHandler(this, db);
+    }
+
+    SocketChannel getChannel() {
+        return channel;
+    }
+
+    void setKey(SelectionKey key) {
+        this.key = key;
+    }
+
+    // Called on the event loop when the channel is readable, readBuffer is shared by all connections of the loop
+    void onReadable(ByteBuffer readBuffer) throws IOException {
+        readBuffer.clear();
+        int bytesRead = channel.read(readBuffer);
+
+        if (bytesRead == -1) {
+            log.debug("Client disconnected.");
+            close();
+            return;
+        }
+
+        readBuffer.flip();
+
+        while (readBuffer.hasRemaining()) {
+            byte b = readBuffer.get();
+
+            if (isFirstByte) {
+                isFirstByte = false;
+
+                if (BinaryProtocol.isHandshakeStart(b)) {
+                    handshakeBytesRemaining = HANDSHAKE_LENGTH - 1;
+                    continue;
+                }
+            }
+
+            if (handshakeBytesRemaining > 0) {
+                if (--handshakeBytesRemaining == 0) {
+                    ByteArrayOutputStream handshake = new ByteArrayOutputStream(HANDSHAKE_LENGTH);
+                    BinaryProtocol.writeHandshake(handshake, BinaryProtocol.TEXT_VERSION);
+                    queueWrite(ByteBuffer.wrap(handshake.toByteArray()));
+                }
+                continue;
+            }
+
+            if (b == '\n') {
+                int end = lineLength;
+                if (end > 0 && lineBuffer[end - 1] == '\r') {
+                    end--;
+                }
+
+                enqueueRequest(new String(lineBuffer, 0, end, StandardCharsets.UTF_8));
+                lineLength = 0;
+
+                // Do not keep a large buffer around for a connection that is idle most of the time
+                if (lineBuffer.length > 4096) {
+                    lineBuffer = new byte[0];
+                }
+            } else {
+                if (lineLength == MAX_LINE_LENGTH) {
+                    log.warn("Request too long, closing connection.", "maxLength", MAX_LINE_LENGTH);
+                    close();
+                    return;
+                }
+
+                if (lineLength == lineBuffer.length) {
+                    lineBuffer = Arrays.copyOf(lineBuffer, Math.min(MAX_LINE_LENGTH, Math.max(256, lineLength * 2)));
+                }
+
+                lineBuffer[lineLength++] = b;
+            }
+        }
+    }
+
+    // Called on the event loop when the channel is writable
+    void onWritable() throws IOException {
+        ByteBuffer buffer;
+
+        while ((buffer = writeQueue.peek()) != null) {
+            channel.write(buffer);
+
+            if (buffer.hasRemaining()) {
+                return; // Socket send buffer is full, wait for the next OP_WRITE
+            }
+
+            writeQueue.poll();
+            queuedBytes.addAndGet(-buffer.limit());
+        }
+
+        key.interestOps(SelectionKey.OP_READ);
+    }
+
+    // Called on the event loop after send() queued a response
+    void enableWrite() {
+        try {
+            if (key != null && key.isValid()) {
+                key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            }
+        } catch (CancelledKeyException ignored) { // Closed by a worker after the validity check
+        }
+    }
+
+    // Queues a line to the client, can be called from any thread
+    void send(String message) {
+        if (isClosed.get()) {
+            return;
+        }
+
+        byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = ByteBuffer.allocate(bytes.length + 1);
+        buffer.put(bytes).put((byte) '\n').flip();
+
+        queueWrite(buffer);
+    }
+
+    private void queueWrite(ByteBuffer buffer) {
+        queuedBytes.addAndGet(buffer.limit());
+        writeQueue.add(buffer);
+        eventLoop.execute(this::enableWrite);
+    }
+
+    // Blocks the calling worker until the queued responses fit in maxBytes, for responses that are streamed
+    // Returns false if the connection is closed
+    boolean awaitQueuedBytesBelow(long maxBytes) {
+        while (!isClosed.get() && queuedBytes.get() > maxBytes) {
+            LockSupport.parkNanos(WRITE_WAIT_NANOS);
+        }
+
+        return !isClosed.get();
+    }
+
+    private void enqueueRequest(String serializedRequest) {
+        synchronized (pendingRequests) {
+            pendingRequests.add(serializedRequest);
+
+            if (isProcessing) {
+                return;
+            }
+            isProcessing = true;
+        }
+
+        workers.execute(this::processRequests);
+    }
+
+    // Runs on a worker thread until there are no more pending requests of this client
+    private void processRequests() {
+        while (true) {
+            String serializedRequest;
+
+            synchronized (pendingRequests) {
+                serializedRequest = pendingRequests.poll();
+
+                if (serializedRequest == null || isClosed.get()) {
+                    isProcessing = false;
+                    return;
+                }
+            }
+
+            try {
+                Request clientRequest = ProtocolHandler.parseRequest(serializedRequest);
+                clientHandler.handleRequest(clientRequest);
+            } catch (RuntimeException e) {
+                // Same outcome as an exception escaping ClientHandler.run in the blocking server
+                log.error("Request failed, closing connection.", "error", e);
+                close();
+            }
+        }
+    }
+
+    void close() {
+        if (!isClosed.compareAndSet(false, true)) {
+            return;
+        }
+
+        if (key != null) {
+            key.cancel();
+        }
+
+        try {
+            channel.close();
+        } catch (IOException e) {
+            log.warn("Channel could not be closed.", "error", e.getMessage());
+        }
+
+        writeQueue.clear();
+        queuedBytes.set(0);
+        onClose.run();
+
+        // Unregisters the logged-in user, the nested close() call returns immediately
+        clientHandler.closeEverything(null, null, null);
+    }
+}
@@ -0,0 +1,100 @@
+package server;
+
+import logging.Logger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+// A single thread that multiplexes the IO of many NioConnections with one Selector
+class NioEventLoop implements Runnable {
+    private static final Logger log = Logger.getLogger(NioEventLoop.class);
+
+    private final Selector selector;
+
+    // Work handed over by other threads, run by the loop between two selects
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+    // Only the loop thread reads from sockets, so one buffer is enough for all of its connections
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(16 * 1024);
+
+    private volatile boolean isRunning = true;
+
+    NioEventLoop() throws IOException {
+        this.selector = Selector.open();
+    }
+
+    // Runs the given task on the loop thread
+    void execute(Runnable task) {
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    void register(NioConnection connection) {
+        execute(() -> {
+            try {
+                SelectionKey key = connection.getChannel().register(selector, SelectionKey.OP_READ, connection);
+                connection.setKey(key);
+            } catch (ClosedChannelException e) {
+                connection.close();
+            }
+        });
+    }
+
+    void shutdown() {
+        isRunning = false;
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (isRunning) {
+                selector.select();
+
+                Runnable task;
+                while ((task = tasks.poll()) != null) {
+                    task.run();
+                }
+
+                Iterator<SelectionKey> selectedKeys = selector.selectedKeys().iterator();
+
+                while (selectedKeys.hasNext()) {
+                    SelectionKey key = selectedKeys.next();
+                    selectedKeys.remove();
+
+                    NioConnection connection = (NioConnection) key.attachment();
+
+                    try {
+                        if (key.isValid() && key.isReadable()) {
+                            connection.onReadable(readBuffer);
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            connection.onWritable();
+                        }
+                    } catch (IOException | CancelledKeyException e) { // Key is cancelled when a worker closes the connection
+                        connection.close();
+                    }
+                }
+            }
+        } catch (IOException e) {
+            log.error("Event loop stopped.", "error", e);
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                ((NioConnection) key.attachment()).close();
+            }
+
+            try {
+                selector.close();
+            } catch (IOException e) {
+                log.warn("Selector could not be closed.", "error", e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package server;
+
+import database.DB;
+import logging.Logger;
+
+import java.io.IOException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+
+// Non-blocking front end for the line protocol
+// Connections are spread over one NioEventLoop per core, so an idle client does not hold a thread
+public class NioServer {
+    private static final Logger log = Logger.getLogger(NioServer.class);
+
+    private final ServerSocketChannel serverChannel;
+    private final DB db;
+    private final ExecutorService workers;
+    private final Semaphore connectionPermits;
+
+    private final NioEventLoop[] eventLoops;
+    private int nextEventLoop = 0;
+
+    public NioServer(ServerSocketChannel serverChannel, DB db, ExecutorService workers,
+                     Semaphore connectionPermits, int eventLoopCount) throws IOException {
+        this.serverChannel = serverChannel;
+        this.db = db;
+        this.workers = workers;
+        this.connectionPermits = connectionPermits;
+
+        eventLoops = new NioEventLoop[eventLoopCount];
+        for (int i = 0; i < eventLoopCount; i++) {
+            eventLoops[i] = new NioEventLoop();
+        }
+    }
+
+    // Accepts connections on the calling thread until the server channel is closed
+    public void start() throws IOException {
+        for (int i = 0; i < eventLoops.length; i++) {
+            new Thread(eventLoops[i], "nio-event-loop-" + i).start();
+        }
+
+        try {
+            while (serverChannel.isOpen()) {
+                SocketChannel clientChannel = serverChannel.accept();
+
+                if (!connectionPermits.tryAcquire()) {
+                    log.warn("Connection limit reached, refusing client.", "remote", clientChannel.getRemoteAddress());
+                    clientChannel.close();
+                    continue;
+                }
+
+                log.debug("A new client has connected.", "remote", clientChannel.getRemoteAddress());
+                clientChannel.configureBlocking(false);
+
+                NioEventLoop eventLoop = eventLoops[nextEventLoop];
+                nextEventLoop = (nextEventLoop + 1) % eventLoops.length;
+
+                NioConnection connection = new NioConnection(clientChannel, eventLoop, workers, db,
+                        connectionPermits::release);
+                eventLoop.register(connection);
+            }
+        } finally {
+            for (NioEventLoop eventLoop : eventLoops) {
+                eventLoop.shutdown();
+            }
+        }
+    }
+}
@@ -1,69 +1,146 @@
 package server;
 
 import database.DB;
+import logging.Logger;
+import metrics.ServerMetrics;
 
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
 import java.sql.SQLException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
 
 public class Server {
+    private static final Logger log = Logger.getLogger(Server.class);
+
+    // Used when no command line arguments are given
+    private static final ExecutionMode DEFAULT_EXECUTION_MODE = ExecutionMode.THREAD;
+    private static final int DEFAULT_MAX_CONNECTIONS = 10000;
+
     private final ServerSocket serverSocket;
     private final DB db;
 
+    private final ExecutionMode executionMode;
+    private final int maxConnections;
+    private final ExecutorService executor;
+    private final Semaphore connectionPermits; // Admission limit, one permit per open connection
+
     public Server(ServerSocket serverSocket) {
+        this(serverSocket, DEFAULT_EXECUTION_MODE, DEFAULT_MAX_CONNECTIONS);
+    }
+
+    public Server(ServerSocket serverSocket, ExecutionMode executionMode, int maxConnections) {
+        this(serverSocket, executionMode, maxConnections, openDB());
+    }
+
+    // Serves clients from the given database, e.g. an in-memory stand-in
+    public Server(ServerSocket serverSocket, ExecutionMode executionMode, int maxConnections, DB db) {
         this.serverSocket = serverSocket;
+        this.executionMode = executionMode;
+        this.maxConnections = maxConnections;
+        this.executor = executionMode.createExecutor(maxConnections);
+        this.connectionPermits = new Semaphore(maxConnections);
+        this.db = db;
+    }
 
-        DB tempDB;
+    private static DB openDB() {
         try {
-            tempDB = new DB();
+            return new DB();
         } catch (SQLException e) {
-            System.out.println("Cannot create connection to database.");
-            tempDB = null;
+            log.error("Cannot create connection to database.", "error", e.getMessage());
+            return null;
         }
-        db = tempDB;
     }
 
     public void startServer() {
+        log.info("Server started.", "mode", executionMode.getName(), "maxConnections", maxConnections);
+
+        ServerMetrics.registerMBean();
+
         try {
+            if (executionMode == ExecutionMode.NIO) {
+                startNioServer();
+                return;
+            }
+
             while (!serverSocket.isClosed()) {
                 Socket clientSocket = serverSocket.accept();
-                System.out.println("A new client has connected!");
+
+                // Refuse the connection instead of queueing it behind sessions that may stay idle for hours
+                if (!connectionPermits.tryAcquire()) {
+                    log.warn("Connection limit reached, refusing client.", "remote", clientSocket.getRemoteSocketAddress());
+                    clientSocket.close();
+                    continue;
+                }
+
+                log.debug("A new client has connected.", "remote", clientSocket.getRemoteSocketAddress());
                 ClientHandler clientHandler = new ClientHandler(clientSocket, db); // will handle this current client
 
-                Thread thread = new Thread(clientHandler);
-                thread.start();
+                executor.execute(() -> {
+                    try {
+                        clientHandler.run();
+                    } finally {
+                        connectionPermits.release();
+                    }
+                });
             }
         }
         catch (IOException e) {
-            e.printStackTrace();
+            log.error("Server stopped accepting clients.", "error", e);
         } finally {
             closeServer();
         }
     }
 
+    private void startNioServer() throws IOException {
+        ServerSocketChannel serverChannel = serverSocket.getChannel();
+
+        if (serverChannel == null) {
+            throw new IOException("NIO mode requires a server socket opened through ServerSocketChannel.");
+        }
+
+        NioServer nioServer = new NioServer(serverChannel, db, executor, connectionPermits,
+                Runtime.getRuntime().availableProcessors());
+        nioServer.start();
+    }
+
     public void closeServer() {
         try {
             if (serverSocket != null && !serverSocket.isClosed()) {
                 serverSocket.close();
             }
         } catch (IOException e) {
-            e.printStackTrace();
+            log.error("Server socket could not be closed.", "error", e);
         }
 
+        executor.shutdown();
+
+        log.info("Server stopped, metrics:\n" + ServerMetrics.getInstance().getReport().trim());
+
         try {
             if (db != null) {
                 db.close();
             }
         } catch (SQLException e) {
-            e.printStackTrace();
+            log.error("Database could not be closed.", "error", e);
         }
     }
 
+    // Usage: java server.Server [thread|virtual|pool|nio] [maxConnections]
     public static void main(String[] args) throws IOException {
+        ExecutionMode executionMode = (args.length > 0) ? ExecutionMode.fromName(args[0]) : DEFAULT_EXECUTION_MODE;
+        int maxConnections = (args.length > 1) ? Integer.parseInt(args[1]) : DEFAULT_MAX_CONNECTIONS;
+
         // Our server will listen to clients that connects to port 1234
-        ServerSocket serverSocket = new ServerSocket(1234);
-        Server server = new Server(serverSocket);
+        // Opened through a channel so that the same socket can be used by the blocking and the NIO front end
+        ServerSocketChannel serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(1234));
+        ServerSocket serverSocket = serverChannel.socket();
+
+        Server server = new Server(serverSocket, executionMode, maxConnections);
 
         if (server.db != null) {
             server.startServer();
@@ -0,0 +1,477 @@
+package utility;
+
+import model.Message;
+import model.MessagePage;
+import model.UserPage;
+import model.User;
+import request.Request;
+import response.Response;
+import response.ResponseCode;
+import response.ResponseContent;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/*
+    Length-prefixed binary protocol, an alternative to the text format of ProtocolHandler
+
+    Handshake (right after connecting, before any request):
+        client -> server: 0x00 'M' 'B' <highest version the client supports>
+        server -> client: 0x00 'M' 'B' <chosen version, 0 means stay on the text protocol>
+    A text client never sends 0x00 as its first byte, so the server can tell them apart.
+
+    Frame:    varint(length of body) body
+    Request:  opcode, varint(field count), field*
+    Field:    tag, string              (tag 0 is followed by the key as a string)
+    Response: varint(response code), content kind, content
+    String:   varint(length in UTF-8 bytes + 1) bytes, 0 means null
+    User:     username, name, surname, birthdate, gender, email, location as strings, isAdmin as a byte
+    Messages: varint(user count) user*, varint(message count)
+              (varint sender index, varint receiver index, title, content, varlong millis, varint nanos)*
+              next page cursor as a string
+ */
+
+// Utility class for encoding and decoding the binary network protocol
+public class BinaryProtocol {
+    public static final int VERSION = 1;
+    public static final int TEXT_VERSION = 0;
+
+    private static final byte[] HANDSHAKE_MAGIC = {0x00, 'M', 'B'};
+    private static final int MAX_FRAME_LENGTH = 16 * 1024 * 1024;
+
+    // Opcode 0 is followed by the action name, for actions this version does not know
+    private static final String[] ACTIONS = {
+            null, "LOGIN", "LOGOUT", "INBOX", "OUTBOX", "SEND_MESSAGE",
+            "ADD_USER", "UPDATE_USER", "REMOVE_USER", "LIST_USERS", "BULK_ADD_USERS", "EXPORT_USERS"
+    };
+
+    // Tag 0 is followed by the key, for keys this version does not know
+    private static final String[] FIELD_KEYS = {
+            null, "username", "password", "newUsername", "name", "surname", "birthdate", "gender",
+            "email", "location", "isAdmin", "sender", "receiver", "title", "content", "time",
+            "pageSize", "cursor", "receivers", "allUsers", "push", "userTable", "users",
+            "search", "fields"
+    };
+
+    private static final Map<String, Integer> ACTION_OPCODES = indexOf(ACTIONS);
+    private static final Map<String, Integer> FIELD_TAGS = indexOf(FIELD_KEYS);
+
+    private static Map<String, Integer> indexOf(String[] names) {
+        Map<String, Integer> index = new HashMap<>();
+        for (int i = 1; i < names.length; i++) {
+            index.put(names[i], i);
+        }
+        return index;
+    }
+
+    // ---- Handshake ----
+
+    public static void writeHandshake(OutputStream out, int version) throws IOException {
+        out.write(HANDSHAKE_MAGIC);
+        out.write(version);
+        out.flush();
+    }
+
+    // Reads the rest of a handshake whose first byte (0x00) was already consumed, returns the offered version
+    public static int readHandshakeAfterFirstByte(InputStream in) throws IOException {
+        for (int i = 1; i < HANDSHAKE_MAGIC.length; i++) {
+            if (readByte(in) != HANDSHAKE_MAGIC[i]) {
+                throw new IOException("Invalid protocol handshake.");
+            }
+        }
+        return readByte(in);
+    }
+
+    public static int readHandshake(InputStream in) throws IOException {
+        if (readByte(in) != HANDSHAKE_MAGIC[0]) {
+            throw new IOException("Invalid protocol handshake.");
+        }
+        return readHandshakeAfterFirstByte(in);
+    }
+
+    public static boolean isHandshakeStart(int firstByte) {
+        return firstByte == HANDSHAKE_MAGIC[0];
+    }
+
+    // ---- Requests ----
+
+    public static void writeRequest(OutputStream out, Request request) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream(128);
+
+        Integer opcode = ACTION_OPCODES.get(request.getAction());
+        if (opcode == null) {
+            body.write(0);
+            writeString(body, request.getAction());
+        } else {
+            body.write(opcode);
+        }
+
+        Map<String, String> fields = request.getRequestContentFields();
+        writeVarint(body, fields.size());
+
+        for (Map.Entry<String, String> field : fields.entrySet()) {
+            Integer tag = FIELD_TAGS.get(field.getKey());
+            if (tag == null) {
+                body.write(0);
+                writeString(body, field.getKey());
+            } else {
+                body.write(tag);
+            }
+            writeString(body, field.getValue());
+        }
+
+        writeFrame(out, body);
+    }
+
+    // Returns null if the peer closed the connection
+    public static Request readRequest(InputStream in) throws IOException {
+        Decoder body = readFrame(in);
+        if (body == null) {
+            return null;
+        }
+
+        int opcode = body.readByte();
+        String action = (opcode == 0) ? body.readString() : nameOf(ACTIONS, opcode);
+
+        int fieldCount = body.readCount();
+        Map<String, String> fields = new HashMap<>();
+
+        for (int i = 0; i < fieldCount; i++) {
+            int tag = body.readByte();
+            String key = (tag == 0) ? body.readString() : nameOf(FIELD_KEYS, tag);
+            fields.put(key, body.readString());
+        }
+
+        return new Request(action, fields);
+    }
+
+    // ---- Responses ----
+
+    public static void writeResponse(OutputStream out, Response response) throws IOException {
+        writeEncodedResponse(out, encodeResponse(response));
+    }
+
+    // Frame body of the response, for callers that encode and write separately
+    public static ByteArrayOutputStream encodeResponse(Response response) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream(256);
+        ResponseContent content = response.getResponseContent();
+
+        writeVarint(body, response.getResponseCode().getNumericCode());
+        body.write(content.getKind().ordinal());
+
+        switch (content.getKind()) {
+            case TEXT:
+                writeString(body, content.serialize());
+                break;
+            case USER:
+                writeUser(body, content.asUser());
+                break;
+            case MESSAGE_BOX:
+                writeMessageBox(body, content.asMessageBox());
+                writeString(body, content.getNextCursor());
+                break;
+            case USERS_LIST:
+                ArrayList<User> usersList = content.asUsersList();
+                writeVarint(body, usersList.size());
+                for (User user : usersList) {
+                    writeUser(body, user);
+                }
+                writeString(body, content.getNextCursor());
+                break;
+            default:
+                break;
+        }
+
+        return body;
+    }
+
+    public static void writeEncodedResponse(OutputStream out, ByteArrayOutputStream encodedResponse) throws IOException {
+        writeFrame(out, encodedResponse);
+    }
+
+    // Returns null if the peer closed the connection
+    public static Response readResponse(InputStream in) throws IOException {
+        Decoder body = readFrame(in);
+        if (body == null) {
+            return null;
+        }
+
+        ResponseCode responseCode = ResponseCode.fromCode(body.readVarint());
+        int kind = body.readByte();
+
+        if (kind >= ResponseContent.Kind.values().length) {
+            throw new IOException("Unknown response content kind: " + kind);
+        }
+
+        switch (ResponseContent.Kind.values()[kind]) {
+            case TEXT:
+                return new Response(responseCode, ResponseContent.ofText(body.readString()));
+            case USER:
+                return new Response(responseCode, ResponseContent.ofUser(body.readUser()));
+            case MESSAGE_BOX:
+                ArrayList<Message> messageBox = body.readMessageBox();
+                String nextCursor = body.readString();
+                return new Response(responseCode, ResponseContent.ofMessagePage(new MessagePage(messageBox, nextCursor)));
+            case USERS_LIST:
+                int userCount = body.readCount();
+                ArrayList<User> usersList = new ArrayList<>(userCount);
+                for (int i = 0; i < userCount; i++) {
+                    usersList.add(body.readUser());
+                }
+                String nextUsersCursor = body.readString();
+                return new Response(responseCode, ResponseContent.ofUserPage(new UserPage(usersList, nextUsersCursor)));
+            default:
+                return new Response(responseCode, ResponseContent.EMPTY);
+        }
+    }
+
+    // ---- Content ----
+
+    private static void writeUser(OutputStream out, User user) throws IOException {
+        writeString(out, user.getUsername());
+        writeString(out, user.getName());
+        writeString(out, user.getSurname());
+        writeString(out, user.getBirthdate());
+        writeString(out, user.getGender());
+        writeString(out, user.getEmail());
+        writeString(out, user.getLocation());
+        out.write(user.isAdmin() ? 1 : 0);
+    }
+
+    // Every distinct user is written once, messages refer to them by index
+    private static void writeMessageBox(OutputStream out, ArrayList<Message> messageBox) throws IOException {
+        Map<User, Integer> userIndexes = new IdentityHashMap<>();
+        ArrayList<User> users = new ArrayList<>();
+
+        for (Message message : messageBox) {
+            for (User user : new User[]{message.getSender(), message.getReceiver()}) {
+                if (!userIndexes.containsKey(user)) {
+                    userIndexes.put(user, users.size());
+                    users.add(user);
+                }
+            }
+        }
+
+        writeVarint(out, users.size());
+        for (User user : users) {
+            writeUser(out, user);
+        }
+
+        writeVarint(out, messageBox.size());
+        for (Message message : messageBox) {
+            writeVarint(out, userIndexes.get(message.getSender()));
+            writeVarint(out, userIndexes.get(message.getReceiver()));
+            writeString(out, message.getTitle());
+            writeString(out, message.getContent());
+            writeVarlong(out, message.getTime().getTime());
+            writeVarint(out, message.getTime().getNanos());
+        }
+    }
+
+    // ---- Primitives ----
+
+    private static void writeFrame(OutputStream out, ByteArrayOutputStream body) throws IOException {
+        writeVarint(out, body.size());
+        body.writeTo(out);
+        out.flush();
+    }
+
+    private static Decoder readFrame(InputStream in) throws IOException {
+        int first = in.read();
+        if (first == -1) {
+            return null;
+        }
+
+        int length = readVarint(in, first);
+        if (length < 0 || length > MAX_FRAME_LENGTH) {
+            throw new IOException("Invalid frame length: " + length);
+        }
+
+        byte[] body = in.readNBytes(length);
+        if (body.length != length) {
+            throw new EOFException("Connection closed in the middle of a frame.");
+        }
+
+        return new Decoder(body);
+    }
+
+    private static void writeVarint(OutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static void writeVarlong(OutputStream out, long value) throws IOException {
+        // Zig-zag, so timestamps before 1970 stay short as well
+        long zigZag = (value << 1) ^ (value >> 63);
+
+        while ((zigZag & ~0x7FL) != 0) {
+            out.write((int) ((zigZag & 0x7F) | 0x80));
+            zigZag >>>= 7;
+        }
+        out.write((int) zigZag);
+    }
+
+    private static void writeString(OutputStream out, String value) throws IOException {
+        if (value == null) {
+            writeVarint(out, 0);
+            return;
+        }
+
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarint(out, bytes.length + 1);
+        out.write(bytes);
+    }
+
+    private static int readByte(InputStream in) throws IOException {
+        int b = in.read();
+        if (b == -1) {
+            throw new EOFException();
+        }
+        return b;
+    }
+
+    private static int readVarint(InputStream in, int first) throws IOException {
+        int value = first & 0x7F;
+        int shift = 7;
+        int b = first;
+
+        while ((b & 0x80) != 0) {
+            if (shift > 28) {
+                throw new IOException("Varint too long.");
+            }
+            b = readByte(in);
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        }
+
+        return value;
+    }
+
+    private static String nameOf(String[] names, int index) throws IOException {
+        if (index <= 0 || index >= names.length) {
+            throw new IOException("Unknown code: " + index);
+        }
+        return names[index];
+    }
+
+    // Reads values out of one frame body
+    private static class Decoder {
+        private final byte[] bytes;
+        private int position = 0;
+
+        private Decoder(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        private int readByte() throws IOException {
+            if (position >= bytes.length) {
+                throw new EOFException("Frame ended early.");
+            }
+            return bytes[position++] & 0xFF;
+        }
+
+        private int readVarint() throws IOException {
+            int value = 0;
+
+            for (int shift = 0; shift <= 28; shift += 7) {
+                int b = readByte();
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+
+            throw new IOException("Varint too long.");
+        }
+
+        // Number of elements that follow, each takes at least one byte of the frame
+        // A varint with its high bit set decodes as negative, and neither that nor a count the frame cannot hold is
+        // allowed to reach an array or list allocation
+        private int readCount() throws IOException {
+            int count = readVarint();
+            if (count < 0 || count > bytes.length - position) {
+                throw new IOException("Invalid element count: " + count);
+            }
+            return count;
+        }
+
+        private long readVarlong() throws IOException {
+            long zigZag = 0;
+
+            for (int shift = 0; shift <= 63; shift += 7) {
+                int b = readByte();
+                zigZag |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return (zigZag >>> 1) ^ -(zigZag & 1);
+                }
+            }
+
+            throw new IOException("Varlong too long.");
+        }
+
+        private String readString() throws IOException {
+            int lengthPlusOne = readVarint();
+            if (lengthPlusOne == 0) {
+                return null;
+            }
+
+            int length = lengthPlusOne - 1;
+            if (length < 0 || length > bytes.length - position) {
+                throw new EOFException("String longer than its frame.");
+            }
+
+            String value = new String(bytes, position, length, StandardCharsets.UTF_8);
+            position += length;
+            return value;
+        }
+
+        private User readUser() throws IOException {
+            return new User(readString(), readString(), readString(), readString(),
+                    readString(), readString(), readString(), readByte() == 1);
+        }
+
+        private ArrayList<Message> readMessageBox() throws IOException {
+            int userCount = readCount();
+            User[] users = new User[userCount];
+            for (int i = 0; i < userCount; i++) {
+                users[i] = readUser();
+            }
+
+            int messageCount = readCount();
+            ArrayList<Message> messageBox = new ArrayList<>(messageCount);
+
+            for (int i = 0; i < messageCount; i++) {
+                User sender = userAt(users, readVarint());
+                User receiver = userAt(users, readVarint());
+                String title = readString();
+                String content = readString();
+
+                Timestamp time = new Timestamp(readVarlong());
+                time.setNanos(readVarint());
+
+                messageBox.add(new Message(sender, receiver, title, content, time));
+            }
+
+            return messageBox;
+        }
+
+        private static User userAt(User[] users, int index) throws IOException {
+            if (index < 0 || index >= users.length) {
+                throw new IOException("Invalid user index: " + index);
+            }
+            return users[index];
+        }
+    }
+}
@@ -1,10 +1,13 @@
 package utility;
 
-import database.UsersTable;
 import model.Message;
+import model.MessagePage;
 import model.User;
+import model.UserPage;
+import response.ResponseCode;
 
 import java.util.ArrayList;
+import java.util.Map;
 
 public class ConsoleUI {
     public static void displayActions(User user) {
@@ -28,10 +31,14 @@ public class ConsoleUI {
             System.out.println("6. UPDATE_USER");
             System.out.println("7. REMOVE_USER");
             System.out.println("8. LIST_USERS");
+            System.out.println("9. BULK_ADD_USERS");
+            System.out.println("10. EXPORT_USERS");
         }
     }
 
-    public static void displayInbox(ArrayList<Message> inbox) {
+    public static void displayInbox(MessagePage inboxPage) {
+        ArrayList<Message> inbox = inboxPage.getMessages();
+
         if (inbox == null || inbox.isEmpty()) {
             System.out.println("Inbox is empty.");
             return;
@@ -55,10 +62,14 @@ public class ConsoleUI {
                     sender, title, content, time);
         }
 
+        displayNextPageHint(inboxPage);
+
         System.out.println();
     }
 
-    public static void displayOutbox(ArrayList<Message> outbox) {
+    public static void displayOutbox(MessagePage outboxPage) {
+        ArrayList<Message> outbox = outboxPage.getMessages();
+
         if (outbox == null || outbox.isEmpty()) {
             System.out.println("Outbox is empty.");
             return;
@@ -82,16 +93,40 @@ public class ConsoleUI {
                     receiver, title, content, time);
         }
 
+        displayNextPageHint(outboxPage);
+
         System.out.println();
     }
 
-    public static void displayUsersList(ArrayList<User> usersList) {
-        if (usersList == null || usersList.isEmpty()) {
-            System.out.println("No users found.");
-            return;
+    private static void displayNextPageHint(MessagePage page) {
+        if (page.hasNextPage()) {
+            System.out.println("----------------------------------------------------------------------------------------------");
+            System.out.println("There are older messages.");
+        }
+    }
+
+    public static void displayNewMessage(Message message) {
+        System.out.println();
+        System.out.println("New message from " + message.getSender().getUsername() + " at " + message.getTime() + ":");
+        System.out.println("  " + message.getTitle());
+        System.out.println("  " + message.getContent());
+    }
+
+    private static String orBlank(String value) {
+        return (value == null) ? "" : value;
+    }
+
+    public static void displayRecipientFailures(Map<String, ResponseCode> failures) {
+        for (Map.Entry<String, ResponseCode> failure : failures.entrySet()) {
+            System.out.printf("  %-20s %s\n", failure.getKey(), failure.getValue());
         }
+    }
+
+    // The server leaves the dummy and admin users out of the list
+    public static void displayUsersList(UserPage usersPage) {
+        ArrayList<User> usersList = usersPage.getUsers();
 
-        if (usersList.size() == 2) { // only dummy user and admin user
+        if (usersList == null || usersList.isEmpty()) {
             System.out.println("No users found.");
             return;
         }
@@ -119,23 +154,25 @@ public class ConsoleUI {
                 "Username", "Name", "Surname", "Birthdate", "Gender", "Email", "Location", "Admin");
         System.out.println(mid);
 
+        // Fields that were not asked for are left blank
         for (User user : usersList) {
-            if (!user.getUsername().equals(UsersTable.getDeletedUsername()) &&
-                !user.getUsername().equals(UsersTable.getAdminUsername())) {
-                System.out.printf("║ %-" + unameW + "." + unameW + "s ║ %-" + nameW + "." + nameW + "s ║ %-" + snameW + "." + snameW + "s ║ %-" + bdayW + "." + bdayW + "s ║ %-" + genderW + "." + genderW + "s ║ %-" + emailW + "." + emailW + "s ║ %-" + locW + "." + locW + "s ║ %-" + adminW + "s ║\n",
-                        user.getUsername(),
-                        user.getName(),
-                        user.getSurname(),
-                        user.getBirthdate(),
-                        user.getGender(),
-                        user.getEmail(),
-                        user.getLocation(),
-                        user.isAdmin() ? "Yes" : "No");
-            }
+            System.out.printf("║ %-" + unameW + "." + unameW + "s ║ %-" + nameW + "." + nameW + "s ║ %-" + snameW + "." + snameW + "s ║ %-" + bdayW + "." + bdayW + "s ║ %-" + genderW + "." + genderW + "s ║ %-" + emailW + "." + emailW + "s ║ %-" + locW + "." + locW + "s ║ %-" + adminW + "s ║\n",
+                    user.getUsername(),
+                    orBlank(user.getName()),
+                    orBlank(user.getSurname()),
+                    orBlank(user.getBirthdate()),
+                    orBlank(user.getGender()),
+                    orBlank(user.getEmail()),
+                    orBlank(user.getLocation()),
+                    user.isAdmin() ? "Yes" : "No");
         }
 
         System.out.println(bot);
 
+        if (usersPage.hasNextPage()) {
+            System.out.println("There are more users.");
+        }
+
         System.out.println();
     }
 }
@@ -0,0 +1,132 @@
+package utility;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// Single-pass view over "key<KV>value<DELIM>key<KV>value..." inside a region of a string
+// Only the offsets of the fields are recorded, keys and values are turned into strings when they are asked for
+// Matches the old String.split based parsing: parts without a key-value delimiter are skipped,
+// the value is everything after the first key-value delimiter and the last duplicate key wins
+final class DelimitedFields {
+    private static final int SLOTS_PER_FIELD = 3; // keyStart, valueStart, valueEnd
+
+    private final String source;
+    private final int keyValueDelimiterLength;
+
+    private int[] offsets = new int[8 * SLOTS_PER_FIELD];
+    private int fieldCount = 0;
+
+    DelimitedFields(String source, String fieldDelimiter, String keyValueDelimiter) {
+        this(source, 0, (source == null) ? 0 : source.length(), fieldDelimiter, keyValueDelimiter);
+    }
+
+    DelimitedFields(String source, int begin, int end, String fieldDelimiter, String keyValueDelimiter) {
+        this.source = source;
+        this.keyValueDelimiterLength = keyValueDelimiter.length();
+
+        if (source == null || begin >= end) {
+            return;
+        }
+
+        int partStart = begin;
+
+        while (true) {
+            int partEnd = indexOf(source, fieldDelimiter, partStart, end);
+            if (partEnd == -1) {
+                partEnd = end;
+            }
+
+            int keyValueIndex = indexOf(source, keyValueDelimiter, partStart, partEnd);
+            if (keyValueIndex != -1) {
+                addField(partStart, keyValueIndex + keyValueDelimiterLength, partEnd);
+            }
+
+            if (partEnd == end) {
+                break;
+            }
+            partStart = partEnd + fieldDelimiter.length();
+        }
+    }
+
+    // Index of the first delimiter lying entirely in [from, to), or -1
+    // Never looks past to, so a field region is not searched beyond its end
+    private static int indexOf(String source, String delimiter, int from, int to) {
+        char first = delimiter.charAt(0);
+        int last = to - delimiter.length();
+
+        for (int i = from; i <= last; i++) {
+            if (source.charAt(i) == first && source.startsWith(delimiter, i)) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    private void addField(int keyStart, int valueStart, int valueEnd) {
+        int slot = fieldCount * SLOTS_PER_FIELD;
+
+        if (slot == offsets.length) {
+            int[] grown = new int[offsets.length * 2];
+            System.arraycopy(offsets, 0, grown, 0, offsets.length);
+            offsets = grown;
+        }
+
+        offsets[slot] = keyStart;
+        offsets[slot + 1] = valueStart;
+        offsets[slot + 2] = valueEnd;
+        fieldCount++;
+    }
+
+    int size() {
+        return fieldCount;
+    }
+
+    // Index of the last field with the given key, or -1
+    int indexOf(String key) {
+        for (int i = fieldCount - 1; i >= 0; i--) {
+            int slot = i * SLOTS_PER_FIELD;
+            int keyStart = offsets[slot];
+            int keyLength = offsets[slot + 1] - keyValueDelimiterLength - keyStart;
+
+            if (keyLength == key.length() && source.regionMatches(keyStart, key, 0, keyLength)) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    int getValueStart(int index) {
+        return offsets[index * SLOTS_PER_FIELD + 1];
+    }
+
+    int getValueEnd(int index) {
+        return offsets[index * SLOTS_PER_FIELD + 2];
+    }
+
+    String getKey(int index) {
+        int slot = index * SLOTS_PER_FIELD;
+        return source.substring(offsets[slot], offsets[slot + 1] - keyValueDelimiterLength);
+    }
+
+    String getValue(int index) {
+        return source.substring(getValueStart(index), getValueEnd(index));
+    }
+
+    // Value of the given key, or null if there is no such field
+    String get(String key) {
+        int index = indexOf(key);
+        return (index == -1) ? null : getValue(index);
+    }
+
+    Map<String, String> toMap() {
+        Map<String, String> fields = new HashMap<>();
+
+        for (int i = 0; i < fieldCount; i++) {
+            fields.put(getKey(i), getValue(i));
+        }
+
+        return fields;
+    }
+}
@@ -5,10 +5,13 @@ import model.User;
 import request.Request;
 import response.Response;
 import response.ResponseCode;
+import response.ResponseContent;
 
 import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 /*
@@ -16,6 +19,10 @@ import java.util.Map;
         action%action~serializedRequestContent%username%username~(...)
     response.Response Format: // code here denotes the response code
         code%code%__RESP__user%(...)
+        a message box with a next page also carries __RESP__nextCursor%cursor
+    Message box with a user table, for clients that asked for it at login:
+        userTable%count#user#user#(...)#sender%0^receiver%1^title%(...)
+        every distinct user is written once and messages refer to it by its index in the table
  */
 
 // Utility class for handling the network protocol
@@ -28,13 +35,33 @@ public class ProtocolHandler {
     private static final String USER_FIELD_DELIMITER = "__USER__";              // Used to separate fields inside model.User (old value: |, needs escaping in regex context with "\\" +)
     private static final String MESSAGE_FIELD_DELIMITER = "__MESG__";           // Used to separate fields inside model.Message (old value: ^)
     private static final String KEY_VALUE_DELIMITER = "__KV__";                 // Used to separate a key and value inside a key-value pair (old value: %)
+    private static final String RECIPIENT_DELIMITER = "__RCPT__";               // Used to separate the usernames of the recipients of a message
 
-    // Used to remove the redundant delimiter placed at the end of the serialized fields
-    private static String removeLastOccurrence(String input, String target) {
-        int lastIndex = input.lastIndexOf(target);
-        if (lastIndex == -1) return input; // target not found
+    // Key of the first line of a message box that starts with a user table
+    private static final String USER_TABLE_KEY = "userTable";
 
-        return input.substring(0, lastIndex) + input.substring(lastIndex + target.length());
+    // Rough serialized lengths, used to size each builder up front so it rarely has to grow
+    // Every request is served on a thread of its own, so a builder is not worth keeping between calls
+    private static final int FIELD_LENGTH_ESTIMATE = 32;
+    private static final int USER_LENGTH_ESTIMATE = 128;
+    private static final int MESSAGE_LENGTH_ESTIMATE = 2 * USER_LENGTH_ESTIMATE + 3 * FIELD_LENGTH_ESTIMATE;
+
+    private static int lengthOf(String value) {
+        return (value == null) ? 0 : value.length();
+    }
+
+    // Title and content vary too much to be estimated, they are counted as they are
+    private static int estimateMessageLength(Message message) {
+        return MESSAGE_LENGTH_ESTIMATE + lengthOf(message.getTitle()) + lengthOf(message.getContent());
+    }
+
+    // Appends one key-value pair, preceded by the field delimiter unless it is the first field
+    private static void appendField(StringBuilder out, boolean isFirst, String fieldDelimiter, String key, String value) {
+        if (!isFirst) {
+            out.append(fieldDelimiter);
+        }
+
+        out.append(key).append(KEY_VALUE_DELIMITER).append(value);
     }
 
     // Serializes the given fields with the given delimiter
@@ -43,14 +70,15 @@ public class ProtocolHandler {
             return "";
         }
 
-        String protocolMessage = "";
+        StringBuilder out = new StringBuilder(fields.size() * FIELD_LENGTH_ESTIMATE);
+        boolean isFirst = true;
 
         for (Map.Entry<String, String> entry : fields.entrySet()) {
-            protocolMessage += entry.getKey() + KEY_VALUE_DELIMITER + entry.getValue();
-            protocolMessage += fieldDelimiter;
+            appendField(out, isFirst, fieldDelimiter, entry.getKey(), entry.getValue());
+            isFirst = false;
         }
 
-        return removeLastOccurrence(protocolMessage, fieldDelimiter);
+        return out.toString();
     }
 
     // Parses the given serialized fields into a map of key-value pairs
@@ -59,32 +87,25 @@ public class ProtocolHandler {
             return new HashMap<>();
         }
 
-        Map<String, String> fields = new HashMap<>();
-        String[] parts = serializedFields.split(fieldDelimiter);
-
-        for (String part : parts) {
-            String[] keyVal = part.split(KEY_VALUE_DELIMITER, 2);
-            if (keyVal.length == 2) {
-                fields.put(keyVal[0], keyVal[1]);
-            }
-        }
-
-        return fields;
+        return new DelimitedFields(serializedFields, fieldDelimiter, KEY_VALUE_DELIMITER).toMap();
     }
 
     // Serializes the given fields and creates a request message
     public static String serializeRequest(Request request) {
-        Map<String, String> fields = new HashMap<>();
+        // The content may be serialized lazily, it is built first so that the builder can be sized for it
+        String serializedRequestContent = request.getSerializedRequestContent();
 
-        fields.put("action", request.getAction());
-        fields.put("serializedRequestContent", request.getSerializedRequestContent());
+        StringBuilder out = new StringBuilder(lengthOf(serializedRequestContent) + 2 * FIELD_LENGTH_ESTIMATE);
 
-        return serialize(fields, REQUEST_DELIMITER);
+        appendField(out, true, REQUEST_DELIMITER, "action", request.getAction());
+        appendField(out, false, REQUEST_DELIMITER, "serializedRequestContent", serializedRequestContent);
+
+        return out.toString();
     }
 
     // Parse the given protocol message into a map of related fields, the first field is action
     public static Request parseRequest(String serializedRequest) {
-        Map<String, String> fields = parse(serializedRequest, REQUEST_DELIMITER);
+        DelimitedFields fields = new DelimitedFields(serializedRequest, REQUEST_DELIMITER, KEY_VALUE_DELIMITER);
 
         String action = fields.get("action");
         String serializedRequestContent = fields.get("serializedRequestContent");
@@ -109,40 +130,83 @@ public class ProtocolHandler {
     }
 
     public static String serializeResponse(Response response) {
-        Map<String, String> fields = new HashMap<>();
+        return serializeResponse(response, false);
+    }
 
-        fields.put("responseCode", response.getResponseCode().getCode());
-        fields.put("serializedResponseContent", response.getSerializedResponseContent());
+    // useUserTable: message boxes are written with a user table, only for clients that can read it
+    public static String serializeResponse(Response response, boolean useUserTable) {
+        // The content may be serialized lazily, it is built first so that the builder can be sized for it
+        String serializedResponseContent = response.getResponseContent().serialize(useUserTable);
+
+        StringBuilder out = new StringBuilder(lengthOf(serializedResponseContent) + 3 * FIELD_LENGTH_ESTIMATE);
+
+        appendField(out, true, RESPONSE_DELIMITER, "responseCode", response.getResponseCode().getCode());
+        appendField(out, false, RESPONSE_DELIMITER, "serializedResponseContent", serializedResponseContent);
+
+        // Only message boxes that have a next page carry a cursor, older clients ignore the extra field
+        String nextCursor = response.getResponseContent().getNextCursor();
+        if (nextCursor != null) {
+            appendField(out, false, RESPONSE_DELIMITER, "nextCursor", nextCursor);
+        }
 
-        return serialize(fields, RESPONSE_DELIMITER);
+        return out.toString();
     }
 
     public static Response parseResponse(String serializedResponse) {
-        Map<String, String> fields = parse(serializedResponse, RESPONSE_DELIMITER);
+        DelimitedFields fields = new DelimitedFields(serializedResponse, RESPONSE_DELIMITER, KEY_VALUE_DELIMITER);
 
         ResponseCode responseCode = ResponseCode.fromCode(Integer.parseInt(fields.get("responseCode")));
         String serializedResponseContent = fields.get("serializedResponseContent");
+        String nextCursor = fields.get("nextCursor");
 
-        return new Response(responseCode, serializedResponseContent);
+        return new Response(responseCode, ResponseContent.ofText(serializedResponseContent, nextCursor));
     }
 
+    // A user never changes, so its form is built once and kept on it
     public static String serializeUser(User user) {
-        Map<String, String> fields = new HashMap<>();
+        String serializedUser = user.getSerializedForm();
 
-        fields.put("username", user.getUsername());
-        fields.put("name", user.getName());
-        fields.put("surname", user.getSurname());
-        fields.put("birthdate", user.getBirthdate());
-        fields.put("gender", user.getGender());
-        fields.put("email", user.getEmail());
-        fields.put("location", user.getLocation());
-        fields.put("isAdmin", user.isAdmin() ? "true" : "false");
+        if (serializedUser == null) {
+            StringBuilder out = new StringBuilder(USER_LENGTH_ESTIMATE);
+            appendUserFields(out, user);
 
-        return serialize(fields, USER_FIELD_DELIMITER);
+            serializedUser = out.toString();
+            user.setSerializedForm(serializedUser);
+        }
+
+        return serializedUser;
+    }
+
+    private static void appendUser(StringBuilder out, User user) {
+        out.append(serializeUser(user));
+    }
+
+    // Fields that are null, e.g. left out of a LIST_USERS projection, are not written and parse back as null
+    private static void appendUserFields(StringBuilder out, User user) {
+        appendField(out, true, USER_FIELD_DELIMITER, "username", user.getUsername());
+        appendOptionalUserField(out, "name", user.getName());
+        appendOptionalUserField(out, "surname", user.getSurname());
+        appendOptionalUserField(out, "birthdate", user.getBirthdate());
+        appendOptionalUserField(out, "gender", user.getGender());
+        appendOptionalUserField(out, "email", user.getEmail());
+        appendOptionalUserField(out, "location", user.getLocation());
+        appendField(out, false, USER_FIELD_DELIMITER, "isAdmin", user.isAdmin() ? "true" : "false");
+    }
+
+    private static void appendOptionalUserField(StringBuilder out, String key, String value) {
+        if (value != null) {
+            appendField(out, false, USER_FIELD_DELIMITER, key, value);
+        }
     }
 
     public static User parseUser(String serializedUserFields) {
-        Map<String, String> fields = parse(serializedUserFields, USER_FIELD_DELIMITER);
+        int length = (serializedUserFields == null) ? 0 : serializedUserFields.length();
+        return parseUser(serializedUserFields, 0, length);
+    }
+
+    // Parses the user serialized between begin and end, without copying the region first
+    private static User parseUser(String source, int begin, int end) {
+        DelimitedFields fields = new DelimitedFields(source, begin, end, USER_FIELD_DELIMITER, KEY_VALUE_DELIMITER);
 
         return new User(fields.get("username"),fields.get("name"), fields.get("surname"),
                 fields.get("birthdate"), fields.get("gender"), fields.get("email"),
@@ -152,43 +216,138 @@ public class ProtocolHandler {
     // Sends the user data(sender/receiver) as a serialized model.User object
     // Used in server-side
     public static String serializeMessage(Message message) {
-        Map<String, String> fields = new HashMap<>();
+        StringBuilder out = new StringBuilder(estimateMessageLength(message));
+        appendMessage(out, message);
+
+        return out.toString();
+    }
+
+    // The serialized users are written in place as the values of the sender and receiver fields
+    private static void appendMessage(StringBuilder out, Message message) {
+        out.append("sender").append(KEY_VALUE_DELIMITER);
+        appendUser(out, message.getSender());
+
+        out.append(MESSAGE_FIELD_DELIMITER).append("receiver").append(KEY_VALUE_DELIMITER);
+        appendUser(out, message.getReceiver());
+
+        appendMessageFields(out, message);
+    }
 
-        fields.put("sender",  serializeUser(message.getSender()));
-        fields.put("receiver",  serializeUser(message.getReceiver()));
+    // Same as appendMessage, with the users written as their indexes in the user table
+    private static void appendMessage(StringBuilder out, Message message, Map<String, Integer> userIndexes) {
+        appendField(out, true, MESSAGE_FIELD_DELIMITER, "sender",
+                String.valueOf(userIndexes.get(message.getSender().getUsername())));
+        appendField(out, false, MESSAGE_FIELD_DELIMITER, "receiver",
+                String.valueOf(userIndexes.get(message.getReceiver().getUsername())));
 
-        fields.put("title",  message.getTitle());
-        fields.put("content",  message.getContent());
-        fields.put("time", message.getTime().toString());
+        appendMessageFields(out, message);
+    }
 
-        return serialize(fields,  MESSAGE_FIELD_DELIMITER);
+    private static void appendMessageFields(StringBuilder out, Message message) {
+        appendField(out, false, MESSAGE_FIELD_DELIMITER, "title", message.getTitle());
+        appendField(out, false, MESSAGE_FIELD_DELIMITER, "content", message.getContent());
+        appendField(out, false, MESSAGE_FIELD_DELIMITER, "time", message.getTime().toString());
     }
 
     // Retrieves the user data(sender/receiver) as a model.User object
     // Used in client-side
     public static Message parseMessage(String serializedMessageFields) {
-        Map<String, String> fields = parse(serializedMessageFields, MESSAGE_FIELD_DELIMITER);
+        int length = (serializedMessageFields == null) ? 0 : serializedMessageFields.length();
+        return parseMessage(serializedMessageFields, 0, length);
+    }
+
+    private static Message parseMessage(String source, int begin, int end) {
+        DelimitedFields fields = new DelimitedFields(source, begin, end, MESSAGE_FIELD_DELIMITER, KEY_VALUE_DELIMITER);
+
+        return new Message(parseNestedUser(source, fields, "sender"),
+                parseNestedUser(source, fields, "receiver"),
+                fields.get("title"),
+                fields.get("content"),
+                Timestamp.valueOf(fields.get("time")));
+    }
+
+    // Parses a message whose users are indexes in the given user table
+    private static Message parseMessage(String source, int begin, int end, User[] userTable) {
+        DelimitedFields fields = new DelimitedFields(source, begin, end, MESSAGE_FIELD_DELIMITER, KEY_VALUE_DELIMITER);
 
-        return new Message(parseUser(fields.get("sender")),
-                parseUser(fields.get("receiver")),
+        return new Message(userTable[Integer.parseInt(fields.get("sender"))],
+                userTable[Integer.parseInt(fields.get("receiver"))],
                 fields.get("title"),
                 fields.get("content"),
                 Timestamp.valueOf(fields.get("time")));
     }
 
+    // Parses a user that is serialized as the value of the given field
+    private static User parseNestedUser(String source, DelimitedFields fields, String key) {
+        int index = fields.indexOf(key);
+
+        if (index == -1) {
+            return parseUser(source, 0, 0);
+        }
+
+        return parseUser(source, fields.getValueStart(index), fields.getValueEnd(index));
+    }
+
     private static String serializeMessageBox(ArrayList<Message> messageBox) {
         if  (messageBox == null || messageBox.isEmpty()) {
             return "";
         }
 
-        String serializedMessageBox = "";
+        int expectedLength = 0;
+        for (Message message : messageBox) {
+            expectedLength += estimateMessageLength(message);
+        }
+
+        StringBuilder out = new StringBuilder(expectedLength);
+
+        for (int i = 0; i < messageBox.size(); i++) {
+            if (i > 0) {
+                out.append(LINE_DELIMITER);
+            }
+            appendMessage(out, messageBox.get(i));
+        }
+
+        return out.toString();
+    }
+
+    // Every distinct user of the box is written once in a table at the start, messages refer to them by index
+    public static String serializeMessageBoxWithUserTable(ArrayList<Message> messageBox) {
+        if  (messageBox == null || messageBox.isEmpty()) {
+            return "";
+        }
+
+        Map<String, Integer> userIndexes = new HashMap<>();
+        ArrayList<User> userTable = new ArrayList<>();
+
+        for (Message message : messageBox) {
+            for (User user : new User[]{message.getSender(), message.getReceiver()}) {
+                if (!userIndexes.containsKey(user.getUsername())) {
+                    userIndexes.put(user.getUsername(), userTable.size());
+                    userTable.add(user);
+                }
+            }
+        }
 
+        // Messages refer to their users by index, so only title and content add to the user table
+        int expectedLength = (userTable.size() + 1) * USER_LENGTH_ESTIMATE;
         for (Message message : messageBox) {
-            serializedMessageBox += serializeMessage(message);
-            serializedMessageBox += LINE_DELIMITER;
+            expectedLength += estimateMessageLength(message) - 2 * USER_LENGTH_ESTIMATE;
+        }
+
+        StringBuilder out = new StringBuilder(expectedLength);
+
+        appendField(out, true, LINE_DELIMITER, USER_TABLE_KEY, String.valueOf(userTable.size()));
+        for (User user : userTable) {
+            out.append(LINE_DELIMITER);
+            appendUser(out, user);
         }
 
-        return removeLastOccurrence(serializedMessageBox, LINE_DELIMITER);
+        for (Message message : messageBox) {
+            out.append(LINE_DELIMITER);
+            appendMessage(out, message, userIndexes);
+        }
+
+        return out.toString();
     }
 
     public static String serializeInbox(ArrayList<Message> inbox) {
@@ -199,16 +358,39 @@ public class ProtocolHandler {
         return serializeMessageBox(outbox);
     }
 
+    // Reads both formats, the one with a user table starts with its header line
     private static ArrayList<Message> parseMessageBox(String serializedMessageBox) {
         if  (serializedMessageBox == null || serializedMessageBox.isEmpty()) {
             return new ArrayList<>();
         }
 
         ArrayList<Message> messageBox = new ArrayList<>();
-        String[] lines = serializedMessageBox.split(LINE_DELIMITER);
+        int lineStart = 0;
+        User[] userTable = null;
+
+        if (serializedMessageBox.startsWith(USER_TABLE_KEY + KEY_VALUE_DELIMITER)) {
+            int headerEnd = findLineEnd(serializedMessageBox, 0);
+            int userCount = Integer.parseInt(serializedMessageBox.substring(
+                    USER_TABLE_KEY.length() + KEY_VALUE_DELIMITER.length(), headerEnd));
+
+            userTable = new User[userCount];
+            lineStart = headerEnd + LINE_DELIMITER.length();
 
-        for (String serializedMessage : lines) {
-            messageBox.add(parseMessage(serializedMessage));
+            for (int i = 0; i < userCount; i++) {
+                int lineEnd = findLineEnd(serializedMessageBox, lineStart);
+                userTable[i] = parseUser(serializedMessageBox, lineStart, lineEnd);
+                lineStart = lineEnd + LINE_DELIMITER.length();
+            }
+        }
+
+        while (lineStart < serializedMessageBox.length()) {
+            int lineEnd = findLineEnd(serializedMessageBox, lineStart);
+
+            if (lineEnd > lineStart) {
+                messageBox.add(userTable == null ? parseMessage(serializedMessageBox, lineStart, lineEnd)
+                                                 : parseMessage(serializedMessageBox, lineStart, lineEnd, userTable));
+            }
+            lineStart = lineEnd + LINE_DELIMITER.length();
         }
 
         return  messageBox;
@@ -227,14 +409,16 @@ public class ProtocolHandler {
             return "";
         }
 
-        String serializedUsersList = "";
+        StringBuilder out = new StringBuilder(usersList.size() * USER_LENGTH_ESTIMATE);
 
-        for (User user : usersList) {
-            serializedUsersList += serializeUser(user);
-            serializedUsersList += LINE_DELIMITER;
+        for (int i = 0; i < usersList.size(); i++) {
+            if (i > 0) {
+                out.append(LINE_DELIMITER);
+            }
+            appendUser(out, usersList.get(i));
         }
 
-        return removeLastOccurrence(serializedUsersList, LINE_DELIMITER);
+        return out.toString();
     }
 
     public static ArrayList<User> parseUsersList(String serializedUsersList) {
@@ -243,15 +427,139 @@ public class ProtocolHandler {
         }
 
         ArrayList<User> usersList = new ArrayList<>();
-        String[] lines = serializedUsersList.split(LINE_DELIMITER);
+        int lineStart = 0;
 
-        for (String serializedUser : lines) {
-            usersList.add(parseUser(serializedUser));
+        while (lineStart < serializedUsersList.length()) {
+            int lineEnd = findLineEnd(serializedUsersList, lineStart);
+
+            if (lineEnd > lineStart) {
+                usersList.add(parseUser(serializedUsersList, lineStart, lineEnd));
+            }
+            lineStart = lineEnd + LINE_DELIMITER.length();
         }
 
         return usersList;
     }
 
+    // Users to add with BULK_ADD_USERS, one line each, holding the password next to the user fields
+    public static String serializeUserFieldsList(List<Map<String, String>> userFieldsList) {
+        if (userFieldsList == null || userFieldsList.isEmpty()) {
+            return "";
+        }
+
+        StringBuilder out = new StringBuilder(userFieldsList.size() * USER_LENGTH_ESTIMATE);
+
+        for (int i = 0; i < userFieldsList.size(); i++) {
+            if (i > 0) {
+                out.append(LINE_DELIMITER);
+            }
+
+            boolean isFirst = true;
+            for (Map.Entry<String, String> field : userFieldsList.get(i).entrySet()) {
+                appendField(out, isFirst, USER_FIELD_DELIMITER, field.getKey(), field.getValue());
+                isFirst = false;
+            }
+        }
+
+        return out.toString();
+    }
+
+    public static ArrayList<Map<String, String>> parseUserFieldsList(String serializedUserFieldsList) {
+        ArrayList<Map<String, String>> userFieldsList = new ArrayList<>();
+
+        if (serializedUserFieldsList == null || serializedUserFieldsList.isEmpty()) {
+            return userFieldsList;
+        }
+
+        int lineStart = 0;
+
+        while (lineStart < serializedUserFieldsList.length()) {
+            int lineEnd = findLineEnd(serializedUserFieldsList, lineStart);
+
+            if (lineEnd > lineStart) {
+                userFieldsList.add(new DelimitedFields(serializedUserFieldsList, lineStart, lineEnd,
+                        USER_FIELD_DELIMITER, KEY_VALUE_DELIMITER).toMap());
+            }
+            lineStart = lineEnd + LINE_DELIMITER.length();
+        }
+
+        return userFieldsList;
+    }
+
+    public static String serializeRecipients(List<String> recipients) {
+        return String.join(RECIPIENT_DELIMITER, recipients);
+    }
+
+    public static ArrayList<String> parseRecipients(String serializedRecipients) {
+        ArrayList<String> recipients = new ArrayList<>();
+
+        if (serializedRecipients == null || serializedRecipients.isEmpty()) {
+            return recipients;
+        }
+
+        int start = 0;
+        while (true) {
+            int end = serializedRecipients.indexOf(RECIPIENT_DELIMITER, start);
+            if (end == -1) {
+                end = serializedRecipients.length();
+            }
+
+            if (end > start) {
+                recipients.add(serializedRecipients.substring(start, end));
+            }
+
+            if (end == serializedRecipients.length()) {
+                break;
+            }
+            start = end + RECIPIENT_DELIMITER.length();
+        }
+
+        return recipients;
+    }
+
+    // One line per recipient the message could not be delivered to, with the reason as a response code
+    public static String serializeRecipientFailures(Map<String, ResponseCode> failures) {
+        if (failures == null || failures.isEmpty()) {
+            return "";
+        }
+
+        StringBuilder out = new StringBuilder(failures.size() * FIELD_LENGTH_ESTIMATE);
+        boolean isFirst = true;
+
+        for (Map.Entry<String, ResponseCode> failure : failures.entrySet()) {
+            appendField(out, isFirst, LINE_DELIMITER, failure.getKey(), failure.getValue().getCode());
+            isFirst = false;
+        }
+
+        return out.toString();
+    }
+
+    public static Map<String, ResponseCode> parseRecipientFailures(String serializedFailures) {
+        Map<String, ResponseCode> failures = new LinkedHashMap<>();
+
+        if (serializedFailures == null || serializedFailures.isEmpty()) {
+            return failures;
+        }
+
+        DelimitedFields fields = new DelimitedFields(serializedFailures, LINE_DELIMITER, KEY_VALUE_DELIMITER);
+
+        for (int i = 0; i < fields.size(); i++) {
+            try {
+                failures.put(fields.getKey(i), ResponseCode.fromCode(Integer.parseInt(fields.getValue(i))));
+            } catch (NumberFormatException e) {
+                failures.put(fields.getKey(i), ResponseCode.ERROR);
+            }
+        }
+
+        return failures;
+    }
+
+    // End of the line that starts at lineStart, either the next line delimiter or the end of the input
+    private static int findLineEnd(String serializedLines, int lineStart) {
+        int lineEnd = serializedLines.indexOf(LINE_DELIMITER, lineStart);
+        return (lineEnd == -1) ? serializedLines.length() : lineEnd;
+    }
+
     public static ArrayList<String> getReservedDelimiters() {
         ArrayList<String> delimiters = new ArrayList<>();
 
@@ -262,6 +570,7 @@ public class ProtocolHandler {
         delimiters.add(USER_FIELD_DELIMITER);
         delimiters.add(MESSAGE_FIELD_DELIMITER);
         delimiters.add(KEY_VALUE_DELIMITER);
+        delimiters.add(RECIPIENT_DELIMITER);
 
         return delimiters;
     }
@@ -0,0 +1,47 @@
+package utility;
+
+import model.User;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Comma-separated user files for BULK_ADD_USERS and EXPORT_USERS, one user per line after a header line
+// Values are not quoted, so they cannot contain commas
+public class UserCsv {
+    // Columns of an import file, an export has the same ones without the password
+    private static final String[] IMPORT_COLUMNS = {
+            "username", "password", "name", "surname", "birthdate", "gender", "email", "location", "isAdmin"
+    };
+    private static final String[] EXPORT_COLUMNS = {
+            "username", "name", "surname", "birthdate", "gender", "email", "location", "isAdmin"
+    };
+
+    public static String getImportHeader() {
+        return String.join(",", IMPORT_COLUMNS);
+    }
+
+    public static String getExportHeader() {
+        return String.join(",", EXPORT_COLUMNS);
+    }
+
+    // The fields of one line of an import file, as ADD_USER takes them; null for the header and blank lines
+    public static Map<String, String> parseImportLine(String line) {
+        if (line == null || line.isBlank() || line.equals(getImportHeader())) {
+            return null;
+        }
+
+        String[] values = line.split(",", -1);
+        Map<String, String> userFields = new LinkedHashMap<>();
+
+        for (int i = 0; i < IMPORT_COLUMNS.length; i++) {
+            userFields.put(IMPORT_COLUMNS[i], (i < values.length) ? values[i].trim() : "");
+        }
+
+        return userFields;
+    }
+
+    public static String formatExportLine(User user) {
+        return String.join(",", user.getUsername(), user.getName(), user.getSurname(), user.getBirthdate(),
+                user.getGender(), user.getEmail(), user.getLocation(), user.isAdmin() ? "true" : "false");
+    }
+}